@@ -260,6 +260,17 @@ public abstract class AbstractComponent implements IComponent {
 			};
 	}
 	
+	/**
+	 * Records elapsed time of execution interval measured by caller
+	 * and updates Interval counter. Unlike beginTiming() it doesn't create
+	 * objects, so it can be used on hot paths together with System.nanoTime().
+	 * @param name the name of interval counter.
+	 * @param nanos the elapsed time in nanoseconds.
+	 */
+	public void recordTiming(String name, long nanos) {
+		if (_counters != null) _counters.recordTiming(name, nanos);
+	}
+	
 	/**
 	 * Calculates rolling statistics: minimum, maximum, average
 	 * and updates Statistics counter.
@@ -273,6 +284,19 @@ public abstract class AbstractComponent implements IComponent {
 		if (_counters != null) _counters.stats(name, value);
 	}
 	
+	/**
+	 * Adds a value to Histogram counter that calculates
+	 * the same statistics as Statistics counter and also
+	 * 50, 90, 99 and 99.9 percentiles of the values.
+	 * This counter can be used to track distribution
+	 * of response sizes, queue lengths, etc.
+	 * @param name the name of histogram counter.
+	 * @param value the value to add to the histogram.
+	 */
+	public void histogram(String name, float value) {
+		if (_counters != null) _counters.histogram(name, value);
+	}
+	
 	/**
 	 * Records the last reported value. 
 	 * This counter can be used to store performance values reported
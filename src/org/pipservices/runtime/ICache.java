@@ -1,5 +1,9 @@
 package org.pipservices.runtime;
 
+import java.util.*;
+
+import org.pipservices.runtime.errors.*;
+
 /**
  * Transient cache which is used to bypass persistence 
  * to increase overall system performance. 
@@ -18,6 +22,25 @@ public interface ICache extends IComponent {
 	 * @return a cached value or <b>null</b> if value wasn't found or timeout expired.
 	 */
 	Object retrieve(String key);
+
+	/**
+	 * Retrieves multiple values from the cache in a single call.
+	 * @param keys unique keys to locate values in the cache
+	 * @return a map with found values. Keys that weren't found or expired are not included.
+	 */
+	Map<String, Object> retrieveAll(Collection<String> keys);
+
+	/**
+	 * Retrieves a value from the cache or loads it when the value is missing.
+	 * Concurrent calls for the same missing key are coalesced into
+	 * a single load, and other callers wait for its result.
+	 * Loaded values are stored in the cache.
+	 * @param key a unique key to locate value in the cache
+	 * @param loader a callback to load the value when it is not in the cache
+	 * @return a cached or loaded value or <b>null</b> if the value doesn't exist.
+	 * @throws MicroserviceError when loading fails.
+	 */
+	Object getOrLoad(String key, ICacheLoader loader) throws MicroserviceError;
 	
 	/**
 	 * Stores value identified by unique key in the cache. 
@@ -28,6 +51,25 @@ public interface ICache extends IComponent {
 	 */
 	Object store(String key, Object value);
 	
+	/**
+	 * Stores value identified by unique key in the cache
+	 * with individual expiration timeout. 
+	 * @param key a unique key to locate value in the cache.
+	 * @param value a value to store.
+	 * @param timeout an expiration timeout in milliseconds
+	 * or 0 to use the timeout configured in the component options.
+	 * @return a cached value stored in the cache.
+	 */
+	Object store(String key, Object value, long timeout);
+
+	/**
+	 * Stores multiple values in the cache in a single call.
+	 * Stale timeout is configured in the component options.
+	 * Entries with <b>null</b> values are removed from the cache.
+	 * @param values a map with unique keys and values to store.
+	 */
+	void storeAll(Map<String, Object> values);
+	
 	/**
 	 * Removes value stored in the cache.
 	 * @param key a unique key to locate value in the cache.
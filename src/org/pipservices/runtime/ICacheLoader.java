@@ -0,0 +1,17 @@
+package org.pipservices.runtime;
+
+import org.pipservices.runtime.errors.*;
+
+/**
+ * Callback interface to load values missing in the cache,
+ * for instance, by reading them from persistence.
+ */
+public interface ICacheLoader {
+	/**
+	 * Loads value identified by unique key.
+	 * @param key a unique key of the value.
+	 * @return a loaded value or <b>null</b> if the value doesn't exist.
+	 * @throws MicroserviceError when loading fails.
+	 */
+	Object load(String key) throws MicroserviceError;
+}
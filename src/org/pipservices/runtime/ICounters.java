@@ -23,6 +23,15 @@ public interface ICounters extends IComponent {
 	 * that shall be called at the end of execution.
 	 */
 	ITiming beginTiming(String name);
+
+	/**
+	 * Records elapsed time of execution interval measured by caller
+	 * and updates Interval counter. Unlike beginTiming() it doesn't create
+	 * objects, so it can be used on hot paths together with System.nanoTime().
+	 * @param name the name of interval counter.
+	 * @param nanos the elapsed time in nanoseconds.
+	 */
+	void recordTiming(String name, long nanos);
 	
 	/**
 	 * Calculates rolling statistics: minimum, maximum, average
@@ -34,6 +43,17 @@ public interface ICounters extends IComponent {
 	 * @param value the value to add to statistics calculations.
 	 */
 	void stats(String name, float value);
+
+	/**
+	 * Adds a value to Histogram counter that calculates
+	 * the same statistics as Statistics counter and also
+	 * 50, 90, 99 and 99.9 percentiles of the values.
+	 * This counter can be used to track distribution
+	 * of response sizes, queue lengths, etc.
+	 * @param name the name of histogram counter.
+	 * @param value the value to add to the histogram.
+	 */
+	void histogram(String name, float value);
 	
 	/**
 	 * Records the last reported value. 
@@ -27,8 +27,12 @@ public class DefaultFactory extends ComponentFactory {
 		register(ConsoleLogger.Descriptor, ConsoleLogger.class);
 		register(NullCounters.Descriptor, NullCounters.class);
 		register(LogCounters.Descriptor, LogCounters.class);
+		register(PrometheusCounters.Descriptor, PrometheusCounters.class);
 		register(NullCache.Descriptor, NullCache.class);
 		register(MemoryCache.Descriptor, MemoryCache.class);
+		register(ConcurrentCache.Descriptor, ConcurrentCache.class);
+		register(OffHeapCache.Descriptor, OffHeapCache.class);
+		register(TieredCache.Descriptor, TieredCache.class);
 		register(FileBootConfig.Descriptor, FileBootConfig.class);
 	}
 }
@@ -1,17 +1,47 @@
 package org.pipservices.runtime.cache;
 
+import java.util.*;
+import java.util.concurrent.*;
+
 import org.pipservices.runtime.*;
 import org.pipservices.runtime.config.*;
+import org.pipservices.runtime.errors.*;
+import org.pipservices.runtime.errors.UnknownError;
+import org.pipservices.runtime.portability.*;
 
 /**
  * Abstract implementation for transient cache.
  * It can be used to bypass persistence to increase overall system performance. 
  * 
+ * Cache usage statistics are collected in {@link CacheStats} and,
+ * while the cache is opened, published to linked counters every
+ * 'options.stats_interval' milliseconds with names prefixed by 'options.name'.
+ * By default the prefix is 'cache.' followed by the cache type.
+ * 
  * @author Sergey Seroukhov
- * @version 1.0
+ * @version 1.1
  * @since 2016-05-01
  */
 public abstract class AbstractCache extends AbstractComponent implements ICache {
+	/**
+	 * Default configuration for cache components
+	 */
+	private final static DynamicMap DefaultConfig = DynamicMap.fromTuples(
+		"options.stats_interval", 10000 // statistics publishing interval in milliseconds
+	);
+
+	private ConcurrentMap<String, CompletableFuture<Object>> _loads =
+		new ConcurrentHashMap<String, CompletableFuture<Object>>();
+
+	/**
+	 * Usage statistics of this cache
+	 */
+	protected CacheStats _stats = new CacheStats();
+	private String _statsName;
+	private long _statsInterval;
+	private Timer _statsTimer;
+	private long[] _published = new long[6];
+
 	/**
 	 * Constructs and initializes cache instance.
 	 * @param descriptor the unique component descriptor to identify and locate the component
@@ -19,6 +49,141 @@ public abstract class AbstractCache extends AbstractComponent implements ICache
 	protected AbstractCache(ComponentDescriptor descriptor) {
 		super(descriptor);
 	}
+
+	/**
+	 * Sets component configuration parameters and switches from component
+	 * to 'Configured' state. The configuration is only allowed once
+	 * right after creation. Attempts to perform reconfiguration will
+	 * cause an exception.
+	 * @param config the component configuration parameters.
+	 * @throws MicroserviceError when component is in illegal state
+	 * or configuration validation fails.
+	 */
+	@Override
+	public void configure(ComponentConfig config) throws MicroserviceError {
+		checkNewStateAllowed(State.Configured);
+
+		config = config.withDefaults(DefaultConfig);
+		super.configure(config);
+
+		_statsName = config.getOptions().getNullableString("name");
+		_statsInterval = config.getOptions().getLong("stats_interval");
+	}
+
+	/**
+	 * Opens the component, performs initialization, opens connections
+	 * to external services and makes the component ready for operations.
+	 * Opening can be done multiple times: right after linking 
+	 * or reopening after closure.  
+	 * @throws MicroserviceError when initialization or connections fail.
+	 */
+	@Override
+	public void open() throws MicroserviceError {
+		checkNewStateAllowed(State.Opened);
+
+		super.open();
+
+		if (_counters != null && _statsInterval > 0) {
+			_statsTimer = new Timer(true);
+			_statsTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						publishStats();
+					} catch (Exception ex) {
+						error(null, "Failed to publish cache statistics", ex);
+					}
+				}
+			}, _statsInterval, _statsInterval);
+		}
+	}
+
+	/**
+	 * Closes the component and all open connections, performs deinitialization
+	 * steps. Closure can only be done from opened state. Attempts to close
+	 * already closed component or in wrong order will cause exception.
+	 * @throws MicroserviceError with closure fails.
+	 */
+	@Override
+	public void close() throws MicroserviceError {
+		checkNewStateAllowed(State.Closed);
+
+		if (_statsTimer != null) {
+			_statsTimer.cancel();
+			_statsTimer = null;
+			publishStats();
+		}
+
+		super.close();
+	}
+
+	/**
+	 * Gets usage statistics of this cache.
+	 * @return the cache statistics.
+	 */
+	public CacheStats getStats() {
+		return _stats;
+	}
+
+	/**
+	 * Gets name prefix for performance counters of this cache.
+	 * @return the counters name prefix.
+	 */
+	protected String getStatsName() {
+		return _statsName != null ? _statsName : "cache." + _descriptor.getType();
+	}
+
+	/**
+	 * Gets number of values stored in the cache.
+	 * @return the number of cached values or -1 if it is unknown.
+	 */
+	protected long estimateSize() {
+		return -1;
+	}
+
+	/**
+	 * Gets estimated memory occupied by the cached values.
+	 * @return the number of bytes or -1 if it is unknown.
+	 */
+	protected long estimateBytes() {
+		return -1;
+	}
+
+	/**
+	 * Publishes cache statistics to linked counters.
+	 * Hits, misses, evictions, expirations and loads are reported as increments
+	 * since the previous publishing, average load time in milliseconds as statistics,
+	 * hit ratio, size and bytes as last values.
+	 * This method is called periodically by background task when the cache is opened.
+	 */
+	protected synchronized void publishStats() {
+		String name = getStatsName();
+		long[] current = new long[] {
+			_stats.getHits(), _stats.getMisses(), _stats.getEvictions(),
+			_stats.getExpirations(), _stats.getLoads(), _stats.getLoadTime()
+		};
+		String[] names = new String[] { ".hits", ".misses", ".evictions", ".expirations", ".loads" };
+
+		for (int index = 0; index < names.length; index++) {
+			long delta = current[index] - _published[index];
+			if (delta > 0)
+				increment(name + names[index], (int)Math.min(delta, Integer.MAX_VALUE));
+		}
+
+		// Average load time in milliseconds since the previous publishing
+		long loads = current[4] - _published[4];
+		if (loads > 0)
+			stats(name + ".load_time", (float)(current[5] - _published[5]) / loads / 1000000);
+
+		_published = current;
+
+		last(name + ".hit_ratio", _stats.getHitRatio());
+
+		long size = estimateSize();
+		if (size >= 0) last(name + ".size", size);
+		long bytes = estimateBytes();
+		if (bytes >= 0) last(name + ".bytes", bytes);
+	}
 	
 	/**
 	 * Retrieves a value from the cache by unique key.
@@ -30,6 +195,126 @@ public abstract class AbstractCache extends AbstractComponent implements ICache
 	 */
 	public abstract Object retrieve(String key);
 
+	/**
+	 * Retrieves multiple values from the cache in a single call.
+	 * This implementation retrieves values one by one.
+	 * Caches that can process batches more efficiently shall override it.
+	 * @param keys unique keys to locate values in the cache
+	 * @return a map with found values. Keys that weren't found or expired are not included.
+	 */
+	public Map<String, Object> retrieveAll(Collection<String> keys) {
+		Map<String, Object> result = new HashMap<String, Object>();
+		for (String key : keys) {
+			Object value = retrieve(key);
+			if (value != null)
+				result.put(key, value);
+		}
+		return result;
+	}
+
+	/**
+	 * Retrieves a value from the cache or loads it when the value is missing.
+	 * Concurrent calls for the same missing key are coalesced into
+	 * a single load, and other callers wait for its result.
+	 * Loaded values are stored in the cache.
+	 * @param key a unique key to locate value in the cache
+	 * @param loader a callback to load the value when it is not in the cache
+	 * @return a cached or loaded value or <b>null</b> if the value doesn't exist.
+	 * @throws MicroserviceError when loading fails.
+	 */
+	public Object getOrLoad(String key, ICacheLoader loader) throws MicroserviceError {
+		Object value = retrieve(key);
+		if (value != null) return value;
+
+		return awaitLoad(key, load(key, loader, 0, false, null));
+	}
+
+	/**
+	 * Looks up a value without recording hits and misses or updating
+	 * its access statistics. It is used to check for values stored
+	 * concurrently with loads that were already counted as misses.
+	 * This implementation finds nothing, so the value is always loaded.
+	 * Caches that can look up values without side effects shall override it.
+	 * @param key a unique key to locate value in the cache
+	 * @return a cached value or <b>null</b> if value wasn't found or timeout expired.
+	 */
+	protected Object peek(String key) {
+		return null;
+	}
+
+	/**
+	 * Starts loading value or joins the load that is already in progress for the same key.
+	 * The caller that starts the load stores the result in the cache.
+	 * When a refreshed value no longer exists, it is removed from the cache.
+	 * @param key a unique key to locate value in the cache
+	 * @param loader a callback to load the value
+	 * @param timeout an expiration timeout for the loaded value in milliseconds
+	 * or 0 to use the default one.
+	 * @param refresh <b>true</b> to reload the value even if it is already in the cache
+	 * @param executor an executor to load value in background
+	 * or <b>null</b> to load it in the calling thread.
+	 * @return a future with loaded value.
+	 */
+	protected CompletableFuture<Object> load(String key, ICacheLoader loader, long timeout, boolean refresh, Executor executor) {
+		CompletableFuture<Object> future = new CompletableFuture<Object>();
+		CompletableFuture<Object> existing = _loads.putIfAbsent(key, future);
+		if (existing != null) return existing;
+
+		Runnable task = () -> {
+			try {
+				// The value could be stored while this load was registered
+				Object value = refresh ? null : peek(key);
+				if (value == null) {
+					long start = System.nanoTime();
+					value = loader.load(key);
+					_stats.recordLoad(System.nanoTime() - start);
+					if (value != null) store(key, value, timeout);
+					else if (refresh) remove(key);
+				}
+				future.complete(value);
+			} catch (Throwable ex) {
+				future.completeExceptionally(ex);
+			} finally {
+				_loads.remove(key, future);
+			}
+		};
+
+		if (executor != null) {
+			try {
+				executor.execute(task);
+			} catch (RejectedExecutionException ex) {
+				_loads.remove(key, future);
+				future.completeExceptionally(ex);
+			}
+		} else task.run();
+
+		return future;
+	}
+
+	/**
+	 * Waits for the load to complete and unwraps its errors.
+	 * @param key a unique key of the loaded value
+	 * @param future a future with loaded value
+	 * @return the loaded value.
+	 * @throws MicroserviceError when loading fails or the wait was interrupted.
+	 */
+	protected Object awaitLoad(String key, CompletableFuture<Object> future) throws MicroserviceError {
+		try {
+			return future.get();
+		} catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+			throw new UnknownError(this, "Interrupted", "Loading " + key + " was interrupted")
+				.withDetails(key);
+		} catch (ExecutionException ex) {
+			Throwable cause = ex.getCause();
+			if (cause instanceof MicroserviceError)
+				throw (MicroserviceError)cause;
+			throw new UnknownError(this, "LoadFailed", "Failed to load " + key + ": " + cause)
+				.withDetails(key)
+				.withCause(cause);
+		}
+	}
+
 	/**
 	 * Stores value identified by unique key in the cache. 
 	 * Stale timeout is configured in the component options. 
@@ -39,6 +324,30 @@ public abstract class AbstractCache extends AbstractComponent implements ICache
 	 */
 	public abstract Object store(String key, Object value);
 
+	/**
+	 * Stores value identified by unique key in the cache
+	 * with individual expiration timeout. 
+	 * @param key a unique key to locate value in the cache.
+	 * @param value a value to store.
+	 * @param timeout an expiration timeout in milliseconds
+	 * or 0 to use the timeout configured in the component options.
+	 * @return a cached value stored in the cache.
+	 */
+	public abstract Object store(String key, Object value, long timeout);
+
+	/**
+	 * Stores multiple values in the cache in a single call.
+	 * Stale timeout is configured in the component options.
+	 * Entries with <b>null</b> values are removed from the cache.
+	 * This implementation stores values one by one.
+	 * Caches that can process batches more efficiently shall override it.
+	 * @param values a map with unique keys and values to store.
+	 */
+	public void storeAll(Map<String, Object> values) {
+		for (Map.Entry<String, Object> entry : values.entrySet())
+			store(entry.getKey(), entry.getValue());
+	}
+
 	/**
 	 * Removes value stored in the cache.
 	 * @param key a unique key to locate value in the cache.
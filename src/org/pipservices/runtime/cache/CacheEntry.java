@@ -3,14 +3,30 @@ package org.pipservices.runtime.cache;
 /**
  * Holds cached value for in-memory cache.
  * 
+ * Besides the value the entry carries intrusive links that are used
+ * by eviction policies to keep entries in constant-time lists
+ * without allocating separate list nodes.
+ * 
  * @author Sergey Seroukhov
- * @version 1.0
+ * @version 1.1
  * @since 2016-06-09
  */
 public class CacheEntry {
 	private long _created = System.currentTimeMillis();
 	private String _key;
 	private Object _value;
+	long _expires;
+
+	// Intrusive links managed by eviction policies
+	CacheEntry _prev;
+	CacheEntry _next;
+	int _queue;
+	int _frequency;
+	LfuEvictionPolicy.Bucket _bucket;
+
+	// Intrusive links managed by timer wheel
+	CacheEntry _timerPrev;
+	CacheEntry _timerNext;
 
 	/**
 	 * Creates instance of the cache entry.
@@ -54,4 +70,21 @@ public class CacheEntry {
 	public long getCreated() {
 		return _created;
 	}
+
+	/**
+	 * Gets time when the cached value expires.
+	 * @return the expiration time or 0 if the value never expires.
+	 */
+	public long getExpires() {
+		return _expires;
+	}
+
+	/**
+	 * Checks if the cached value is expired at the given time.
+	 * @param now the current time in milliseconds.
+	 * @return <b>true</b> if the value is expired.
+	 */
+	public boolean isExpired(long now) {
+		return _expires > 0 && now > _expires;
+	}
 }
@@ -0,0 +1,97 @@
+package org.pipservices.runtime.cache;
+
+/**
+ * Doubly-linked list of cache entries that uses intrusive links
+ * stored in the entries themselves. All operations take constant time.
+ * The first entry is the most recently added or touched one,
+ * the last entry is the least recently used one.
+ */
+class CacheEntryList {
+	private CacheEntry _head = new CacheEntry(null, null);
+	private int _size = 0;
+
+	/**
+	 * Creates an empty list.
+	 */
+	public CacheEntryList() {
+		_head._prev = _head;
+		_head._next = _head;
+	}
+
+	/**
+	 * Gets number of entries in the list.
+	 * @return the list size.
+	 */
+	public int size() {
+		return _size;
+	}
+
+	/**
+	 * Checks if the list has no entries.
+	 * @return <b>true</b> if the list is empty.
+	 */
+	public boolean isEmpty() {
+		return _size == 0;
+	}
+
+	/**
+	 * Inserts entry at the beginning of the list.
+	 * @param entry an entry to be inserted.
+	 */
+	public void addFirst(CacheEntry entry) {
+		entry._prev = _head;
+		entry._next = _head._next;
+		_head._next._prev = entry;
+		_head._next = entry;
+		_size++;
+	}
+
+	/**
+	 * Removes entry from the list.
+	 * @param entry an entry to be removed.
+	 */
+	public void remove(CacheEntry entry) {
+		if (entry._prev == null) return;
+
+		entry._prev._next = entry._next;
+		entry._next._prev = entry._prev;
+		entry._prev = null;
+		entry._next = null;
+		_size--;
+	}
+
+	/**
+	 * Moves entry that already belongs to this list to its beginning.
+	 * @param entry an entry to be moved.
+	 */
+	public void moveToFirst(CacheEntry entry) {
+		if (_head._next == entry) return;
+
+		remove(entry);
+		addFirst(entry);
+	}
+
+	/**
+	 * Gets the last (least recently used) entry.
+	 * @return the last entry or <b>null</b> if the list is empty.
+	 */
+	public CacheEntry getLast() {
+		return _size > 0 ? _head._prev : null;
+	}
+
+	/**
+	 * Removes all entries from the list.
+	 */
+	public void clear() {
+		CacheEntry entry = _head._next;
+		while (entry != _head) {
+			CacheEntry next = entry._next;
+			entry._prev = null;
+			entry._next = null;
+			entry = next;
+		}
+		_head._prev = _head;
+		_head._next = _head;
+		_size = 0;
+	}
+}
@@ -0,0 +1,258 @@
+package org.pipservices.runtime.cache;
+
+import java.util.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Independent part of in-memory cache that holds a subset of keys
+ * with its own hash map, eviction policy and size limit.
+ * The segment itself is a lock that shall be held by callers
+ * during every operation. Splitting the cache into several segments
+ * lets concurrent threads work with different keys in parallel.
+ */
+class CacheSegment extends ReentrantLock {
+	private static final long serialVersionUID = 4785360173942839016L;
+
+	private Map<String, CacheEntry> _cache = new HashMap<String, CacheEntry>();
+	private IEvictionPolicy _policy;
+	private TimerWheel _wheel;
+	private IEvictionListener _listener;
+	private List<CacheEntry> _evicted = new ArrayList<CacheEntry>();
+	private volatile int _count = 0;
+	private volatile long _keyChars = 0;
+	private CacheStats _stats;
+	private long _timeout;
+	private int _maxSize;
+
+	/**
+	 * Creates a cache segment.
+	 * @param policy an eviction policy for entries in this segment.
+	 * @param timeout a default expiration timeout in milliseconds or 0 to disable expiration.
+	 * @param maxSize a maximum number of entries or 0 for unlimited size.
+	 * @param background <b>true</b> to track expiration time in timer wheel
+	 * for background cleanup or <b>false</b> to expire entries only on access.
+	 * @param stats a statistics collector of the cache.
+	 */
+	public CacheSegment(IEvictionPolicy policy, long timeout, int maxSize, boolean background, CacheStats stats) {
+		_policy = policy;
+		_stats = stats;
+		_timeout = timeout;
+		_maxSize = maxSize;
+		_wheel = background ? new TimerWheel(System.currentTimeMillis()) : null;
+	}
+
+	/**
+	 * Gets number of entries stored in the segment.
+	 * It can be safely read without holding the lock.
+	 * @return the number of entries.
+	 */
+	public int size() {
+		return _count;
+	}
+
+	/**
+	 * Gets total length of keys stored in the segment.
+	 * It can be safely read without holding the lock.
+	 * @return the number of characters in all keys.
+	 */
+	public long keyChars() {
+		return _keyChars;
+	}
+
+	/**
+	 * Sets listener that is notified about entries evicted due to size limit.
+	 * The listener is notified about every evicted entry while the segment lock
+	 * is held, and then again with all of them after the lock is released.
+	 * @param listener a listener of evicted entries or <b>null</b> to remove the listener.
+	 */
+	public void setEvictionListener(IEvictionListener listener) {
+		_listener = listener;
+	}
+
+	/**
+	 * Removes entry from the segment and unregisters it from eviction policy.
+	 * @param entry the entry to be removed.
+	 */
+	private void removeEntry(CacheEntry entry) {
+		_cache.remove(entry.getKey());
+		_policy.onRemoved(entry);
+		if (_wheel != null)
+			_wheel.deschedule(entry);
+		_count--;
+		_keyChars -= entry.getKey().length();
+	}
+
+	/**
+	 * Removes expired entry from the segment.
+	 * @param entry the entry to be removed.
+	 */
+	private void expireEntry(CacheEntry entry) {
+		removeEntry(entry);
+		_stats.recordExpiration();
+	}
+
+	/**
+	 * Sets expiration time for the entry and schedules it in the timer wheel.
+	 * @param entry the entry to be scheduled.
+	 * @param now the current time in milliseconds.
+	 * @param timeout the expiration timeout or 0 to use the default one.
+	 */
+	private void setExpiration(CacheEntry entry, long now, long timeout) {
+		timeout = timeout > 0 ? timeout : _timeout;
+		entry._expires = timeout > 0 ? now + timeout : 0;
+
+		if (_wheel != null)
+			_wheel.reschedule(entry);
+	}
+
+	/**
+	 * Removes all expired entries tracked by the timer wheel.
+	 * @param now the current time in milliseconds.
+	 */
+	public void expire(long now) {
+		if (_wheel != null)
+			_wheel.advance(now, this::expireEntry);
+	}
+
+	/**
+	 * Shrinks the segment to fit into allowed max size by dropping
+	 * entries selected by eviction policy. Each eviction takes constant time.
+	 */
+	private void evict() {
+		while (_count > _maxSize) {
+			CacheEntry victim = _policy.selectVictim();
+			if (victim == null) break;
+			removeEntry(victim);
+			_stats.recordEviction();
+			if (_listener != null) {
+				_listener.onEvicting(victim);
+				_evicted.add(victim);
+			}
+		}
+	}
+
+	/**
+	 * Releases the lock and passes entries evicted while it was held
+	 * to the eviction listener, so the listener can do slow work
+	 * without blocking other threads in this segment.
+	 */
+	@Override
+	public void unlock() {
+		List<CacheEntry> evicted = null;
+		if (getHoldCount() == 1 && _evicted.size() > 0) {
+			evicted = _evicted;
+			_evicted = new ArrayList<CacheEntry>();
+		}
+
+		super.unlock();
+
+		IEvictionListener listener = _listener;
+		if (evicted != null && listener != null) {
+			for (CacheEntry entry : evicted)
+				listener.onEvicted(entry);
+		}
+	}
+
+	/**
+	 * Retrieves a value by its key.
+	 * @param key a unique key to locate value in the cache.
+	 * @return a cached value or <b>null</b> if value wasn't found or timeout expired.
+	 */
+	public Object retrieve(String key) {
+		CacheEntry entry = retrieveEntry(key);
+		return entry != null ? entry.getValue() : null;
+	}
+
+	/**
+	 * Looks up a value by its key without recording statistics,
+	 * updating eviction policy or removing expired entry.
+	 * @param key a unique key to locate value in the cache.
+	 * @return a cached value or <b>null</b> if value wasn't found or timeout expired.
+	 */
+	public Object peek(String key) {
+		CacheEntry entry = _cache.get(key);
+		return entry != null && !entry.isExpired(System.currentTimeMillis())
+			? entry.getValue() : null;
+	}
+
+	/**
+	 * Retrieves an entry by its key.
+	 * @param key a unique key to locate value in the cache.
+	 * @return a cache entry or <b>null</b> if entry wasn't found or timeout expired.
+	 */
+	public CacheEntry retrieveEntry(String key) {
+		// Get entry from the cache
+		CacheEntry entry = _cache.get(key);
+
+		// Cache has nothing
+		if (entry == null) {
+			_stats.recordMiss();
+			return null;
+		}
+
+		// Remove entry if expiration set and entry is expired
+		if (entry.isExpired(System.currentTimeMillis())) {
+			expireEntry(entry);
+			_stats.recordMiss();
+			return null;
+		}
+
+		// Update access statistics
+		_policy.onAccessed(entry);
+		_stats.recordHit();
+		return entry;
+	}
+
+	/**
+	 * Stores a value identified by its key.
+	 * @param key a unique key to locate value in the cache.
+	 * @param value a value to store or <b>null</b> to remove the entry.
+	 * @param timeout an expiration timeout in milliseconds or 0 to use the default one.
+	 * @return a cached value stored in the cache.
+	 */
+	public Object store(String key, Object value, long timeout) {
+		// Get the entry
+		CacheEntry entry = _cache.get(key);
+
+		// Shortcut to remove entry from the cache
+		if (value == null) {
+			if (entry != null)
+				removeEntry(entry);
+			return null;
+		}
+
+		// Update the entry
+		if (entry != null) {
+			entry.setValue(value);
+			_policy.onAccessed(entry);
+		}
+		// Or create a new entry
+		else {
+			entry = new CacheEntry(key, value);
+			_cache.put(key, entry);
+			_policy.onAdded(entry);
+			_count++;
+			_keyChars += key.length();
+		}
+		setExpiration(entry, entry.getCreated(), timeout);
+
+		// Evict entries that exceed max size
+		if (_maxSize > 0 && _count > _maxSize)
+			evict();
+
+		return value;
+	}
+
+	/**
+	 * Removes a value by its key.
+	 * @param key a unique key to locate value in the cache.
+	 */
+	public void remove(String key) {
+		// Get the entry
+		CacheEntry entry = _cache.get(key);
+
+		// Remove entry from the cache
+		if (entry != null)
+			removeEntry(entry);
+	}
+}
@@ -0,0 +1,129 @@
+package org.pipservices.runtime.cache;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Accumulates cache usage statistics: hits, misses, evictions,
+ * expirations and loads. Counters are striped LongAdders, so recording
+ * from many threads doesn't add contention to cache operations.
+ * All counters are cumulative since the cache was created.
+ */
+public class CacheStats {
+	private LongAdder _hits = new LongAdder();
+	private LongAdder _misses = new LongAdder();
+	private LongAdder _evictions = new LongAdder();
+	private LongAdder _expirations = new LongAdder();
+	private LongAdder _loads = new LongAdder();
+	private LongAdder _loadTime = new LongAdder();
+
+	/**
+	 * Records a successful cache lookup.
+	 */
+	public void recordHit() {
+		_hits.increment();
+	}
+
+	/**
+	 * Records a failed cache lookup.
+	 */
+	public void recordMiss() {
+		_misses.increment();
+	}
+
+	/**
+	 * Records multiple successful cache lookups.
+	 * @param count the number of hits.
+	 */
+	public void recordHits(long count) {
+		_hits.add(count);
+	}
+
+	/**
+	 * Records multiple failed cache lookups.
+	 * @param count the number of misses.
+	 */
+	public void recordMisses(long count) {
+		_misses.add(count);
+	}
+
+	/**
+	 * Records removal of entry to keep cache within its size limit.
+	 */
+	public void recordEviction() {
+		_evictions.increment();
+	}
+
+	/**
+	 * Records removal of expired entry.
+	 */
+	public void recordExpiration() {
+		_expirations.increment();
+	}
+
+	/**
+	 * Records loading of missing value.
+	 * @param nanos the time spent on loading in nanoseconds.
+	 */
+	public void recordLoad(long nanos) {
+		_loads.increment();
+		_loadTime.add(nanos);
+	}
+
+	/**
+	 * Gets number of successful cache lookups.
+	 * @return the number of hits.
+	 */
+	public long getHits() {
+		return _hits.sum();
+	}
+
+	/**
+	 * Gets number of failed cache lookups.
+	 * @return the number of misses.
+	 */
+	public long getMisses() {
+		return _misses.sum();
+	}
+
+	/**
+	 * Gets ratio of successful lookups.
+	 * @return the hit ratio from 0 to 1 or 0 if there were no lookups.
+	 */
+	public float getHitRatio() {
+		long hits = getHits();
+		long total = hits + getMisses();
+		return total > 0 ? (float)hits / total : 0;
+	}
+
+	/**
+	 * Gets number of entries evicted due to size limit.
+	 * @return the number of evictions.
+	 */
+	public long getEvictions() {
+		return _evictions.sum();
+	}
+
+	/**
+	 * Gets number of expired entries.
+	 * @return the number of expirations.
+	 */
+	public long getExpirations() {
+		return _expirations.sum();
+	}
+
+	/**
+	 * Gets number of loads performed through getOrLoad.
+	 * @return the number of loads.
+	 */
+	public long getLoads() {
+		return _loads.sum();
+	}
+
+	/**
+	 * Gets total time spent on loads.
+	 * @return the load time in nanoseconds.
+	 */
+	public long getLoadTime() {
+		return _loadTime.sum();
+	}
+}
@@ -0,0 +1,50 @@
+package org.pipservices.runtime.cache;
+
+import org.pipservices.runtime.config.*;
+import org.pipservices.runtime.errors.*;
+import org.pipservices.runtime.portability.*;
+
+/**
+ * In-memory cache optimized for concurrent access from multiple threads,
+ * for instance, from request handlers of REST services.
+ * Keys are distributed between lock-striped segments, so threads working
+ * with different keys rarely compete for the same lock and throughput
+ * scales with number of cores. Number of segments is set in 'options.segments'
+ * and the maximum cache size is split evenly between them.
+ */
+public class ConcurrentCache extends MemoryCache {
+	/**
+	 * Unique descriptor for the Concurrent Cache component
+	 */
+	public final static ComponentDescriptor Descriptor = new ComponentDescriptor(
+		Category.Cache, "pip-services-runtime-cache", "concurrent", "*"
+	);
+
+	/**
+	 * Default configuration for concurrent cache component
+	 */
+	private final static DynamicMap DefaultConfig = DynamicMap.fromTuples(
+		"options.segments", 4 * Runtime.getRuntime().availableProcessors()
+	);
+
+	/**
+	 * Creates instance of concurrent in-memory cache component
+	 */
+	public ConcurrentCache() {
+		super(Descriptor);
+	}
+
+	/**
+	 * Sets component configuration parameters and switches from component
+	 * to 'Configured' state. The configuration is only allowed once
+	 * right after creation. Attempts to perform reconfiguration will
+	 * cause an exception.
+	 * @param config the component configuration parameters.
+	 * @throws MicroserviceError when component is in illegal state
+	 * or configuration validation fails.
+	 */
+	@Override
+	public void configure(ComponentConfig config) throws MicroserviceError {
+		super.configure(config.withDefaults(DefaultConfig));
+	}
+}
@@ -0,0 +1,115 @@
+package org.pipservices.runtime.cache;
+
+/**
+ * Probabilistic estimator of access frequency (Count-Min sketch)
+ * that uses 4-bit counters packed into long words. To let the
+ * popularity of keys change over time all counters are halved
+ * once the number of recorded accesses reaches the sample size.
+ */
+class FrequencySketch {
+	private final static long[] Seeds = new long[] {
+		0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+	};
+	private final static long ResetMask = 0x7777777777777777L;
+	private final static long OneMask = 0x1111111111111111L;
+
+	private long[] _table;
+	private int _tableMask;
+	private int _sampleSize;
+	private int _size;
+
+	/**
+	 * Creates a sketch sized for specified number of tracked keys.
+	 * @param capacity a maximum number of keys kept in the cache.
+	 */
+	public FrequencySketch(int capacity) {
+		capacity = Math.min(Math.max(16, capacity), 1 << 26);
+		_table = new long[Integer.highestOneBit(capacity - 1) << 1];
+		_tableMask = _table.length - 1;
+		_sampleSize = 10 * capacity;
+	}
+
+	/**
+	 * Spreads bits of the key hash code.
+	 * @param key a key to hash.
+	 * @return a well distributed hash value.
+	 */
+	public static int hash(String key) {
+		int hash = key.hashCode();
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		hash = ((hash >>> 16) ^ hash) * 0x45d9f3b;
+		return (hash >>> 16) ^ hash;
+	}
+
+	/**
+	 * Estimates number of accesses to the key within the sample.
+	 * @param hash a hash of the key.
+	 * @return an estimated frequency from 0 to 15.
+	 */
+	public int frequency(int hash) {
+		int start = (hash & 3) << 2;
+		int frequency = 15;
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(hash, i);
+			int count = (int)((_table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	/**
+	 * Records access to the key.
+	 * @param hash a hash of the key.
+	 */
+	public void increment(int hash) {
+		int start = (hash & 3) << 2;
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(hash, i);
+			added |= incrementAt(index, start + i);
+		}
+
+		if (added && ++_size >= _sampleSize)
+			reset();
+	}
+
+	/**
+	 * Increments the specified 4-bit counter unless it's saturated.
+	 * @param index an index of the table word.
+	 * @param counter an index of the counter within the word.
+	 * @return <b>true</b> if the counter was incremented.
+	 */
+	private boolean incrementAt(int index, int counter) {
+		int offset = counter << 2;
+		long mask = 0xfL << offset;
+		if ((_table[index] & mask) != mask) {
+			_table[index] += 1L << offset;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Halves all counters to age the collected statistics.
+	 */
+	private void reset() {
+		int odd = 0;
+		for (int i = 0; i < _table.length; i++) {
+			odd += Long.bitCount(_table[i] & OneMask);
+			_table[i] = (_table[i] >>> 1) & ResetMask;
+		}
+		_size = (_size >>> 1) - (odd >>> 2);
+	}
+
+	/**
+	 * Calculates table index for the key hash and the hash function number.
+	 * @param hash a hash of the key.
+	 * @param i a number of hash function.
+	 * @return an index in the table.
+	 */
+	private int indexOf(int hash, int i) {
+		long value = (hash + Seeds[i]) * Seeds[i];
+		value += value >>> 32;
+		return ((int)value) & _tableMask;
+	}
+}
@@ -0,0 +1,23 @@
+package org.pipservices.runtime.cache;
+
+/**
+ * Listener of entries evicted from memory cache to keep it within its maximum size.
+ * Expired and removed entries are not reported.
+ */
+public interface IEvictionListener {
+	/**
+	 * Called when an entry is evicted while the segment lock is still held,
+	 * so it is ordered before any following change of the same key.
+	 * It shall return quickly and shall not call back into the cache.
+	 * @param entry the evicted entry.
+	 */
+	default void onEvicting(CacheEntry entry) { }
+
+	/**
+	 * Called after the segment lock is released, so it can do slow work
+	 * without blocking other threads. By that time the key may already be
+	 * stored or removed again, and this call is not ordered with those changes.
+	 * @param entry the evicted entry.
+	 */
+	void onEvicted(CacheEntry entry);
+}
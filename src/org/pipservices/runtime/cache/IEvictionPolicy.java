@@ -0,0 +1,38 @@
+package org.pipservices.runtime.cache;
+
+/**
+ * Eviction policy used by in-memory caches to decide which entry
+ * shall be dropped when the cache exceeds its maximum size.
+ * All callbacks are expected to run in constant time.
+ */
+public interface IEvictionPolicy {
+	/**
+	 * Registers a new entry added to the cache.
+	 * @param entry the added cache entry.
+	 */
+	void onAdded(CacheEntry entry);
+
+	/**
+	 * Registers read or update access to an existing entry.
+	 * @param entry the accessed cache entry.
+	 */
+	void onAccessed(CacheEntry entry);
+
+	/**
+	 * Unregisters entry removed from the cache.
+	 * @param entry the removed cache entry.
+	 */
+	void onRemoved(CacheEntry entry);
+
+	/**
+	 * Selects entry to be evicted when the cache exceeds its maximum size.
+	 * The selected entry is not unregistered until onRemoved() is called.
+	 * @return the entry to evict or <b>null</b> if the policy has no entries.
+	 */
+	CacheEntry selectVictim();
+
+	/**
+	 * Unregisters all entries.
+	 */
+	void clear();
+}
@@ -0,0 +1,140 @@
+package org.pipservices.runtime.cache;
+
+/**
+ * Least Frequently Used eviction policy. Entries are grouped into
+ * buckets with equal access frequency, and buckets are kept in a list
+ * sorted by frequency. Moving an entry to the next bucket on access
+ * and selecting a victim from the lowest bucket take constant time.
+ * Within a bucket entries are evicted in LRU order.
+ */
+public class LfuEvictionPolicy implements IEvictionPolicy {
+	/**
+	 * Group of entries with the same access frequency.
+	 */
+	static class Bucket {
+		int frequency;
+		Bucket prev;
+		Bucket next;
+		CacheEntryList entries = new CacheEntryList();
+
+		Bucket(int frequency) {
+			this.frequency = frequency;
+		}
+	}
+
+	private Bucket _head = new Bucket(0);
+
+	/**
+	 * Creates instance of LFU eviction policy.
+	 */
+	public LfuEvictionPolicy() {
+		_head.prev = _head;
+		_head.next = _head;
+	}
+
+	/**
+	 * Inserts a new bucket right after specified one.
+	 * @param prev a bucket after which the new one shall be inserted.
+	 * @param frequency a frequency of the new bucket.
+	 * @return the inserted bucket.
+	 */
+	private Bucket insertBucket(Bucket prev, int frequency) {
+		Bucket bucket = new Bucket(frequency);
+		bucket.prev = prev;
+		bucket.next = prev.next;
+		prev.next.prev = bucket;
+		prev.next = bucket;
+		return bucket;
+	}
+
+	/**
+	 * Removes entry from its bucket and drops the bucket when it gets empty.
+	 * @param entry an entry to be unlinked.
+	 */
+	private void unlink(CacheEntry entry) {
+		Bucket bucket = entry._bucket;
+		if (bucket == null) return;
+
+		bucket.entries.remove(entry);
+		entry._bucket = null;
+
+		if (bucket.entries.isEmpty()) {
+			bucket.prev.next = bucket.next;
+			bucket.next.prev = bucket.prev;
+		}
+	}
+
+	/**
+	 * Registers a new entry with access frequency of 1.
+	 * @param entry the added cache entry.
+	 */
+	@Override
+	public void onAdded(CacheEntry entry) {
+		Bucket bucket = _head.next;
+		if (bucket == _head || bucket.frequency != 1)
+			bucket = insertBucket(_head, 1);
+
+		entry._frequency = 1;
+		entry._bucket = bucket;
+		bucket.entries.addFirst(entry);
+	}
+
+	/**
+	 * Increments access frequency and moves entry to the next bucket.
+	 * @param entry the accessed cache entry.
+	 */
+	@Override
+	public void onAccessed(CacheEntry entry) {
+		Bucket bucket = entry._bucket;
+		if (bucket == null) return;
+
+		// Saturate frequency to avoid overflow
+		if (entry._frequency == Integer.MAX_VALUE) {
+			bucket.entries.moveToFirst(entry);
+			return;
+		}
+
+		int frequency = entry._frequency + 1;
+		Bucket next = bucket.next;
+		if (next == _head || next.frequency != frequency)
+			next = insertBucket(bucket, frequency);
+
+		unlink(entry);
+		entry._frequency = frequency;
+		entry._bucket = next;
+		next.entries.addFirst(entry);
+	}
+
+	/**
+	 * Unregisters entry removed from the cache.
+	 * @param entry the removed cache entry.
+	 */
+	@Override
+	public void onRemoved(CacheEntry entry) {
+		unlink(entry);
+	}
+
+	/**
+	 * Selects the least recently used entry among the least frequently used ones.
+	 * @return the entry to evict or <b>null</b> if the policy has no entries.
+	 */
+	@Override
+	public CacheEntry selectVictim() {
+		Bucket bucket = _head.next;
+		return bucket != _head ? bucket.entries.getLast() : null;
+	}
+
+	/**
+	 * Unregisters all entries.
+	 */
+	@Override
+	public void clear() {
+		Bucket bucket = _head.next;
+		while (bucket != _head) {
+			bucket.entries.clear();
+			bucket = bucket.next;
+		}
+		_head.prev = _head;
+		_head.next = _head;
+	}
+}
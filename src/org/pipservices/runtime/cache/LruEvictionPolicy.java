@@ -0,0 +1,59 @@
+package org.pipservices.runtime.cache;
+
+/**
+ * Least Recently Used eviction policy. Entries are kept in
+ * an intrusive list ordered by access time, so every operation
+ * including victim selection takes constant time.
+ */
+public class LruEvictionPolicy implements IEvictionPolicy {
+	private CacheEntryList _entries = new CacheEntryList();
+
+	/**
+	 * Creates instance of LRU eviction policy.
+	 */
+	public LruEvictionPolicy() {}
+
+	/**
+	 * Registers a new entry as the most recently used one.
+	 * @param entry the added cache entry.
+	 */
+	@Override
+	public void onAdded(CacheEntry entry) {
+		_entries.addFirst(entry);
+	}
+
+	/**
+	 * Moves accessed entry to the beginning of the usage list.
+	 * @param entry the accessed cache entry.
+	 */
+	@Override
+	public void onAccessed(CacheEntry entry) {
+		_entries.moveToFirst(entry);
+	}
+
+	/**
+	 * Unregisters entry removed from the cache.
+	 * @param entry the removed cache entry.
+	 */
+	@Override
+	public void onRemoved(CacheEntry entry) {
+		_entries.remove(entry);
+	}
+
+	/**
+	 * Selects the least recently used entry for eviction.
+	 * @return the entry to evict or <b>null</b> if the policy has no entries.
+	 */
+	@Override
+	public CacheEntry selectVictim() {
+		return _entries.getLast();
+	}
+
+	/**
+	 * Unregisters all entries.
+	 */
+	@Override
+	public void clear() {
+		_entries.clear();
+	}
+}
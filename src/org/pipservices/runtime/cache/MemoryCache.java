@@ -1,6 +1,7 @@
 package org.pipservices.runtime.cache;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.pipservices.runtime.*;
 import org.pipservices.runtime.config.*;
@@ -9,11 +10,36 @@ import org.pipservices.runtime.portability.*;
 
 /**
  * Local in-memory cache that can be used in non-scaled deployments or for testing.
- * 
- * Todo: Track access time for cached entries to optimize cache shrinking logic
- * 
+ *
+ * When the cache exceeds its maximum size entries are evicted
+ * according to the eviction policy set in 'options.eviction':
+ * <ul>
+ * <li> lru - least recently used entries are evicted first (default)
+ * <li> lfu - least frequently used entries are evicted first
+ * <li> tinylfu - window TinyLFU admission with frequency sketch
+ * </ul>
+ *
+ * Entries are kept in one or more segments set by 'options.segments'.
+ * Each segment is guarded by its own lock, so the cache is safe to use
+ * from multiple threads. By default memory cache has a single segment.
+ *
+ * Expired entries are removed when they are accessed. In addition,
+ * when the cache is opened, a background task removes expired entries
+ * every 'options.cleanup_interval' milliseconds. Expiration times are
+ * tracked by a hierarchical timer wheel, so cleanup takes amortized
+ * constant time per expired entry. Set the interval to 0 to disable it.
+ *
+ * Values obtained through getOrLoad can be refreshed ahead of their expiration.
+ * When 'options.refresh_ahead' is set to a fraction of entry lifetime, for instance 0.8,
+ * reading an entry older than that fraction returns the current value and
+ * reloads it in background. Refresh ahead works only while the cache is opened.
+ * Reloads run on 'options.refresh_threads' threads and up to 'options.refresh_queue'
+ * of them wait in the queue, further refreshes are skipped until the queue drains.
+ * Refreshed values keep the timeout of their entries, and values that
+ * no longer exist are removed.
+ *
  * @author Sergey Seroukhov
- * @version 1.0
+ * @version 1.2
  * @since 2016-05-01
  */
 public class MemoryCache extends AbstractCache {
@@ -29,156 +55,481 @@ public class MemoryCache extends AbstractCache {
 	 */
 	private final static DynamicMap DefaultConfig = DynamicMap.fromTuples(
 		"options.timeout", 60000, // timeout in milliseconds
-		"options.max_size", 1000 // maximum number of elements in cache
-	); 
+		"options.max_size", 1000, // maximum number of elements in cache
+		"options.eviction", "lru", // eviction policy: lru, lfu or tinylfu
+		"options.segments", 1, // number of independently locked segments
+		"options.cleanup_interval", 1000, // background cleanup interval in milliseconds
+		"options.refresh_ahead", 0, // fraction of lifetime to refresh loaded entries, 0 to disable
+		"options.refresh_threads", 2, // maximum number of threads to refresh entries
+		"options.refresh_queue", 1000 // maximum number of refreshes waiting for threads
+	);
+
+	// Approximate heap size of entry, hash map node and key string headers
+	private final static int EntryOverhead = 160;
+
+	private CacheSegment[] _segments = new CacheSegment[] {
+		new CacheSegment(new LruEvictionPolicy(), 0, 0, false, _stats)
+	};
+	private int _segmentShift = 32;
+	private long _cleanupInterval;
+	private Timer _interval;
+	private float _refreshAhead;
+	private int _refreshThreads;
+	private int _refreshQueue;
+	private ExecutorService _refresher;
+	private IEvictionListener _evictionListener;
 
-	private Map<String, CacheEntry> _cache = new HashMap<String, CacheEntry>();
-	private int _count = 0;
-	private long _timeout;
-	private int _maxSize;
-	
 	/**
 	 * Creates instance of local in-memory cache component
 	 */
 	public MemoryCache() {
 		super(Descriptor);
 	}
-	
+
+	/**
+	 * Creates instance of in-memory cache component with specific descriptor.
+	 * @param descriptor the unique descriptor that is used to identify and locate the component.
+	 */
+	protected MemoryCache(ComponentDescriptor descriptor) {
+		super(descriptor);
+	}
+
 	/**
 	 * Sets component configuration parameters and switches from component
 	 * to 'Configured' state. The configuration is only allowed once
-	 * right after creation. Attempts to perform reconfiguration will 
+	 * right after creation. Attempts to perform reconfiguration will
 	 * cause an exception.
 	 * @param config the component configuration parameters.
-	 * @throws MicroserviceError when component is in illegal state 
-	 * or configuration validation fails. 
+	 * @throws MicroserviceError when component is in illegal state
+	 * or configuration validation fails.
 	 */
 	@Override
 	public void configure(ComponentConfig config) throws MicroserviceError {
 		checkNewStateAllowed(State.Configured);
-		
+
 		config = config.withDefaults(DefaultConfig);
 		super.configure(config);
 
-		_timeout = config.getOptions().getLong("timeout");
-		_maxSize = config.getOptions().getInteger("max_size");
-	}
-	
-	/**
-	 * Cleans up cache from obsolete values and shrinks the cache
-	 * to fit into allowed max size by dropping values that were not
-	 * accessed for a long time
-	 */
-    private void cleanup() {
-        CacheEntry oldest = null;
-        long now = System.currentTimeMillis();
-        _count = 0;
-        
-        // Cleanup obsolete entries and find the oldest
-        for (Map.Entry<String, CacheEntry> e : _cache.entrySet()) {
-        	String key = e.getKey();
-            CacheEntry entry = e.getValue();
-            // Remove obsolete entry
-            if (_timeout > 0 && (now - entry.getCreated()) > _timeout) {
-                _cache.remove(key);
-            }
-            // Count the remaining entry 
-            else {
-                _count++;
-                if (oldest == null || oldest.getCreated() > entry.getCreated())
-                    oldest = entry;
-            }
-        }
-        
-        // Remove the oldest if cache size exceeded maximum
-        if (_count > _maxSize && oldest != null) {
-        	_cache.remove(oldest.getKey());
-            _count--;
-        }
-    }
+		long timeout = config.getOptions().getLong("timeout");
+		int maxSize = config.getOptions().getInteger("max_size");
+		String eviction = config.getOptions().getString("eviction");
+		_cleanupInterval = config.getOptions().getLong("cleanup_interval");
+		_refreshAhead = config.getOptions().getFloat("refresh_ahead");
+		_refreshThreads = Math.max(1, config.getOptions().getInteger("refresh_threads"));
+		_refreshQueue = Math.max(1, config.getOptions().getInteger("refresh_queue"));
+
+		// Round number of segments to the power of two
+		int segments = Math.max(1, config.getOptions().getInteger("segments"));
+		segments = Integer.highestOneBit(segments - 1) << 1;
+		segments = Math.max(1, Math.min(segments, 1 << 16));
+		// Every segment shall hold at least one entry
+		if (maxSize > 0)
+			segments = Math.min(segments, Integer.highestOneBit(maxSize));
+
+		_segments = new CacheSegment[segments];
+		_segmentShift = 32 - Integer.numberOfTrailingZeros(segments);
+		for (int index = 0; index < segments; index++) {
+			// Split max size between segments, so they sum up exactly to max size
+			int segmentMaxSize = maxSize > 0
+				? maxSize / segments + (index < maxSize % segments ? 1 : 0) : 0;
+			IEvictionPolicy policy = createEvictionPolicy(eviction, segmentMaxSize);
+			_segments[index] = new CacheSegment(policy, timeout, segmentMaxSize, _cleanupInterval > 0, _stats);
+			_segments[index].setEvictionListener(_evictionListener);
+		}
+	}
+
+	/**
+	 * Opens the component, performs initialization, opens connections
+	 * to external services and makes the component ready for operations.
+	 * Opening can be done multiple times: right after linking 
+	 * or reopening after closure.  
+	 * @throws MicroserviceError when initialization or connections fail.
+	 */
+	@Override
+	public void open() throws MicroserviceError {
+		checkNewStateAllowed(State.Opened);
+
+		super.open();
+
+		// Background tasks are only started when the cache is successfully opened
+		if (_cleanupInterval > 0) {
+			TimerTask task = new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						cleanup();
+					} catch (Exception ex) {
+						error(null, "Failed to clean up cache", ex);
+					}
+				}
+			};
+			_interval = new Timer(true);
+			_interval.scheduleAtFixedRate(task, _cleanupInterval, _cleanupInterval);
+		}
+
+		if (_refreshAhead > 0) {
+			ThreadPoolExecutor refresher = new ThreadPoolExecutor(
+				_refreshThreads, _refreshThreads, 60, TimeUnit.SECONDS,
+				new ArrayBlockingQueue<Runnable>(_refreshQueue),
+				runnable -> {
+					Thread thread = new Thread(runnable, "cache-refresh");
+					thread.setDaemon(true);
+					return thread;
+				}
+			);
+			refresher.allowCoreThreadTimeOut(true);
+			_refresher = refresher;
+		}
+	}
+
+	/**
+	 * Closes the component and all open connections, performs deinitialization
+	 * steps. Closure can only be done from opened state. Attempts to close
+	 * already closed component or in wrong order will cause exception.
+	 * @throws MicroserviceError with closure fails.
+	 */
+	@Override
+	public void close() throws MicroserviceError {
+		checkNewStateAllowed(State.Closed);
+
+		if (_interval != null) {
+			_interval.cancel();
+			_interval = null;
+		}
+
+		if (_refresher != null) {
+			_refresher.shutdown();
+			_refresher = null;
+		}
+
+		super.close();
+	}
+
+	/**
+	 * Removes all expired entries from the cache.
+	 * This method is called periodically by background task
+	 * when the cache is opened.
+	 */
+	public void cleanup() {
+		long now = System.currentTimeMillis();
+		for (CacheSegment segment : _segments) {
+			segment.lock();
+			try {
+				segment.expire(now);
+			} finally {
+				segment.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Sets listener that is notified when entries are evicted
+	 * to keep the cache within its maximum size. Expired and removed
+	 * entries are not reported. onEvicting() is called while the segment lock
+	 * is held, so it shall return quickly and not call back into this cache.
+	 * onEvicted() is called after the lock is released and may use the cache,
+	 * but it is not ordered with changes of the same key made in between:
+	 * a listener that copies values elsewhere shall use onEvicting() to detect
+	 * such changes, or it can overwrite newer values with evicted ones.
+	 * @param listener a listener of evicted entries or <b>null</b> to remove the listener.
+	 */
+	public void setEvictionListener(IEvictionListener listener) {
+		_evictionListener = listener;
+		for (CacheSegment segment : _segments)
+			segment.setEvictionListener(listener);
+	}
+
+	/**
+	 * Creates eviction policy by its configured name.
+	 * @param eviction the name of eviction policy: lru, lfu or tinylfu.
+	 * @param maxSize the maximum number of entries in the cache.
+	 * @return created eviction policy.
+	 * @throws MicroserviceError when eviction policy is not supported.
+	 */
+	protected IEvictionPolicy createEvictionPolicy(String eviction, int maxSize) throws MicroserviceError {
+		if ("lru".equalsIgnoreCase(eviction))
+			return new LruEvictionPolicy();
+		if ("lfu".equalsIgnoreCase(eviction))
+			return new LfuEvictionPolicy();
+		if ("tinylfu".equalsIgnoreCase(eviction) || "w-tinylfu".equalsIgnoreCase(eviction))
+			return new TinyLfuEvictionPolicy(maxSize);
+
+		throw new ConfigError(this, "UnsupportedEviction", "Eviction policy " + eviction + " is not supported")
+			.withDetails(eviction);
+	}
+
+	/**
+	 * Locates segment that holds the specified key.
+	 * @param key a unique key to locate value in the cache.
+	 * @return the segment responsible for the key.
+	 */
+	private CacheSegment segmentFor(String key) {
+		return _segments[segmentIndex(key)];
+	}
+
+	/**
+	 * Calculates index of segment that holds the specified key.
+	 * @param key a unique key to locate value in the cache.
+	 * @return the index of the segment responsible for the key.
+	 */
+	private int segmentIndex(String key) {
+		if (_segmentShift == 32) return 0;
+
+		// Use high bits of the mixed hash, since low bits
+		// are used by hash maps inside the segments
+		int hash = key.hashCode() * 0x9e3779b9;
+		return hash >>> _segmentShift;
+	}
+
+	/**
+	 * Splits keys into groups that belong to the same segments,
+	 * so each segment can be locked only once per batch.
+	 * @param keys unique keys to locate values in the cache.
+	 * @return a list of key groups indexed by segment, empty segments have <b>null</b> groups.
+	 */
+	private List<List<String>> groupBySegment(Collection<String> keys) {
+		List<List<String>> groups = new ArrayList<List<String>>(_segments.length);
+		if (_segments.length == 1) {
+			groups.add(new ArrayList<String>(keys));
+			return groups;
+		}
+
+		for (int index = 0; index < _segments.length; index++)
+			groups.add(null);
+
+		for (String key : keys) {
+			int index = segmentIndex(key);
+			List<String> group = groups.get(index);
+			if (group == null) {
+				group = new ArrayList<String>();
+				groups.set(index, group);
+			}
+			group.add(key);
+		}
+		return groups;
+	}
+
+	/**
+	 * Gets number of values stored in the cache.
+	 * The result is calculated without locking
+	 * and may be slightly off under concurrent updates.
+	 * @return the number of cached values.
+	 */
+	public int getSize() {
+		int size = 0;
+		for (CacheSegment segment : _segments)
+			size += segment.size();
+		return size;
+	}
+
+	/**
+	 * Gets number of values stored in the cache.
+	 * @return the number of cached values.
+	 */
+	@Override
+	protected long estimateSize() {
+		return getSize();
+	}
+
+	/**
+	 * Gets estimated memory occupied by cache entries and their keys.
+	 * Sizes of cached values are unknown and not included.
+	 * @return the number of bytes.
+	 */
+	@Override
+	protected long estimateBytes() {
+		long bytes = 0;
+		for (CacheSegment segment : _segments)
+			bytes += EntryOverhead * segment.size() + 2 * segment.keyChars();
+		return bytes;
+	}
 
 	/**
 	 * Retrieves a value from the cache by unique key.
 	 * It is recommended to use either string GUIDs like '123456789abc'
 	 * or unique natural keys prefixed with the functional group
-	 * like 'pip-services-storage:block-123'. 
+	 * like 'pip-services-storage:block-123'.
 	 * @param key a unique key to locate value in the cache
 	 * @return a cached value or <b>null</b> if value wasn't found or timeout expired.
 	 */
     @Override
     public Object retrieve(String key) {
-        // Get entry from the cache
-        CacheEntry entry = _cache.get(key);
-        
-        // Cache has nothing
-        if (entry == null) {
-            return null;
-        }
-        
-        // Remove entry if expiration set and entry is expired
-        if (_timeout > 0 && (System.currentTimeMillis() - entry.getCreated()) > _timeout) {
-            _cache.remove(key);
-            _count--;
-            return null;
-        }
-        
-        // Update access timeout
-        return entry.getValue();
+    	CacheSegment segment = segmentFor(key);
+    	segment.lock();
+    	try {
+    		return segment.retrieve(key);
+    	} finally {
+    		segment.unlock();
+    	}
     }
-    
+
+	/**
+	 * Looks up a value without recording statistics.
+	 * @param key a unique key to locate value in the cache
+	 * @return a cached value or <b>null</b> if value wasn't found or timeout expired.
+	 */
+	@Override
+	protected Object peek(String key) {
+		CacheSegment segment = segmentFor(key);
+		segment.lock();
+		try {
+			return segment.peek(key);
+		} finally {
+			segment.unlock();
+		}
+	}
+
 	/**
-	 * Stores value identified by unique key in the cache. 
-	 * Stale timeout is configured in the component options. 
+	 * Retrieves a value from the cache or loads it when the value is missing.
+	 * Concurrent calls for the same missing key are coalesced into
+	 * a single load, and other callers wait for its result.
+	 * When refresh ahead is enabled, values close to expiration
+	 * are reloaded in background.
+	 * @param key a unique key to locate value in the cache
+	 * @param loader a callback to load the value when it is not in the cache
+	 * @return a cached or loaded value or <b>null</b> if the value doesn't exist.
+	 * @throws MicroserviceError when loading fails.
+	 */
+	@Override
+	public Object getOrLoad(String key, ICacheLoader loader) throws MicroserviceError {
+		Object value = null;
+		long created = 0;
+		long expires = 0;
+
+		CacheSegment segment = segmentFor(key);
+		segment.lock();
+		try {
+			CacheEntry entry = segment.retrieveEntry(key);
+			if (entry != null) {
+				value = entry.getValue();
+				created = entry.getCreated();
+				expires = entry.getExpires();
+			}
+		} finally {
+			segment.unlock();
+		}
+
+		if (value == null)
+			return awaitLoad(key, load(key, loader, 0, false, null));
+
+		// Refresh entries that are close to expiration
+		ExecutorService refresher = _refresher;
+		if (refresher != null && expires > 0) {
+			long refreshTime = created + (long)((expires - created) * _refreshAhead);
+			if (System.currentTimeMillis() >= refreshTime) {
+				// Refreshed value keeps the timeout of the entry
+				load(key, loader, expires - created, true, refresher).whenComplete((result, ex) -> {
+					// Refreshes rejected by the full queue are retried on the next read
+					if (ex != null && !(ex instanceof RejectedExecutionException))
+						warn(null, "Failed to refresh cached value " + key, ex);
+				});
+			}
+		}
+
+		return value;
+	}
+
+	/**
+	 * Retrieves multiple values from the cache in a single call.
+	 * Keys are grouped by segments and each segment is locked only once.
+	 * @param keys unique keys to locate values in the cache
+	 * @return a map with found values. Keys that weren't found or expired are not included.
+	 */
+	@Override
+	public Map<String, Object> retrieveAll(Collection<String> keys) {
+		Map<String, Object> result = new HashMap<String, Object>();
+		List<List<String>> groups = groupBySegment(keys);
+
+		for (int index = 0; index < groups.size(); index++) {
+			List<String> group = groups.get(index);
+			if (group == null) continue;
+
+			CacheSegment segment = _segments[index];
+			segment.lock();
+			try {
+				for (String key : group) {
+					Object value = segment.retrieve(key);
+					if (value != null)
+						result.put(key, value);
+				}
+			} finally {
+				segment.unlock();
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Stores value identified by unique key in the cache.
+	 * Stale timeout is configured in the component options.
 	 * @param key a unique key to locate value in the cache.
 	 * @param value a value to store.
 	 * @return a cached value stored in the cache.
 	 */
     @Override
     public Object store(String key, Object value) {
-        // Get the entry
-        CacheEntry entry = _cache.get(key);
-
-        // Shortcut to remove entry from the cache
-        if (value == null) {
-            if (entry != null) {
-                _cache.remove(key);
-                _count--;
-            }
-            return null;        
-        }
-        
-        // Update the entry
-        if (entry != null) {
-            entry.setValue(value);
-        }
-        // Or create a new entry 
-        else {
-            entry = new CacheEntry(key, value);
-            _cache.put(key, entry);
-            _count++;
-        }
-
-        // Clean up the cache
-        if (_maxSize > 0 && _count > _maxSize)
-            cleanup();
-        
-        return value;        
+    	return store(key, value, 0);
+    }
+
+	/**
+	 * Stores value identified by unique key in the cache
+	 * with individual expiration timeout. 
+	 * @param key a unique key to locate value in the cache.
+	 * @param value a value to store.
+	 * @param timeout an expiration timeout in milliseconds
+	 * or 0 to use the timeout configured in the component options.
+	 * @return a cached value stored in the cache.
+	 */
+    @Override
+    public Object store(String key, Object value, long timeout) {
+    	CacheSegment segment = segmentFor(key);
+    	segment.lock();
+    	try {
+    		return segment.store(key, value, timeout);
+    	} finally {
+    		segment.unlock();
+    	}
     }
-    
+
+	/**
+	 * Stores multiple values in the cache in a single call.
+	 * Stale timeout is configured in the component options.
+	 * Entries with <b>null</b> values are removed from the cache.
+	 * Keys are grouped by segments and each segment is locked only once.
+	 * @param values a map with unique keys and values to store.
+	 */
+	@Override
+	public void storeAll(Map<String, Object> values) {
+		List<List<String>> groups = groupBySegment(values.keySet());
+
+		for (int index = 0; index < groups.size(); index++) {
+			List<String> group = groups.get(index);
+			if (group == null) continue;
+
+			CacheSegment segment = _segments[index];
+			segment.lock();
+			try {
+				for (String key : group)
+					segment.store(key, values.get(key), 0);
+			} finally {
+				segment.unlock();
+			}
+		}
+	}
+
 	/**
 	 * Removes value stored in the cache.
 	 * @param key a unique key to locate value in the cache.
 	 */
     @Override
     public void remove(String key) {
-        // Get the entry
-        CacheEntry entry = _cache.get(key);
-
-        // Remove entry from the cache
-        if (entry != null) {
-            _cache.remove(key);
-            _count--;
-        }
+    	CacheSegment segment = segmentFor(key);
+    	segment.lock();
+    	try {
+    		segment.remove(key);
+    	} finally {
+    		segment.unlock();
+    	}
     }
-	
+
 }
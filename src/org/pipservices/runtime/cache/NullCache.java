@@ -1,5 +1,7 @@
 package org.pipservices.runtime.cache;
 
+import java.util.*;
+
 import org.pipservices.runtime.config.*;
 
 /**
@@ -37,8 +39,20 @@ public class NullCache extends AbstractCache {
 	 */
 	@Override 
 	public Object retrieve(String key) {
+		_stats.recordMiss();
 		return null;
 	}
+
+	/**
+	 * Retrieves multiple values from the cache in a single call.
+	 * @param keys unique keys to locate values in the cache
+	 * @return a map with found values. Keys that weren't found or expired are not included.
+	 */
+	@Override
+	public Map<String, Object> retrieveAll(Collection<String> keys) {
+		_stats.recordMisses(keys.size());
+		return new HashMap<String, Object>();
+	}
 	
 	/**
 	 * Stores value identified by unique key in the cache. 
@@ -52,6 +66,29 @@ public class NullCache extends AbstractCache {
 		return value;
 	}
 	
+	/**
+	 * Stores value identified by unique key in the cache
+	 * with individual expiration timeout. 
+	 * @param key a unique key to locate value in the cache.
+	 * @param value a value to store.
+	 * @param timeout an expiration timeout in milliseconds
+	 * or 0 to use the timeout configured in the component options.
+	 * @return a cached value stored in the cache.
+	 */
+	@Override
+	public Object store(String key, Object value, long timeout) {
+		return value;
+	}
+
+	/**
+	 * Stores multiple values in the cache in a single call.
+	 * Stale timeout is configured in the component options.
+	 * Entries with <b>null</b> values are removed from the cache.
+	 * @param values a map with unique keys and values to store.
+	 */
+	@Override
+	public void storeAll(Map<String, Object> values) { }
+	
 	/**
 	 * Removes value stored in the cache.
 	 * @param key a unique key to locate value in the cache.
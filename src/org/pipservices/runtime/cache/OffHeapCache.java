@@ -0,0 +1,618 @@
+package org.pipservices.runtime.cache;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.pipservices.runtime.*;
+import org.pipservices.runtime.config.*;
+import org.pipservices.runtime.errors.*;
+import org.pipservices.runtime.portability.*;
+
+import com.fasterxml.jackson.databind.*;
+
+/**
+ * Cache that keeps values outside of Java heap to hold large working sets
+ * without increasing garbage collection pauses.
+ *
+ * Values are serialized into JSON using Jackson mapper and appended
+ * to a ring of fixed size memory slabs. The slabs are allocated as direct
+ * byte buffers or, when 'options.path' is set, mapped from a file.
+ * When all slabs are full the oldest slab is recycled and all entries
+ * stored in it are evicted at once. Keys are located by a compact open-addressing
+ * index that holds only hash codes and record addresses on the heap.
+ *
+ * Values are deserialized into the classes they had when they were stored.
+ * Generic collections are restored with default Jackson types.
+ *
+ * All operations are synchronized on the cache instance.
+ */
+public class OffHeapCache extends AbstractCache {
+	/**
+	 * Unique descriptor for the Off-Heap Cache component
+	 */
+	public final static ComponentDescriptor Descriptor = new ComponentDescriptor(
+		Category.Cache, "pip-services-runtime-cache", "offheap", "*"
+	);
+
+	/**
+	 * Default configuration for off-heap cache component
+	 */
+	private final static DynamicMap DefaultConfig = DynamicMap.fromTuples(
+		"options.timeout", 60000, // timeout in milliseconds
+		"options.slab_size", 16 * 1024 * 1024, // size of a single memory slab in bytes
+		"options.slabs", 16 // number of memory slabs
+	);
+
+	// Record header: length, hash, expiration time, key length, type length
+	private final static int HeaderSize = 4 + 4 + 8 + 4 + 4;
+	private final static int MinIndexCapacity = 1024;
+	private final static Charset Utf8 = Charset.forName("UTF-8");
+
+	private ObjectMapper _mapper = new ObjectMapper();
+	private ConcurrentMap<String, Class<?>> _types = new ConcurrentHashMap<String, Class<?>>();
+	private long _timeout;
+	private int _slabSize;
+	private String _path;
+
+	private RandomAccessFile _file;
+	private ByteBuffer[] _slabs;
+	private int[] _slabEnds;
+	private int _writeSlab;
+	private int _writeOffset;
+
+	private int[] _hashes = new int[MinIndexCapacity];
+	private long[] _addresses = new long[MinIndexCapacity];
+	private int _count;
+	private long _liveBytes;
+
+	/**
+	 * Creates instance of off-heap cache component
+	 */
+	public OffHeapCache() {
+		super(Descriptor);
+	}
+
+	/**
+	 * Sets component configuration parameters and switches from component
+	 * to 'Configured' state. The configuration is only allowed once
+	 * right after creation. Attempts to perform reconfiguration will
+	 * cause an exception.
+	 * @param config the component configuration parameters.
+	 * @throws MicroserviceError when component is in illegal state
+	 * or configuration validation fails.
+	 */
+	@Override
+	public void configure(ComponentConfig config) throws MicroserviceError {
+		checkNewStateAllowed(State.Configured);
+
+		config = config.withDefaults(DefaultConfig);
+		DynamicMap options = config.getOptions();
+
+		if (options.getInteger("slab_size") <= HeaderSize)
+			throw new ConfigError(this, "WrongSlabSize", "Slab size is too small")
+				.withDetails(options.getInteger("slab_size"));
+		if (options.getInteger("slabs") < 2)
+			throw new ConfigError(this, "WrongSlabs", "At least two slabs are required")
+				.withDetails(options.getInteger("slabs"));
+
+		super.configure(config);
+
+		_timeout = options.getLong("timeout");
+		_slabSize = options.getInteger("slab_size");
+		_slabs = new ByteBuffer[options.getInteger("slabs")];
+		_slabEnds = new int[_slabs.length];
+		_path = options.getNullableString("path");
+	}
+
+	/**
+	 * Opens the component, performs initialization, opens connections
+	 * to external services and makes the component ready for operations.
+	 * Opening can be done multiple times: right after linking
+	 * or reopening after closure.
+	 * @throws MicroserviceError when initialization or connections fail.
+	 */
+	@Override
+	public synchronized void open() throws MicroserviceError {
+		checkNewStateAllowed(State.Opened);
+
+		try {
+			if (_path != null) {
+				_file = new RandomAccessFile(_path, "rw");
+				_file.setLength((long)_slabSize * _slabs.length);
+			}
+
+			for (int index = 0; index < _slabs.length; index++) {
+				if (_file != null) {
+					_slabs[index] = _file.getChannel().map(
+						FileChannel.MapMode.READ_WRITE, (long)index * _slabSize, _slabSize
+					);
+				} else {
+					_slabs[index] = ByteBuffer.allocateDirect(_slabSize);
+				}
+			}
+		} catch (Exception ex) {
+			releaseSlabs();
+			throw new FileError(this, "AllocateFailed", "Failed to allocate cache memory: " + ex)
+				.withCause(ex);
+		}
+
+		clearIndex();
+		super.open();
+	}
+
+	/**
+	 * Closes the component and all open connections, performs deinitialization
+	 * steps. Closure can only be done from opened state. Attempts to close
+	 * already closed component or in wrong order will cause exception.
+	 * @throws MicroserviceError with closure fails.
+	 */
+	@Override
+	public synchronized void close() throws MicroserviceError {
+		checkNewStateAllowed(State.Closed);
+
+		super.close();
+
+		releaseSlabs();
+		clearIndex();
+	}
+
+	/**
+	 * Drops references to memory slabs and closes the mapped file.
+	 */
+	private void releaseSlabs() {
+		for (int index = 0; index < _slabs.length; index++) {
+			_slabs[index] = null;
+			_slabEnds[index] = 0;
+		}
+		_writeSlab = 0;
+		_writeOffset = 0;
+
+		if (_file != null) {
+			try {
+				_file.close();
+			} catch (IOException ex) {
+				warn(null, "Failed to close cache file", ex);
+			}
+			_file = null;
+		}
+	}
+
+	/**
+	 * Gets number of values stored in the cache.
+	 * @return the number of cached values.
+	 */
+	public synchronized int getSize() {
+		return _count;
+	}
+
+	/**
+	 * Gets number of values stored in the cache.
+	 * @return the number of cached values.
+	 */
+	@Override
+	protected long estimateSize() {
+		return getSize();
+	}
+
+	/**
+	 * Gets memory occupied by live records in the slabs.
+	 * Space of overwritten and removed records is not included.
+	 * @return the number of bytes.
+	 */
+	@Override
+	protected synchronized long estimateBytes() {
+		return _liveBytes;
+	}
+
+	/* Index */
+
+	/**
+	 * Calculates non-zero hash code of the key.
+	 * @param key a key to hash.
+	 * @return a well distributed hash code.
+	 */
+	private static int hash(String key) {
+		int hash = key.hashCode() * 0x9e3779b9;
+		hash ^= hash >>> 16;
+		return hash != 0 ? hash : 1;
+	}
+
+	/**
+	 * Removes all keys from the index.
+	 */
+	private void clearIndex() {
+		_hashes = new int[MinIndexCapacity];
+		_addresses = new long[MinIndexCapacity];
+		_count = 0;
+		_liveBytes = 0;
+	}
+
+	/**
+	 * Finds index slot for the key.
+	 * @param hash a hash of the key.
+	 * @param key a key encoded in UTF-8.
+	 * @return the slot number or -1 if the key was not found.
+	 */
+	private int findSlot(int hash, byte[] key) {
+		int mask = _hashes.length - 1;
+		for (int slot = hash & mask; _hashes[slot] != 0; slot = (slot + 1) & mask) {
+			if (_hashes[slot] == hash && keyEquals(_addresses[slot], key))
+				return slot;
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds index slot that points to the record address.
+	 * @param hash a hash of the record key.
+	 * @param address a record address.
+	 * @return the slot number or -1 if the address was not found.
+	 */
+	private int findSlot(int hash, long address) {
+		int mask = _hashes.length - 1;
+		for (int slot = hash & mask; _hashes[slot] != 0; slot = (slot + 1) & mask) {
+			if (_addresses[slot] == address)
+				return slot;
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a new key to the index. The key must not be present in the index.
+	 * @param hash a hash of the key.
+	 * @param address a record address.
+	 */
+	private void insertSlot(int hash, long address) {
+		if (_count + 1 > (_hashes.length >> 1) + (_hashes.length >> 2))
+			resizeIndex(_hashes.length << 1);
+
+		int mask = _hashes.length - 1;
+		int slot = hash & mask;
+		while (_hashes[slot] != 0)
+			slot = (slot + 1) & mask;
+
+		_hashes[slot] = hash;
+		_addresses[slot] = address;
+		_count++;
+		_liveBytes += slabOf(address).getInt(offsetOf(address));
+	}
+
+	/**
+	 * Removes key from the index shifting following keys
+	 * back to keep probe sequences without tombstones.
+	 * @param slot a slot to be cleared.
+	 */
+	private void removeSlot(int slot) {
+		_liveBytes -= slabOf(_addresses[slot]).getInt(offsetOf(_addresses[slot]));
+
+		int mask = _hashes.length - 1;
+		int hole = slot;
+		int next = (hole + 1) & mask;
+
+		while (_hashes[next] != 0) {
+			int ideal = _hashes[next] & mask;
+			if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+				_hashes[hole] = _hashes[next];
+				_addresses[hole] = _addresses[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+
+		_hashes[hole] = 0;
+		_addresses[hole] = 0;
+		_count--;
+	}
+
+	/**
+	 * Rebuilds the index with a new capacity.
+	 * @param capacity a new capacity, must be a power of two.
+	 */
+	private void resizeIndex(int capacity) {
+		int[] hashes = _hashes;
+		long[] addresses = _addresses;
+
+		_hashes = new int[capacity];
+		_addresses = new long[capacity];
+		int mask = capacity - 1;
+
+		for (int index = 0; index < hashes.length; index++) {
+			if (hashes[index] == 0) continue;
+
+			int slot = hashes[index] & mask;
+			while (_hashes[slot] != 0)
+				slot = (slot + 1) & mask;
+			_hashes[slot] = hashes[index];
+			_addresses[slot] = addresses[index];
+		}
+	}
+
+	/* Slabs */
+
+	private static long address(int slab, int offset) {
+		return ((long)slab << 32) | offset;
+	}
+
+	private ByteBuffer slabOf(long address) {
+		return _slabs[(int)(address >>> 32)];
+	}
+
+	private static int offsetOf(long address) {
+		return (int)address;
+	}
+
+	/**
+	 * Compares key stored in the record with the given one.
+	 * @param address a record address.
+	 * @param key a key encoded in UTF-8.
+	 * @return <b>true</b> if keys are equal.
+	 */
+	private boolean keyEquals(long address, byte[] key) {
+		ByteBuffer slab = slabOf(address);
+		int offset = offsetOf(address);
+
+		if (slab.getInt(offset + 16) != key.length)
+			return false;
+
+		offset += HeaderSize;
+		for (int index = 0; index < key.length; index++) {
+			if (slab.get(offset + index) != key[index])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Moves writing position to the next slab and evicts
+	 * all entries previously stored in it.
+	 */
+	private void nextSlab() {
+		_writeSlab = (_writeSlab + 1) % _slabs.length;
+		_writeOffset = 0;
+
+		ByteBuffer slab = _slabs[_writeSlab];
+		int end = _slabEnds[_writeSlab];
+		int offset = 0;
+		while (offset < end) {
+			int length = slab.getInt(offset);
+			int hash = slab.getInt(offset + 4);
+
+			int slot = findSlot(hash, address(_writeSlab, offset));
+			if (slot >= 0) {
+				removeSlot(slot);
+				_stats.recordEviction();
+			}
+
+			offset += length;
+		}
+		_slabEnds[_writeSlab] = 0;
+	}
+
+	/**
+	 * Appends a record to the current slab.
+	 * @return the address of the written record.
+	 */
+	private long writeRecord(int hash, long expires, byte[] key, byte[] type, byte[] value) {
+		int length = HeaderSize + key.length + type.length + value.length;
+		if (_writeOffset + length > _slabSize)
+			nextSlab();
+
+		ByteBuffer slab = _slabs[_writeSlab];
+		int offset = _writeOffset;
+		slab.putInt(offset, length);
+		slab.putInt(offset + 4, hash);
+		slab.putLong(offset + 8, expires);
+		slab.putInt(offset + 16, key.length);
+		slab.putInt(offset + 20, type.length);
+
+		ByteBuffer buffer = slab.duplicate();
+		buffer.position(offset + HeaderSize);
+		buffer.put(key);
+		buffer.put(type);
+		buffer.put(value);
+
+		_writeOffset += length;
+		_slabEnds[_writeSlab] = _writeOffset;
+		return address(_writeSlab, offset);
+	}
+
+	/**
+	 * Reads and deserializes value from the record.
+	 * @param address a record address.
+	 * @return the deserialized value.
+	 * @throws Exception when deserialization fails.
+	 */
+	private Object readValue(long address) throws Exception {
+		ByteBuffer slab = slabOf(address);
+		int offset = offsetOf(address);
+		int length = slab.getInt(offset);
+		int keyLength = slab.getInt(offset + 16);
+		int typeLength = slab.getInt(offset + 20);
+
+		ByteBuffer buffer = slab.duplicate();
+		buffer.position(offset + HeaderSize + keyLength);
+
+		byte[] type = new byte[typeLength];
+		buffer.get(type);
+		byte[] value = new byte[length - HeaderSize - keyLength - typeLength];
+		buffer.get(value);
+
+		return _mapper.readValue(value, getType(new String(type, Utf8)));
+	}
+
+	/**
+	 * Gets class by its name using cached lookups.
+	 * @param name a class name.
+	 * @return the found class.
+	 * @throws ClassNotFoundException when class was not found.
+	 */
+	private Class<?> getType(String name) throws ClassNotFoundException {
+		Class<?> type = _types.get(name);
+		if (type == null) {
+			type = Class.forName(name);
+			_types.put(name, type);
+		}
+		return type;
+	}
+
+	/* Cache operations */
+
+	/**
+	 * Retrieves a value from the cache by unique key.
+	 * It is recommended to use either string GUIDs like '123456789abc'
+	 * or unique natural keys prefixed with the functional group
+	 * like 'pip-services-storage:block-123'.
+	 * @param key a unique key to locate value in the cache
+	 * @return a cached value or <b>null</b> if value wasn't found or timeout expired.
+	 */
+	@Override
+	public synchronized Object retrieve(String key) {
+		if (_slabs == null || _slabs[0] == null) return null;
+
+		int slot = findSlot(hash(key), key.getBytes(Utf8));
+		if (slot < 0) {
+			_stats.recordMiss();
+			return null;
+		}
+
+		long address = _addresses[slot];
+		long expires = slabOf(address).getLong(offsetOf(address) + 8);
+		if (expires > 0 && System.currentTimeMillis() > expires) {
+			removeSlot(slot);
+			_stats.recordExpiration();
+			_stats.recordMiss();
+			return null;
+		}
+
+		try {
+			Object value = readValue(address);
+			_stats.recordHit();
+			return value;
+		} catch (Exception ex) {
+			warn(null, "Failed to deserialize cached value " + key, ex);
+			removeSlot(slot);
+			_stats.recordMiss();
+			return null;
+		}
+	}
+
+	/**
+	 * Looks up a value without recording statistics or removing expired entry.
+	 * @param key a unique key to locate value in the cache
+	 * @return a cached value or <b>null</b> if value wasn't found or timeout expired.
+	 */
+	@Override
+	protected synchronized Object peek(String key) {
+		if (_slabs == null || _slabs[0] == null) return null;
+
+		int slot = findSlot(hash(key), key.getBytes(Utf8));
+		if (slot < 0) return null;
+
+		long address = _addresses[slot];
+		long expires = slabOf(address).getLong(offsetOf(address) + 8);
+		if (expires > 0 && System.currentTimeMillis() > expires) return null;
+
+		try {
+			return readValue(address);
+		} catch (Exception ex) {
+			return null;
+		}
+	}
+
+	/**
+	 * Retrieves multiple values from the cache in a single call
+	 * holding the lock once for the entire batch.
+	 * @param keys unique keys to locate values in the cache
+	 * @return a map with found values. Keys that weren't found or expired are not included.
+	 */
+	@Override
+	public synchronized Map<String, Object> retrieveAll(Collection<String> keys) {
+		return super.retrieveAll(keys);
+	}
+
+	/**
+	 * Stores value identified by unique key in the cache.
+	 * Stale timeout is configured in the component options.
+	 * @param key a unique key to locate value in the cache.
+	 * @param value a value to store.
+	 * @return a cached value stored in the cache.
+	 */
+	@Override
+	public Object store(String key, Object value) {
+		return store(key, value, 0);
+	}
+
+	/**
+	 * Stores value identified by unique key in the cache
+	 * with individual expiration timeout.
+	 * @param key a unique key to locate value in the cache.
+	 * @param value a value to store.
+	 * @param timeout an expiration timeout in milliseconds
+	 * or 0 to use the timeout configured in the component options.
+	 * @return a cached value stored in the cache.
+	 */
+	@Override
+	public synchronized Object store(String key, Object value, long timeout) {
+		if (_slabs == null || _slabs[0] == null) return value;
+
+		int hash = hash(key);
+		byte[] keyBytes = key.getBytes(Utf8);
+
+		// Remove previous value
+		int slot = findSlot(hash, keyBytes);
+		if (slot >= 0) removeSlot(slot);
+
+		if (value == null) return null;
+
+		byte[] typeBytes = value.getClass().getName().getBytes(Utf8);
+		byte[] valueBytes;
+		try {
+			valueBytes = _mapper.writeValueAsBytes(value);
+		} catch (Exception ex) {
+			warn(null, "Failed to serialize cached value " + key, ex);
+			return value;
+		}
+
+		if (HeaderSize + keyBytes.length + typeBytes.length + valueBytes.length > _slabSize) {
+			warn(null, "Value " + key + " is too large to be cached");
+			return value;
+		}
+
+		timeout = timeout > 0 ? timeout : _timeout;
+		long expires = timeout > 0 ? System.currentTimeMillis() + timeout : 0;
+
+		long address = writeRecord(hash, expires, keyBytes, typeBytes, valueBytes);
+		insertSlot(hash, address);
+
+		return value;
+	}
+
+	/**
+	 * Stores multiple values in the cache in a single call
+	 * holding the lock once for the entire batch.
+	 * Stale timeout is configured in the component options.
+	 * Entries with <b>null</b> values are removed from the cache.
+	 * @param values a map with unique keys and values to store.
+	 */
+	@Override
+	public synchronized void storeAll(Map<String, Object> values) {
+		super.storeAll(values);
+	}
+
+	/**
+	 * Removes value stored in the cache.
+	 * @param key a unique key to locate value in the cache.
+	 */
+	@Override
+	public synchronized void remove(String key) {
+		if (_slabs == null || _slabs[0] == null) return;
+
+		int slot = findSlot(hash(key), key.getBytes(Utf8));
+		if (slot >= 0) removeSlot(slot);
+	}
+
+}
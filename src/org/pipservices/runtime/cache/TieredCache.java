@@ -0,0 +1,557 @@
+package org.pipservices.runtime.cache;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.pipservices.runtime.*;
+import org.pipservices.runtime.config.*;
+import org.pipservices.runtime.errors.*;
+import org.pipservices.runtime.portability.*;
+
+/**
+ * Two-level cache that combines a small and fast near cache (L1)
+ * with a larger and slower far cache (L2). Both levels are regular cache
+ * components located among linked components by their types
+ * set in 'options.l1' and 'options.l2'.
+ *
+ * Reads are served from L1 and fall through to L2 on miss.
+ * When 'options.promote' is set, values found in L2 are copied into L1.
+ * When 'options.demote' is set and L1 is a memory cache, values evicted
+ * from L1 due to its size limit are moved to L2 with their remaining timeouts.
+ * Writes of a key cancel its pending demotion or wait until it completes,
+ * so an evicted value never overwrites a newer one in L2.
+ *
+ * Writes are controlled by 'options.write_mode':
+ * <ul>
+ * <li> through - values are written into both levels synchronously (default)
+ * <li> behind - values are written into L1 and queued for L2, the queue
+ * is flushed every 'options.flush_interval' milliseconds and on close
+ * <li> none - values are written into L1 only and reach L2 by demotion
+ * </ul>
+ *
+ * Besides overall cache statistics, hits and misses of each level are published
+ * to counters every 'options.stats_interval' milliseconds as '&lt;name&gt;.l1.hits',
+ * '&lt;name&gt;.l1.misses', '&lt;name&gt;.l2.hits' and '&lt;name&gt;.l2.misses' together
+ * with '&lt;name&gt;.l1.hit_ratio' and '&lt;name&gt;.l2.hit_ratio', where name is set in 'options.name'.
+ */
+public class TieredCache extends AbstractCache {
+	/**
+	 * Unique descriptor for the Tiered Cache component
+	 */
+	public final static ComponentDescriptor Descriptor = new ComponentDescriptor(
+		Category.Cache, "pip-services-runtime-cache", "tiered", "*"
+	);
+
+	/**
+	 * Default configuration for tiered cache component
+	 */
+	private final static DynamicMap DefaultConfig = DynamicMap.fromTuples(
+		"options.name", "cache", // prefix for performance counters
+		"options.l1", "memory", // type of near cache component
+		"options.l2", "offheap", // type of far cache component
+		"options.promote", true, // copy values found in L2 into L1
+		"options.demote", false, // move values evicted from L1 into L2
+		"options.write_mode", "through", // write mode: through, behind or none
+		"options.flush_interval", 100 // write behind interval in milliseconds
+	);
+
+	/**
+	 * Value written behind, null value means removal
+	 */
+	private static class PendingWrite {
+		public Object value;
+		public long timeout;
+
+		public PendingWrite(Object value, long timeout) {
+			this.value = value;
+			this.timeout = timeout;
+		}
+	}
+
+	private String _l1Type;
+	private String _l2Type;
+	private boolean _promote;
+	private boolean _demote;
+	private String _writeMode;
+	private long _flushInterval;
+
+	private ICache _l1;
+	private ICache _l2;
+	private Map<String, PendingWrite> _pending = new LinkedHashMap<String, PendingWrite>();
+	private Map<String, PendingWrite> _flushing = new LinkedHashMap<String, PendingWrite>();
+	private final Object _flushLock = new Object();
+	private Timer _interval;
+	// Entries evicted from L1 and not yet demoted to L2 by their keys
+	private Map<String, CacheEntry> _demoting = new ConcurrentHashMap<String, CacheEntry>();
+
+	private LongAdder _l1Hits = new LongAdder();
+	private LongAdder _l1Misses = new LongAdder();
+	private LongAdder _l2Hits = new LongAdder();
+	private LongAdder _l2Misses = new LongAdder();
+	private long[] _published = new long[4];
+
+	/**
+	 * Creates instance of tiered cache component
+	 */
+	public TieredCache() {
+		super(Descriptor);
+	}
+
+	/**
+	 * Sets component configuration parameters and switches from component
+	 * to 'Configured' state. The configuration is only allowed once
+	 * right after creation. Attempts to perform reconfiguration will
+	 * cause an exception.
+	 * @param config the component configuration parameters.
+	 * @throws MicroserviceError when component is in illegal state
+	 * or configuration validation fails.
+	 */
+	@Override
+	public void configure(ComponentConfig config) throws MicroserviceError {
+		checkNewStateAllowed(State.Configured);
+
+		config = config.withDefaults(DefaultConfig);
+		DynamicMap options = config.getOptions();
+
+		String writeMode = options.getString("write_mode").toLowerCase();
+		if (!"through".equals(writeMode) && !"behind".equals(writeMode) && !"none".equals(writeMode))
+			throw new ConfigError(this, "UnsupportedWriteMode", "Write mode " + writeMode + " is not supported")
+				.withDetails(writeMode);
+
+		super.configure(config);
+
+		_l1Type = options.getString("l1");
+		_l2Type = options.getString("l2");
+		_promote = options.getBoolean("promote");
+		_demote = options.getBoolean("demote");
+		_writeMode = writeMode;
+		_flushInterval = options.getLong("flush_interval");
+	}
+
+	/**
+	 * Sets references to other microservice components to enable their
+	 * collaboration. It is recommended to locate necessary components
+	 * and cache their references to improve performance.
+	 * @param context application context
+	 * @param components references to microservice components.
+	 * @throws MicroserviceError when requires components are not found.
+	 */
+	@Override
+	public void link(DynamicMap context, ComponentSet components) throws MicroserviceError {
+		super.link(context, components);
+
+		_l1 = (ICache)components.getOneRequired(
+			new ComponentDescriptor(Category.Cache, null, _l1Type, null)
+		);
+		_l2 = (ICache)components.getOneRequired(
+			new ComponentDescriptor(Category.Cache, null, _l2Type, null)
+		);
+
+		if (_demote) {
+			if (!(_l1 instanceof MemoryCache))
+				throw new ConfigError(this, "DemoteNotSupported", "Demotion requires memory cache as L1")
+					.withDetails(_l1Type);
+
+			((MemoryCache)_l1).setEvictionListener(new IEvictionListener() {
+				@Override
+				public void onEvicting(CacheEntry entry) {
+					_demoting.put(entry.getKey(), entry);
+				}
+
+				@Override
+				public void onEvicted(CacheEntry entry) {
+					demote(entry);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Opens the component, performs initialization, opens connections
+	 * to external services and makes the component ready for operations.
+	 * Opening can be done multiple times: right after linking
+	 * or reopening after closure.
+	 * @throws MicroserviceError when initialization or connections fail.
+	 */
+	@Override
+	public void open() throws MicroserviceError {
+		checkNewStateAllowed(State.Opened);
+
+		if ("behind".equals(_writeMode) && _flushInterval > 0) {
+			_interval = new Timer(true);
+			_interval.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					try {
+						flush();
+					} catch (Exception ex) {
+						error(null, "Failed to write behind cached values", ex);
+					}
+				}
+			}, _flushInterval, _flushInterval);
+		}
+
+		super.open();
+	}
+
+	/**
+	 * Closes the component and all open connections, performs deinitialization
+	 * steps. Closure can only be done from opened state. Attempts to close
+	 * already closed component or in wrong order will cause exception.
+	 * @throws MicroserviceError with closure fails.
+	 */
+	@Override
+	public void close() throws MicroserviceError {
+		checkNewStateAllowed(State.Closed);
+
+		if (_interval != null) {
+			_interval.cancel();
+			_interval = null;
+		}
+
+		flush();
+
+		super.close();
+	}
+
+	/**
+	 * Writes all values queued in write behind mode into L2 cache.
+	 * This method is called periodically by background task
+	 * when the cache is opened and on close.
+	 */
+	public void flush() {
+		Map<String, PendingWrite> batch;
+		synchronized (_flushLock) {
+			synchronized (_pending) {
+				if (_pending.isEmpty()) return;
+				batch = _pending;
+				_pending = _flushing;
+				_flushing = batch;
+			}
+
+			for (Map.Entry<String, PendingWrite> write : batch.entrySet()) {
+				if (write.getValue().value != null)
+					_l2.store(write.getKey(), write.getValue().value, write.getValue().timeout);
+				else _l2.remove(write.getKey());
+			}
+
+			synchronized (_pending) {
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Publishes cache statistics to linked counters
+	 * together with hit ratios of both cache levels.
+	 */
+	@Override
+	protected synchronized void publishStats() {
+		super.publishStats();
+
+		String name = getStatsName();
+		long[] current = new long[] { _l1Hits.sum(), _l1Misses.sum(), _l2Hits.sum(), _l2Misses.sum() };
+		String[] names = new String[] { ".l1.hits", ".l1.misses", ".l2.hits", ".l2.misses" };
+		for (int index = 0; index < current.length; index++) {
+			long delta = current[index] - _published[index];
+			if (delta > 0)
+				increment(name + names[index], (int)Math.min(delta, Integer.MAX_VALUE));
+		}
+		_published = current;
+
+		if (_l1Hits.sum() + _l1Misses.sum() > 0)
+			last(name + ".l1.hit_ratio", getL1HitRatio());
+		if (_l2Hits.sum() + _l2Misses.sum() > 0)
+			last(name + ".l2.hit_ratio", getL2HitRatio());
+	}
+
+	/**
+	 * Gets ratio of reads served by L1 cache.
+	 * @return the hit ratio from 0 to 1.
+	 */
+	public float getL1HitRatio() {
+		long hits = _l1Hits.sum();
+		long total = hits + _l1Misses.sum();
+		return total > 0 ? (float)hits / total : 0;
+	}
+
+	/**
+	 * Gets ratio of L1 misses served by L2 cache.
+	 * @return the hit ratio from 0 to 1.
+	 */
+	public float getL2HitRatio() {
+		long hits = _l2Hits.sum();
+		long total = hits + _l2Misses.sum();
+		return total > 0 ? (float)hits / total : 0;
+	}
+
+	/**
+	 * Writes or removes value in L2 cache according to the write mode.
+	 * @param key a unique key to locate value in the cache.
+	 * @param value a value to store or <b>null</b> to remove it.
+	 * @param timeout an expiration timeout in milliseconds or 0 to use the default one.
+	 */
+	private void writeL2(String key, Object value, long timeout) {
+		if ("behind".equals(_writeMode)) {
+			synchronized (_pending) {
+				_pending.remove(key);
+				_pending.put(key, new PendingWrite(value, timeout));
+			}
+		} else if (value != null) {
+			_l2.store(key, value, timeout);
+		} else {
+			_l2.remove(key);
+		}
+	}
+
+	/**
+	 * Moves a value evicted from L1 into L2 with its remaining timeout.
+	 * The demotion is skipped when the key was written after the eviction.
+	 * It holds the entry until the value is written, so writes that cancel
+	 * the demotion while it runs wait for it in cancelDemotion().
+	 * @param entry the entry evicted from L1.
+	 */
+	private void demote(CacheEntry entry) {
+		synchronized (entry) {
+			String key = entry.getKey();
+			if (_demoting.get(key) != entry) return;
+
+			long now = System.currentTimeMillis();
+			if (!entry.isExpired(now)) {
+				long timeout = entry.getExpires() > 0 ? Math.max(1, entry.getExpires() - now) : 0;
+				writeL2(key, entry.getValue(), timeout);
+			}
+			_demoting.remove(key, entry);
+		}
+	}
+
+	/**
+	 * Cancels pending demotion of a key before its newer value or removal
+	 * is written into L2. It shall be called after the key is changed in L1.
+	 * When the demotion is already running, waits until it completes,
+	 * so the newer write reaches L2 after the evicted value.
+	 * @param key a unique key to locate value in the cache.
+	 */
+	private void cancelDemotion(String key) {
+		if (!_demote) return;
+
+		CacheEntry entry = _demoting.remove(key);
+		if (entry != null) {
+			synchronized (entry) {
+				// Demotion is completed or skipped
+			}
+		}
+	}
+
+	/**
+	 * Finds value that was evicted from L1 but not yet demoted to L2.
+	 * @param key a unique key to locate value in the cache.
+	 * @return the evicted value or <b>null</b> if nothing is pending for the key.
+	 */
+	private Object findDemoting(String key) {
+		if (!_demote) return null;
+
+		CacheEntry entry = _demoting.get(key);
+		return entry != null && !entry.isExpired(System.currentTimeMillis()) ? entry.getValue() : null;
+	}
+
+	/**
+	 * Finds value that was queued for L2 cache but not yet written.
+	 * @param key a unique key to locate value in the cache.
+	 * @return a queued write or <b>null</b> if nothing is queued for the key.
+	 */
+	private PendingWrite findPending(String key) {
+		synchronized (_pending) {
+			PendingWrite write = _pending.get(key);
+			return write != null ? write : _flushing.get(key);
+		}
+	}
+
+	/**
+	 * Retrieves a value from the cache by unique key.
+	 * It is recommended to use either string GUIDs like '123456789abc'
+	 * or unique natural keys prefixed with the functional group
+	 * like 'pip-services-storage:block-123'.
+	 * @param key a unique key to locate value in the cache
+	 * @return a cached value or <b>null</b> if value wasn't found or timeout expired.
+	 */
+	@Override
+	public Object retrieve(String key) {
+		Object value = _l1.retrieve(key);
+		if (value != null) {
+			_l1Hits.increment();
+			_stats.recordHit();
+			return value;
+		}
+
+		_l1Misses.increment();
+
+		// Value evicted from L1 is served until it reaches L2,
+		// and queued removal hides the value that is still in L2
+		value = findDemoting(key);
+		if (value == null) {
+			PendingWrite write = "behind".equals(_writeMode) ? findPending(key) : null;
+			if (write != null) {
+				value = write.value;
+			} else {
+				value = _l2.retrieve(key);
+				if (value != null && _promote)
+					_l1.store(key, value);
+			}
+		}
+
+		if (value == null) {
+			_l2Misses.increment();
+			_stats.recordMiss();
+		} else {
+			_l2Hits.increment();
+			_stats.recordHit();
+		}
+
+		return value;
+	}
+
+	/**
+	 * Looks up a value in both levels and the write behind queue
+	 * without recording statistics.
+	 * @param key a unique key to locate value in the cache
+	 * @return a cached value or <b>null</b> if value wasn't found or timeout expired.
+	 */
+	@Override
+	protected Object peek(String key) {
+		Object value = _l1 instanceof AbstractCache ? ((AbstractCache)_l1).peek(key) : null;
+		if (value != null) return value;
+
+		value = findDemoting(key);
+		if (value != null) return value;
+
+		PendingWrite write = "behind".equals(_writeMode) ? findPending(key) : null;
+		if (write != null) return write.value;
+
+		return _l2 instanceof AbstractCache ? ((AbstractCache)_l2).peek(key) : null;
+	}
+
+	/**
+	 * Retrieves multiple values from the cache in a single call.
+	 * Keys missing in L1 are requested from L2 as a single batch.
+	 * @param keys unique keys to locate values in the cache
+	 * @return a map with found values. Keys that weren't found or expired are not included.
+	 */
+	@Override
+	public Map<String, Object> retrieveAll(Collection<String> keys) {
+		Map<String, Object> result = _l1.retrieveAll(keys);
+		int l1Hits = result.size();
+		_l1Hits.add(l1Hits);
+		_l1Misses.add(keys.size() - l1Hits);
+
+		if (l1Hits < keys.size()) {
+			List<String> missing = new ArrayList<String>();
+			int l2Hits = 0;
+			for (String key : keys) {
+				if (result.containsKey(key)) continue;
+
+				Object value = findDemoting(key);
+				if (value != null) {
+					result.put(key, value);
+					l2Hits++;
+					continue;
+				}
+
+				// Queued removals are misses and are not requested from L2
+				PendingWrite write = "behind".equals(_writeMode) ? findPending(key) : null;
+				if (write == null) {
+					missing.add(key);
+				} else if (write.value != null) {
+					result.put(key, write.value);
+					l2Hits++;
+				}
+			}
+
+			Map<String, Object> found = _l2.retrieveAll(missing);
+			if (_promote && found.size() > 0)
+				_l1.storeAll(found);
+			result.putAll(found);
+			l2Hits += found.size();
+
+			_l2Hits.add(l2Hits);
+			_l2Misses.add(keys.size() - l1Hits - l2Hits);
+		}
+
+		_stats.recordHits(result.size());
+		_stats.recordMisses(keys.size() - result.size());
+
+		return result;
+	}
+
+	/**
+	 * Stores value identified by unique key in the cache.
+	 * Stale timeout is configured in the component options.
+	 * @param key a unique key to locate value in the cache.
+	 * @param value a value to store.
+	 * @return a cached value stored in the cache.
+	 */
+	@Override
+	public Object store(String key, Object value) {
+		return store(key, value, 0);
+	}
+
+	/**
+	 * Stores value identified by unique key in the cache
+	 * with individual expiration timeout.
+	 * @param key a unique key to locate value in the cache.
+	 * @param value a value to store.
+	 * @param timeout an expiration timeout in milliseconds
+	 * or 0 to use the timeout configured in the component options.
+	 * @return a cached value stored in the cache.
+	 */
+	@Override
+	public Object store(String key, Object value, long timeout) {
+		if (value == null) {
+			remove(key);
+			return null;
+		}
+
+		_l1.store(key, value, timeout);
+		cancelDemotion(key);
+		if (!"none".equals(_writeMode))
+			writeL2(key, value, timeout);
+
+		return value;
+	}
+
+	/**
+	 * Stores multiple values in the cache in a single call.
+	 * Stale timeout is configured in the component options.
+	 * Entries with <b>null</b> values are removed from the cache.
+	 * In write through mode values are passed to L2 as a single batch.
+	 * @param values a map with unique keys and values to store.
+	 */
+	@Override
+	public void storeAll(Map<String, Object> values) {
+		_l1.storeAll(values);
+		for (String key : values.keySet())
+			cancelDemotion(key);
+
+		if ("through".equals(_writeMode)) {
+			_l2.storeAll(values);
+		} else {
+			for (Map.Entry<String, Object> entry : values.entrySet()) {
+				if (entry.getValue() != null && "none".equals(_writeMode)) continue;
+				writeL2(entry.getKey(), entry.getValue(), 0);
+			}
+		}
+	}
+
+	/**
+	 * Removes value stored in the cache.
+	 * @param key a unique key to locate value in the cache.
+	 */
+	@Override
+	public void remove(String key) {
+		_l1.remove(key);
+		cancelDemotion(key);
+		writeL2(key, null, 0);
+	}
+
+}
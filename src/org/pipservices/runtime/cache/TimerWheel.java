@@ -0,0 +1,151 @@
+package org.pipservices.runtime.cache;
+
+import java.util.function.*;
+
+/**
+ * Hierarchical timing wheel that tracks expiration time of cache entries.
+ * Each level is a ring of buckets with intrusive lists of entries.
+ * Lower levels have finer resolution, and entries cascade down
+ * as time advances. Scheduling, rescheduling and removal take
+ * constant time, and expiration is amortized constant time per entry.
+ * <p>
+ * Bucket sizes of levels: 64ms, ~4s, ~4.4min, ~4.7h and ~12 days.
+ * Entries are expired with accuracy of the lowest level resolution.
+ */
+class TimerWheel {
+	private final static int[] Buckets = new int[] { 64, 64, 64, 64, 1 };
+	private final static int[] Shifts = new int[] { 6, 12, 18, 24, 30 };
+
+	private CacheEntry[][] _wheel;
+	private long _time;
+
+	/**
+	 * Creates a timer wheel.
+	 * @param time the current time in milliseconds.
+	 */
+	public TimerWheel(long time) {
+		_time = time;
+		_wheel = new CacheEntry[Buckets.length][];
+		for (int level = 0; level < Buckets.length; level++) {
+			_wheel[level] = new CacheEntry[Buckets[level]];
+			for (int index = 0; index < Buckets[level]; index++) {
+				CacheEntry sentinel = new CacheEntry(null, null);
+				sentinel._timerPrev = sentinel;
+				sentinel._timerNext = sentinel;
+				_wheel[level][index] = sentinel;
+			}
+		}
+	}
+
+	/**
+	 * Adds entry to the wheel according to its expiration time.
+	 * Entries that never expire are ignored.
+	 * @param entry a cache entry to be scheduled.
+	 */
+	public void schedule(CacheEntry entry) {
+		if (entry._expires <= 0) return;
+
+		CacheEntry sentinel = findBucket(entry._expires);
+		entry._timerPrev = sentinel._timerPrev;
+		entry._timerNext = sentinel;
+		sentinel._timerPrev._timerNext = entry;
+		sentinel._timerPrev = entry;
+	}
+
+	/**
+	 * Moves entry to the bucket that matches its updated expiration time.
+	 * @param entry a cache entry to be rescheduled.
+	 */
+	public void reschedule(CacheEntry entry) {
+		deschedule(entry);
+		schedule(entry);
+	}
+
+	/**
+	 * Removes entry from the wheel.
+	 * @param entry a cache entry to be removed.
+	 */
+	public void deschedule(CacheEntry entry) {
+		if (entry._timerPrev == null) return;
+
+		entry._timerPrev._timerNext = entry._timerNext;
+		entry._timerNext._timerPrev = entry._timerPrev;
+		entry._timerPrev = null;
+		entry._timerNext = null;
+	}
+
+	/**
+	 * Advances the wheel to the current time, passes expired entries
+	 * to the callback and cascades remaining ones to lower levels.
+	 * @param time the current time in milliseconds.
+	 * @param expire a callback to remove expired entries.
+	 */
+	public void advance(long time, Consumer<CacheEntry> expire) {
+		long previous = _time;
+		if (time <= previous) return;
+		_time = time;
+
+		for (int level = 0; level < Shifts.length; level++) {
+			long previousTicks = previous >>> Shifts[level];
+			long currentTicks = time >>> Shifts[level];
+			if (currentTicks <= previousTicks) break;
+			expire(level, previousTicks, currentTicks, expire);
+		}
+	}
+
+	/**
+	 * Processes buckets of a single level passed since the previous advance.
+	 * @param level a wheel level.
+	 * @param previousTicks ticks of the level at the previous advance.
+	 * @param currentTicks ticks of the level at the current time.
+	 * @param expire a callback to remove expired entries.
+	 */
+	private void expire(int level, long previousTicks, long currentTicks, Consumer<CacheEntry> expire) {
+		CacheEntry[] buckets = _wheel[level];
+		int mask = buckets.length - 1;
+		long steps = Math.min(currentTicks - previousTicks + 1, buckets.length);
+		int start = (int)(previousTicks & mask);
+
+		for (int step = 0; step < steps; step++) {
+			CacheEntry sentinel = buckets[(start + step) & mask];
+
+			// Detach all entries from the bucket
+			CacheEntry entry = sentinel._timerNext;
+			sentinel._timerPrev = sentinel;
+			sentinel._timerNext = sentinel;
+
+			while (entry != sentinel) {
+				CacheEntry next = entry._timerNext;
+				entry._timerPrev = null;
+				entry._timerNext = null;
+
+				if (entry.isExpired(_time))
+					expire.accept(entry);
+				else schedule(entry);
+
+				entry = next;
+			}
+		}
+	}
+
+	/**
+	 * Finds bucket for the specified expiration time.
+	 * @param time an expiration time in milliseconds.
+	 * @return a sentinel of the found bucket.
+	 */
+	private CacheEntry findBucket(long time) {
+		// Entries that already expired go to the current bucket
+		time = Math.max(time, _time);
+		long duration = time - _time;
+
+		int last = Buckets.length - 1;
+		for (int level = 0; level < last; level++) {
+			if (duration < (1L << Shifts[level + 1])) {
+				long ticks = time >>> Shifts[level];
+				int index = (int)(ticks & (Buckets[level] - 1));
+				return _wheel[level][index];
+			}
+		}
+		return _wheel[last][0];
+	}
+}
@@ -0,0 +1,114 @@
+package org.pipservices.runtime.cache;
+
+/**
+ * Window TinyLFU eviction policy. New entries are placed into
+ * a small LRU window (1% of cache capacity). Entries pushed out
+ * of the window compete with the LRU victim of the main space,
+ * and the one with lower estimated access frequency is evicted.
+ * Frequencies are estimated with a compact Count-Min sketch,
+ * so all operations take constant time and memory overhead is small.
+ */
+public class TinyLfuEvictionPolicy implements IEvictionPolicy {
+	private final static int WindowQueue = 1;
+	private final static int MainQueue = 2;
+
+	private CacheEntryList _window = new CacheEntryList();
+	private CacheEntryList _main = new CacheEntryList();
+	private FrequencySketch _sketch;
+	private int _windowMaxSize;
+	private CacheEntry _candidate;
+
+	/**
+	 * Creates instance of W-TinyLFU eviction policy.
+	 * @param capacity a maximum number of entries kept in the cache.
+	 */
+	public TinyLfuEvictionPolicy(int capacity) {
+		_sketch = new FrequencySketch(capacity);
+		_windowMaxSize = Math.max(1, capacity / 100);
+	}
+
+	/**
+	 * Registers a new entry in the window and moves
+	 * the window overflow into the main space.
+	 * @param entry the added cache entry.
+	 */
+	@Override
+	public void onAdded(CacheEntry entry) {
+		_sketch.increment(FrequencySketch.hash(entry.getKey()));
+
+		entry._queue = WindowQueue;
+		_window.addFirst(entry);
+
+		if (_window.size() > _windowMaxSize) {
+			CacheEntry candidate = _window.getLast();
+			_window.remove(candidate);
+			candidate._queue = MainQueue;
+			_main.addFirst(candidate);
+			_candidate = candidate;
+		}
+	}
+
+	/**
+	 * Records access frequency and moves the entry
+	 * to the beginning of its queue.
+	 * @param entry the accessed cache entry.
+	 */
+	@Override
+	public void onAccessed(CacheEntry entry) {
+		_sketch.increment(FrequencySketch.hash(entry.getKey()));
+
+		if (entry._queue == WindowQueue)
+			_window.moveToFirst(entry);
+		else if (entry._queue == MainQueue)
+			_main.moveToFirst(entry);
+	}
+
+	/**
+	 * Unregisters entry removed from the cache.
+	 * @param entry the removed cache entry.
+	 */
+	@Override
+	public void onRemoved(CacheEntry entry) {
+		if (entry._queue == WindowQueue)
+			_window.remove(entry);
+		else if (entry._queue == MainQueue)
+			_main.remove(entry);
+		entry._queue = 0;
+
+		if (_candidate == entry)
+			_candidate = null;
+	}
+
+	/**
+	 * Selects entry to evict: either the latest candidate moved
+	 * from the window or the main space LRU victim, whichever
+	 * has lower estimated access frequency.
+	 * @return the entry to evict or <b>null</b> if the policy has no entries.
+	 */
+	@Override
+	public CacheEntry selectVictim() {
+		if (_main.isEmpty())
+			return _window.getLast();
+
+		CacheEntry victim = _main.getLast();
+		CacheEntry candidate = _candidate;
+		_candidate = null;
+
+		if (candidate == null || candidate == victim)
+			return victim;
+
+		int candidateFrequency = _sketch.frequency(FrequencySketch.hash(candidate.getKey()));
+		int victimFrequency = _sketch.frequency(FrequencySketch.hash(victim.getKey()));
+		return candidateFrequency > victimFrequency ? victim : candidate;
+	}
+
+	/**
+	 * Unregisters all entries.
+	 */
+	@Override
+	public void clear() {
+		_window.clear();
+		_main.clear();
+		_candidate = null;
+	}
+}
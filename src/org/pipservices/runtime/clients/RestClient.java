@@ -145,6 +145,8 @@ public class RestClient extends AbstractClient {
     	if (paging.getTake() != null)
     		params.add("take", Converter.toString(paging.getTake()));
 		params.add("total", Converter.toString(paging.isTotal()));
+    	if (paging.getAfter() != null)
+    		params.add("after", paging.getAfter());
     }
 
 }
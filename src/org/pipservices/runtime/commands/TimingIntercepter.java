@@ -1,6 +1,7 @@
 package org.pipservices.runtime.commands;
 
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.pipservices.runtime.*;
 import org.pipservices.runtime.errors.*;
@@ -16,6 +17,7 @@ import org.pipservices.runtime.portability.*;
 public class TimingIntercepter implements ICommandIntercepter {
 	private ICounters _counters;
 	private String _suffix;
+	private ConcurrentMap<String, String> _counterNames = new ConcurrentHashMap<String, String>();
 	
 	/**
 	 * Creates instance of timing intercepter.
@@ -45,21 +47,35 @@ public class TimingIntercepter implements ICommandIntercepter {
 	 * @throws MicroserviceError when execution fails for whatever reason.
 	 */
 	public Object execute(ICommand command, String correlationId, DynamicMap args) throws MicroserviceError {		
+		if (_counters == null)
+			return command.execute(correlationId, args);
+
 		// Starting measuring elapsed time
-		ITiming timing = null;
-		if (_counters != null) {
-			String name = command.getName() + "." + _suffix;
-			timing = _counters.beginTiming(name);
-		}
-		
+		long start = System.nanoTime();
 		try {
 			return command.execute(correlationId, args);
 		} finally {
 			// Complete measuring elapsed time
-			if (timing != null) timing.endTiming();
+			_counters.recordTiming(getCounterName(command), System.nanoTime() - start);
 		}
 	}
 	
+	/**
+	 * Gets name of the counter for the command. Names are cached
+	 * to avoid building strings on every call.
+	 * @param command the intercepted command
+	 * @return the counter name as <command>.<suffix>
+	 */
+	private String getCounterName(ICommand command) {
+		String commandName = command.getName();
+		String name = _counterNames.get(commandName);
+		if (name == null) {
+			name = commandName + "." + _suffix;
+			_counterNames.put(commandName, name);
+		}
+		return name;
+	}
+
 	/**
 	 * Performs validation of the command arguments.
 	 * @param command the intercepted command
@@ -2,6 +2,7 @@ package org.pipservices.runtime.counters;
 
 import java.time.*;
 import java.util.*;
+import java.util.concurrent.*;
 
 import org.pipservices.runtime.*;
 import org.pipservices.runtime.config.*;
@@ -10,11 +11,15 @@ import org.pipservices.runtime.portability.*;
 
 public abstract class AbstractCounters extends AbstractComponent implements ICounters {
 	private final static DynamicMap DefaultConfig = DynamicMap.fromTuples(
-		"options.timeout", 60000
+		"options.timeout", 60000,
+		"options.timing_units", "ms",
+		"options.reset_on_dump", false
 	); 
 	
-    private Map<String, Counter> _cache = new HashMap<String, Counter>();
-    private boolean _updated = false;
+    private ConcurrentMap<String, CounterCell> _cells = new ConcurrentHashMap<String, CounterCell>();
+    private volatile boolean _updated = false;
+    private double _nanosPerUnit = 1000000;
+    private boolean _resetOnDump = false;
     private Timer _interval = new Timer();
 
 	/**
@@ -36,7 +41,22 @@ public abstract class AbstractCounters extends AbstractComponent implements ICou
 	 */
 	@Override
 	public void configure(ComponentConfig config) throws MicroserviceError {
-        super.configure(config.withDefaults(DefaultConfig));
+		checkNewStateAllowed(State.Configured);
+
+		config = config.withDefaults(DefaultConfig);
+
+		// Define units to report timings: ns, us, ms or s
+		String units = config.getOptions().getString("timing_units").toLowerCase();
+		if ("ns".equals(units)) _nanosPerUnit = 1;
+		else if ("us".equals(units)) _nanosPerUnit = 1000;
+		else if ("ms".equals(units)) _nanosPerUnit = 1000000;
+		else if ("s".equals(units)) _nanosPerUnit = 1000000000;
+		else throw new ConfigError(this, "UnsupportedTimingUnits", "Timing units " + units + " are not supported")
+			.withDetails(units);
+
+        super.configure(config);
+
+        _resetOnDump = config.getOptions().getBoolean("reset_on_dump");
 	}
     
 	/**
@@ -98,58 +118,93 @@ public abstract class AbstractCounters extends AbstractComponent implements ICou
     protected abstract void save(List<Counter> counters) throws MicroserviceError;
 
     public void reset(String name) {
-        _cache.remove(name);
+        _cells.remove(name);
     }
 
     public void resetAll() {
-        _cache.clear();
+        _cells.clear();
         _updated = false;
     }
 
+	/**
+	 * Saves current counters and starts a new window to calculate rates.
+	 * When 'options.reset_on_dump' is set, counted values are cleared,
+	 * so every dump reports statistics only over the last interval.
+	 * @throws MicroserviceError when saving of counters fails.
+	 */
     public void dump() throws MicroserviceError {
         if (_updated) {
-            List<Counter> counters = this.getAll();
+            List<Counter> counters = new ArrayList<Counter>(_cells.size());
+            for (CounterCell cell : _cells.values())
+                counters.add(cell.snapshot(true, _resetOnDump));
             save(counters);
         }
     }
 
+	/**
+	 * Gets snapshots of all counters.
+	 * @return a list with current counter values.
+	 */
     public List<Counter> getAll() {
-        return new ArrayList<Counter>(_cache.values());
+        List<Counter> counters = new ArrayList<Counter>(_cells.size());
+        for (CounterCell cell : _cells.values())
+            counters.add(cell.snapshot());
+        return counters;
     }
 
+	/**
+	 * Gets a snapshot of the counter. A counter is created
+	 * when it doesn't exist or has a different type.
+	 * Changes in the returned object don't affect the counter.
+	 * @param name the name of the counter.
+	 * @param type the type of the counter defined in CounterType.
+	 * @return current counter values.
+	 */
     public Counter get(String name, int type) {
+        return getCell(name, type).snapshot();
+    }
+
+	/**
+	 * Gets a cell that accumulates counter values.
+	 * Lookup of existing cells doesn't lock or allocate.
+	 * @param name the name of the counter.
+	 * @param type the type of the counter defined in CounterType.
+	 * @return the counter cell.
+	 */
+    private CounterCell getCell(String name, int type) {
         if (name == null || name.length() == 0)
             throw new NullPointerException("Counter name was not set");
 
-        Counter counter = _cache.get(name);
+        CounterCell cell = _cells.get(name);
+        if (cell != null && cell.getType() == type)
+        	return cell;
 
-        if (counter == null || counter.getType() != type) {
-            counter = new Counter(name, type);
-            _cache.put(name, counter);
+        // Counters with a different type are replaced.
+        // Histograms of timings keep 10 nanoseconds resolution in any units
+        double scale = type == CounterType.Interval ? _nanosPerUnit / 10 : 1000;
+        CounterCell newCell = new CounterCell(name, type, scale);
+        while (true) {
+        	if (cell == null) {
+        		cell = _cells.putIfAbsent(name, newCell);
+        		if (cell == null) return newCell;
+        	} else if (cell.getType() == type) {
+        		return cell;
+        	} else if (_cells.replace(name, cell, newCell)) {
+        		return newCell;
+        	} else {
+        		cell = _cells.get(name);
+        	}
         }
-
-        return counter;
     }
 
-    private void calculateStats(Counter counter, float value) {
-        if (counter == null)
-        	throw new NullPointerException("Missing counter");
-
-        counter.setLast(value);
-        counter.setCount(counter.getCount() != null ? counter.getCount() + 1 : 1);
-        counter.setMax(counter.getMax() != null ? Math.max(counter.getMax(), value) : value);
-        counter.setMin(counter.getMin() != null ? Math.min(counter.getMin(), value) : value);
-        counter.setAvg(counter.getAvg() != null && counter.getCount() > 1
-            ? ((counter.getAvg() * (counter.getCount() - 1)) + value) / counter.getCount() : value);
-
-        _updated = true;
+	/**
+	 * Marks counters as updated. The shared flag is written
+	 * only once to avoid contention between recording threads.
+	 */
+    private void markUpdated() {
+    	if (!_updated) _updated = true;
     }
 
-    void setTiming(String name, float elapsed) {
-    	Counter counter = get(name, CounterType.Interval);
-    	calculateStats(counter, elapsed);
-    }
-    
 	/**
 	 * Starts measurement of execution time interval.
 	 * The method returns ITiming object that provides endTiming()
@@ -164,6 +219,20 @@ public abstract class AbstractCounters extends AbstractComponent implements ICou
         return new Timing(this, name);
     }
 
+	/**
+	 * Records elapsed time of execution interval measured by caller
+	 * and updates Interval counter. Unlike beginTiming() it doesn't create
+	 * objects, so it can be used on hot paths together with System.nanoTime().
+	 * The time is reported in units set by 'options.timing_units'.
+	 * @param name the name of interval counter.
+	 * @param nanos the elapsed time in nanoseconds.
+	 */
+    @Override
+    public void recordTiming(String name, long nanos) {
+        getCell(name, CounterType.Interval).record(nanos / _nanosPerUnit);
+        markUpdated();
+    }
+
 	/**
 	 * Calculates rolling statistics: minimum, maximum, average
 	 * and updates Statistics counter.
@@ -175,8 +244,23 @@ public abstract class AbstractCounters extends AbstractComponent implements ICou
 	 */
     @Override
     public void stats(String name, float value) {
-        Counter counter = get(name, CounterType.Statistics);
-        calculateStats(counter, value);
+        getCell(name, CounterType.Statistics).record(value);
+        markUpdated();
+    }
+
+	/**
+	 * Adds a value to Histogram counter that calculates
+	 * the same statistics as Statistics counter and also
+	 * 50, 90, 99 and 99.9 percentiles of the values.
+	 * This counter can be used to track distribution
+	 * of response sizes, queue lengths, etc.
+	 * @param name the name of histogram counter.
+	 * @param value the value to add to the histogram.
+	 */
+    @Override
+    public void histogram(String name, float value) {
+        getCell(name, CounterType.Histogram).record(value);
+        markUpdated();
     }
 
 	/**
@@ -189,9 +273,8 @@ public abstract class AbstractCounters extends AbstractComponent implements ICou
 	 */
     @Override
     public void last(String name, float value) {
-        Counter counter = get(name, CounterType.LastValue);
-        counter.setLast(value);
-        _updated = true;
+        getCell(name, CounterType.LastValue).setLast(value);
+        markUpdated();
     }
 
 	/**
@@ -203,9 +286,21 @@ public abstract class AbstractCounters extends AbstractComponent implements ICou
 	 */
     @Override
     public void timestamp(String name, ZonedDateTime value) {
-        Counter counter = get(name, CounterType.Timestamp);
-        counter.setTime(value != null ? value : ZonedDateTime.now(ZoneId.of("Z")));
-        _updated = true;
+        long time = value != null ? value.toInstant().toEpochMilli() : System.currentTimeMillis();
+        getCell(name, CounterType.Timestamp).setTime(time);
+        markUpdated();
+    }
+
+	/**
+	 * Records the current time.
+	 * This counter can be used to track timing of key
+	 * business transactions.
+	 * @param name the name of timing counter
+	 */
+    @Override
+    public void timestampNow(String name) {
+        getCell(name, CounterType.Timestamp).setTime(System.currentTimeMillis());
+        markUpdated();
     }
 
 	/**
@@ -217,9 +312,7 @@ public abstract class AbstractCounters extends AbstractComponent implements ICou
 	 */
     @Override
     public void increment(String name, int value) {
-        Counter counter = get(name, CounterType.Increment);
-        counter.setCount(counter.getCount() != null
-            ? counter.getCount() + value : value);
-        _updated = true;
+        getCell(name, CounterType.Increment).increment(value);
+        markUpdated();
     }
 }
@@ -11,6 +11,11 @@ public class Counter {
     private Float _min;
     private Float _max;
     private Float _avg;
+    private Float _p50;
+    private Float _p90;
+    private Float _p99;
+    private Float _p999;
+    private Float _rate;
     private ZonedDateTime _time;
 
     public Counter() {}
@@ -48,6 +53,26 @@ public class Counter {
     public Float getAvg() { return _avg; }
     public void setAvg(Float avg) { _avg = avg; }
 
+    @JsonProperty("p50")
+    public Float getP50() { return _p50; }
+    public void setP50(Float p50) { _p50 = p50; }
+
+    @JsonProperty("p90")
+    public Float getP90() { return _p90; }
+    public void setP90(Float p90) { _p90 = p90; }
+
+    @JsonProperty("p99")
+    public Float getP99() { return _p99; }
+    public void setP99(Float p99) { _p99 = p99; }
+
+    @JsonProperty("p999")
+    public Float getP999() { return _p999; }
+    public void setP999(Float p999) { _p999 = p999; }
+
+    @JsonProperty("rate")
+    public Float getRate() { return _rate; }
+    public void setRate(Float rate) { _rate = rate; }
+
     @JsonProperty("time")
     public ZonedDateTime getTime() { return _time; }
     public void setTime(ZonedDateTime time) { _time = time; }
@@ -0,0 +1,164 @@
+package org.pipservices.runtime.counters;
+
+import java.time.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Concurrent accumulator of a single performance counter.
+ * Recording doesn't lock or allocate. Count, sum, min and max are kept
+ * in striped adders, so threads that record into the same counter
+ * update separate cells. The last value and histogram buckets are shared:
+ * every value writes the last value field and increments a bucket with
+ * a single atomic operation, so threads that record into the same counter
+ * at the same time still contend on these cache lines.
+ * Counter objects are only built by snapshot() when counters are read or dumped.
+ * Interval and Histogram counters also keep a histogram of values
+ * to report percentiles.
+ * Counters that count values also report the rate per second
+ * over the current window, which is ended by dumps of counters.
+ * A snapshot taken while values are recorded may include
+ * some of the concurrent updates but not the others.
+ */
+class CounterCell {
+	private final String _name;
+	private final int _type;
+	private final LongAdder _count = new LongAdder();
+	private final DoubleAdder _sum = new DoubleAdder();
+	private final DoubleAccumulator _min = new DoubleAccumulator(Math::min, Double.POSITIVE_INFINITY);
+	private final DoubleAccumulator _max = new DoubleAccumulator(Math::max, Double.NEGATIVE_INFINITY);
+	private volatile double _last = Double.NaN;
+	private volatile long _time = Long.MIN_VALUE;
+	private final Histogram _histogram;
+	private long _windowStart = System.nanoTime();
+	private long _windowCount = 0;
+
+	/**
+	 * Creates a new counter cell.
+	 * @param name the name of the counter.
+	 * @param type the type of the counter defined in CounterType.
+	 * @param scale the number of histogram units in a recorded value.
+	 */
+	public CounterCell(String name, int type, double scale) {
+		_name = name;
+		_type = type;
+		_histogram = type == CounterType.Interval || type == CounterType.Histogram
+			? new Histogram(scale) : null;
+	}
+
+	public String getName() { return _name; }
+
+	public int getType() { return _type; }
+
+	/**
+	 * Adds a value to statistics: last, count, min, max, average
+	 * and percentiles for counters with histogram.
+	 * @param value the value to add.
+	 */
+	public void record(double value) {
+		_last = value;
+		_count.increment();
+		_sum.add(value);
+		_min.accumulate(value);
+		_max.accumulate(value);
+		if (_histogram != null)
+			_histogram.record(value);
+	}
+
+	/**
+	 * Records the last value.
+	 * @param value the value to store.
+	 */
+	public void setLast(double value) {
+		_last = value;
+	}
+
+	/**
+	 * Records time.
+	 * @param time the time in milliseconds since the epoch.
+	 */
+	public void setTime(long time) {
+		_time = time;
+	}
+
+	/**
+	 * Increments the count.
+	 * @param value the number to add to the count.
+	 */
+	public void increment(long value) {
+		_count.add(value);
+	}
+
+	/**
+	 * Builds a counter object with current values.
+	 * Only values collected by the counter type are set.
+	 * @return a new counter object.
+	 */
+	public Counter snapshot() {
+		return snapshot(false, false);
+	}
+
+	/**
+	 * Builds a counter object with current values.
+	 * Only values collected by the counter type are set.
+	 * Last values and timestamps are never reset.
+	 * @param endWindow <b>true</b> to start a new window to calculate the rate.
+	 * @param reset <b>true</b> to clear collected values, so they are
+	 * calculated only over the new window.
+	 * @return a new counter object.
+	 */
+	public synchronized Counter snapshot(boolean endWindow, boolean reset) {
+		Counter counter = new Counter(_name, _type);
+
+		long now = System.nanoTime();
+		long count = reset ? _count.sumThenReset() : _count.sum();
+		double seconds = Math.max(1000000, now - _windowStart) / 1000000000.0;
+		float rate = (float)((count - _windowCount) / seconds);
+		if (endWindow) {
+			_windowStart = now;
+			_windowCount = reset ? 0 : count;
+		}
+
+		if (_type == CounterType.Interval || _type == CounterType.Statistics
+			|| _type == CounterType.Histogram) {
+			double sum = reset ? _sum.sumThenReset() : _sum.sum();
+			double min = reset ? _min.getThenReset() : _min.get();
+			double max = reset ? _max.getThenReset() : _max.get();
+			double[] values = _histogram != null
+				? _histogram.getValuesAtPercentiles(reset, 50, 90, 99, 99.9) : null;
+
+			counter.setRate(rate);
+			if (count > 0) {
+				counter.setLast((float)_last);
+				counter.setCount(toInt(count));
+				counter.setMin((float)min);
+				counter.setMax((float)max);
+				counter.setAvg((float)(sum / count));
+
+				if (values != null) {
+					// Bucket bounds never exceed the largest recorded value
+					counter.setP50((float)Math.min(values[0], max));
+					counter.setP90((float)Math.min(values[1], max));
+					counter.setP99((float)Math.min(values[2], max));
+					counter.setP999((float)Math.min(values[3], max));
+				}
+			}
+		} else if (_type == CounterType.LastValue) {
+			double last = _last;
+			if (!Double.isNaN(last))
+				counter.setLast((float)last);
+		} else if (_type == CounterType.Timestamp) {
+			long time = _time;
+			if (time != Long.MIN_VALUE)
+				counter.setTime(ZonedDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneId.of("Z")));
+		} else if (_type == CounterType.Increment) {
+			counter.setCount(toInt(count));
+			counter.setRate(rate);
+		}
+
+		return counter;
+	}
+
+	private static int toInt(long value) {
+		return (int)Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, value));
+	}
+}
@@ -6,4 +6,5 @@ public class CounterType {
     public final static int Statistics = 2; 
     public final static int Timestamp = 3; 
     public final static int Increment = 4; 
+    public final static int Histogram = 5; 
 }
@@ -0,0 +1,97 @@
+package org.pipservices.runtime.counters;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Concurrent histogram with log-linear buckets in the layout of HdrHistogram.
+ * Values are scaled to integer units and counted in buckets that double in size,
+ * each one split into 128 linear sub-buckets, so a value is reported with
+ * less than 1% relative error across the whole range. Values are recorded
+ * by a single atomic increment without locks or allocations. Buckets are not
+ * striped, so concurrent values that fall into the same bucket contend on it.
+ * Values below zero are counted as zero and values above the range
+ * are counted in the last bucket.
+ */
+class Histogram {
+	private final static int SubBucketHalfCountMagnitude = 7;
+	private final static int SubBucketHalfCount = 1 << SubBucketHalfCountMagnitude;
+	private final static long SubBucketMask = (SubBucketHalfCount << 1) - 1;
+	private final static int LeadingZeroCountBase = 64 - SubBucketHalfCountMagnitude - 1;
+	private final static long MaxValue = (1L << 40) - 1;
+
+	private final double _scale;
+	private final AtomicLongArray _counts;
+
+	/**
+	 * Creates a new histogram.
+	 * @param scale the number of integer units in a recorded value.
+	 * It sets the lowest value that can be distinguished from zero.
+	 */
+	public Histogram(double scale) {
+		_scale = scale;
+		_counts = new AtomicLongArray(countsIndex(MaxValue) + 1);
+	}
+
+	/**
+	 * Adds a value to the histogram.
+	 * @param value the value to add.
+	 */
+	public void record(double value) {
+		long units = (long)(value * _scale);
+		units = Math.max(0, Math.min(MaxValue, units));
+		_counts.incrementAndGet(countsIndex(units));
+	}
+
+	/**
+	 * Calculates values at specified percentiles.
+	 * Every value is the highest value equivalent to the bucket
+	 * where the percentile falls. Counts are read in place without copying:
+	 * the total is summed in the first pass, and the percentiles are found
+	 * in the second one.
+	 * @param reset <b>true</b> to remove values after calculation.
+	 * Values recorded concurrently are either included and removed
+	 * or kept for the next calculation.
+	 * @param percentiles percentiles in ascending order from 0 to 100.
+	 * @return values at the percentiles or <b>null</b> if the histogram is empty.
+	 */
+	public double[] getValuesAtPercentiles(boolean reset, double... percentiles) {
+		int length = _counts.length();
+		long total = 0;
+		for (int index = 0; index < length; index++)
+			total += _counts.get(index);
+		if (total == 0) return null;
+
+		double[] values = new double[percentiles.length];
+		long cumulative = 0;
+		int position = 0;
+		// When values are reset the walk continues to the end to clear all buckets
+		for (int index = 0; index < length && (reset || position < percentiles.length); index++) {
+			long count = _counts.get(index);
+			if (reset && count != 0)
+				count = _counts.getAndSet(index, 0);
+			cumulative += count;
+
+			// Counts only grow between the passes, so every percentile is reached
+			while (position < percentiles.length
+				&& cumulative >= Math.max(1, (long)Math.ceil(percentiles[position] / 100 * total)))
+				values[position++] = highestEquivalentValue(index) / _scale;
+		}
+		return values;
+	}
+
+	private static int countsIndex(long value) {
+		int bucketIndex = LeadingZeroCountBase - Long.numberOfLeadingZeros(value | SubBucketMask);
+		int subBucketIndex = (int)(value >>> bucketIndex);
+		return ((bucketIndex + 1) << SubBucketHalfCountMagnitude) + (subBucketIndex - SubBucketHalfCount);
+	}
+
+	private static long highestEquivalentValue(int index) {
+		int bucketIndex = (index >> SubBucketHalfCountMagnitude) - 1;
+		long subBucketIndex = (index & (SubBucketHalfCount - 1)) + SubBucketHalfCount;
+		if (bucketIndex < 0) {
+			subBucketIndex -= SubBucketHalfCount;
+			bucketIndex = 0;
+		}
+		return ((subBucketIndex + 1) << bucketIndex) - 1;
+	}
+}
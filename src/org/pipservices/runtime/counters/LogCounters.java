@@ -46,6 +46,16 @@ public class LogCounters extends AbstractCounters {
             result += ", \"max\": " + Converter.toString(counter.getMax());
         if (counter.getAvg() != null)
             result += ", \"avg\": " + Converter.toString(counter.getAvg());
+        if (counter.getP50() != null)
+            result += ", \"p50\": " + Converter.toString(counter.getP50());
+        if (counter.getP90() != null)
+            result += ", \"p90\": " + Converter.toString(counter.getP90());
+        if (counter.getP99() != null)
+            result += ", \"p99\": " + Converter.toString(counter.getP99());
+        if (counter.getP999() != null)
+            result += ", \"p999\": " + Converter.toString(counter.getP999());
+        if (counter.getRate() != null)
+            result += ", \"rate\": " + Converter.toString(counter.getRate());
         if (counter.getTime() != null)
             result += ", \"time\": " + Converter.toString(counter.getTime());
         result += " }";
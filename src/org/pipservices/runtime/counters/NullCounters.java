@@ -42,6 +42,14 @@ public class NullCounters extends AbstractComponent implements ICounters {
         };
     }
 
+	/**
+	 * Suppresses recording of elapsed time
+	 * @param name the name of interval counter.
+	 * @param nanos the elapsed time in nanoseconds.
+	 */
+	@Override
+    public void recordTiming(String name, long nanos) { }
+
 	/**
 	 * Suppresses calculation of statistics 
 	 * @param name the name of statistics counter.
@@ -50,6 +58,14 @@ public class NullCounters extends AbstractComponent implements ICounters {
 	@Override
     public void stats(String name, float value) { }
 	
+	/**
+	 * Suppresses calculation of histogram 
+	 * @param name the name of histogram counter.
+	 * @param value the value to add to the histogram.
+	 */
+	@Override
+    public void histogram(String name, float value) { }
+	
 	/**
 	 * Suppresses recording of the last value.
 	 * @param name the name of last value counter
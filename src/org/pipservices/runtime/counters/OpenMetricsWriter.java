@@ -0,0 +1,195 @@
+package org.pipservices.runtime.counters;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Writes counters in OpenMetrics text format into a reusable byte buffer.
+ * The buffer grows to the size of the largest output and is kept between
+ * calls, sanitized names are cached and numbers are written character by character,
+ * so rendering of many counters doesn't build intermediate strings.
+ * The writer is not thread-safe.
+ */
+class OpenMetricsWriter {
+	private byte[] _buffer = new byte[16 * 1024];
+	private int _size = 0;
+	// Sanitized metric names by counter names, kept between calls
+	private Map<String, String> _names = new HashMap<String, String>();
+	// Metric names written since the last reset
+	private Set<String> _written = new HashSet<String>();
+
+	public int getSize() { return _size; }
+
+	/**
+	 * Clears the buffer and keeps allocated memory.
+	 */
+	public void reset() {
+		_size = 0;
+		_written.clear();
+	}
+
+	/**
+	 * Writes counters followed by the EOF marker.
+	 * Every counter is written as a metric family with the sanitized counter name.
+	 * @param counters the counters to write.
+	 */
+	public void writeCounters(List<Counter> counters) {
+		// Forget names of counters that are gone
+		if (_names.size() > 2 * counters.size() + 1024)
+			_names.clear();
+
+		for (Counter counter : counters)
+			writeCounter(counter);
+		writeAscii("# EOF\n");
+	}
+
+	/**
+	 * Writes a counter as a metric family.
+	 * Increment counters are written as counters, last values and timestamps
+	 * as gauges, and counters with statistics as summaries with quantiles
+	 * when they are available.
+	 * @param counter the counter to write.
+	 */
+	public void writeCounter(Counter counter) {
+		String name = getMetricName(counter.getName());
+		int type = counter.getType();
+
+		if (type == CounterType.Increment) {
+			writeType(name, "counter");
+			writeSample(name, "_total", null, counter.getCount() != null ? counter.getCount() : 0);
+		} else if (type == CounterType.LastValue) {
+			if (counter.getLast() == null) return;
+			writeType(name, "gauge");
+			writeSample(name, null, null, counter.getLast());
+		} else if (type == CounterType.Timestamp) {
+			if (counter.getTime() == null) return;
+			writeType(name, "gauge");
+			writeSample(name, null, null, counter.getTime().toEpochSecond());
+		} else {
+			writeType(name, "summary");
+			if (counter.getP50() != null) {
+				writeSample(name, null, "0.5", counter.getP50());
+				writeSample(name, null, "0.9", counter.getP90());
+				writeSample(name, null, "0.99", counter.getP99());
+				writeSample(name, null, "0.999", counter.getP999());
+			}
+			int count = counter.getCount() != null ? counter.getCount() : 0;
+			double sum = counter.getAvg() != null ? (double)counter.getAvg() * count : 0;
+			writeSample(name, "_sum", null, sum);
+			writeSample(name, "_count", null, count);
+		}
+	}
+
+	/**
+	 * Copies written bytes into a stream.
+	 * @param stream the stream to write to.
+	 * @throws IOException when writing fails.
+	 */
+	public void writeTo(OutputStream stream) throws IOException {
+		stream.write(_buffer, 0, _size);
+	}
+
+	private void writeType(String name, String type) {
+		writeAscii("# TYPE ");
+		writeName(name);
+		write(' ');
+		writeAscii(type);
+		write('\n');
+	}
+
+	private void writeSample(String name, String suffix, String quantile, double value) {
+		writeName(name);
+		if (suffix != null)
+			writeAscii(suffix);
+		if (quantile != null) {
+			writeAscii("{quantile=\"");
+			writeAscii(quantile);
+			writeAscii("\"}");
+		}
+		write(' ');
+		writeNumber(value);
+		write('\n');
+	}
+
+	/**
+	 * Gets a unique metric name for a counter. Characters that are not allowed
+	 * by the format, such as dots in counter names, are replaced with underscores.
+	 * Counters whose names become equal, like 'a.b' and 'a_b', would produce
+	 * duplicate metric families that break the scrape, so the following ones
+	 * get numeric suffixes '_2', '_3' and so on in order of writing.
+	 * @param counterName the name of the counter.
+	 * @return the metric name.
+	 */
+	private String getMetricName(String counterName) {
+		String sanitized = _names.get(counterName);
+		if (sanitized == null) {
+			sanitized = sanitize(counterName);
+			_names.put(counterName, sanitized);
+		}
+
+		String name = sanitized;
+		for (int suffix = 2; !_written.add(name); suffix++)
+			name = sanitized + "_" + suffix;
+		return name;
+	}
+
+	private static String sanitize(String name) {
+		char[] chars = new char[name.length()];
+		for (int index = 0; index < chars.length; index++) {
+			char ch = name.charAt(index);
+			boolean allowed = (ch >= 'a' && ch <= 'z') || (ch >= 'A' && ch <= 'Z')
+				|| ch == '_' || ch == ':' || (index > 0 && ch >= '0' && ch <= '9');
+			chars[index] = allowed ? ch : '_';
+		}
+		return new String(chars);
+	}
+
+	private void writeName(String name) {
+		writeAscii(name);
+	}
+
+	private void writeNumber(double value) {
+		if (Double.isNaN(value)) writeAscii("NaN");
+		else if (value == Double.POSITIVE_INFINITY) writeAscii("+Inf");
+		else if (value == Double.NEGATIVE_INFINITY) writeAscii("-Inf");
+		else if (value == (long)value) writeNumber((long)value);
+		// Values that came from float counters are written without widening noise
+		else if ((float)value == value) writeAscii(Float.toString((float)value));
+		else writeAscii(Double.toString(value));
+	}
+
+	private void writeNumber(long value) {
+		if (value == Long.MIN_VALUE) {
+			writeAscii(Long.toString(value));
+			return;
+		}
+		if (value < 0) {
+			write('-');
+			value = -value;
+		}
+
+		// Digits are written in reverse order and then flipped in place
+		int start = _size;
+		do {
+			write((char)('0' + value % 10));
+			value /= 10;
+		} while (value > 0);
+
+		for (int left = start, right = _size - 1; left < right; left++, right--) {
+			byte digit = _buffer[left];
+			_buffer[left] = _buffer[right];
+			_buffer[right] = digit;
+		}
+	}
+
+	private void writeAscii(String value) {
+		for (int index = 0; index < value.length(); index++)
+			write(value.charAt(index));
+	}
+
+	private void write(char ch) {
+		if (_size == _buffer.length)
+			_buffer = Arrays.copyOf(_buffer, _buffer.length * 2);
+		_buffer[_size++] = (byte)ch;
+	}
+}
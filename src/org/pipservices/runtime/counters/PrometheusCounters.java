@@ -0,0 +1,205 @@
+package org.pipservices.runtime.counters;
+
+import java.io.*;
+import java.net.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import com.sun.net.httpserver.*;
+
+import org.pipservices.runtime.*;
+import org.pipservices.runtime.config.*;
+import org.pipservices.runtime.errors.*;
+import org.pipservices.runtime.portability.*;
+
+/**
+ * Performance counters component that exposes current counter values
+ * on HTTP endpoint in OpenMetrics text format to be scraped by Prometheus.
+ * Increment counters are exposed as counters, last values and timestamps
+ * as gauges, and interval, statistics and histogram counters as summaries
+ * with 0.5, 0.9, 0.99 and 0.999 quantiles. Dots and other characters
+ * not allowed in metric names are replaced with underscores.
+ *
+ * Values are read when they are scraped, so counters shall accumulate
+ * between scrapes and 'options.reset_on_dump' is rejected.
+ * Scrapes are rendered one at a time into a reusable buffer.
+ */
+public class PrometheusCounters extends AbstractCounters {
+	/**
+	 * Unique descriptor for the PrometheusCounters component
+	 */
+	public final static ComponentDescriptor Descriptor = new ComponentDescriptor(
+		Category.Counters, "pip-services-runtime-counters", "prometheus", "*"
+	);
+
+	/**
+	 * Default configuration for the Prometheus counters
+	 */
+	private final static DynamicMap DefaultConfig = DynamicMap.fromTuples(
+		"endpoint.protocol", "http",
+		"endpoint.host", "0.0.0.0",
+		"options.path", "/metrics"
+	);
+
+	private final static String ContentType = "application/openmetrics-text; version=1.0.0; charset=utf-8";
+	private final static Charset Utf8 = Charset.forName("UTF-8");
+
+	@SuppressWarnings("restriction")
+	private HttpServer _server;
+	private OpenMetricsWriter _writer = new OpenMetricsWriter();
+
+	/**
+	 * Creates instance of Prometheus counters component.
+	 */
+	public PrometheusCounters() {
+        super(Descriptor);
+    }
+
+	/**
+	 * Sets component configuration parameters and switches from component
+	 * to 'Configured' state. The configuration is only allowed once
+	 * right after creation. Attempts to perform reconfiguration will
+	 * cause an exception.
+	 * @param config the component configuration parameters.
+	 * @throws MicroserviceError when component is in illegal state
+	 * or configuration validation fails.
+	 */
+	@Override
+	public void configure(ComponentConfig config) throws MicroserviceError {
+		checkNewStateAllowed(State.Configured);
+
+		config = config.withDefaults(DefaultConfig);
+
+		Endpoint endpoint = config.getEndpoint();
+        String protocol = endpoint.getProtocol();
+        if (!"http".equals(protocol))
+            throw new ConfigError(this, "NotSupported", "Protocol type is not supported by Prometheus counters")
+            	.withDetails(protocol);
+        if (endpoint.getPort() == 0)
+            throw new ConfigError(this, "NoPort", "No port is configured for Prometheus counters");
+        // Prometheus counters shall never go down between scrapes
+        if (config.getOptions().getBoolean("reset_on_dump"))
+            throw new ConfigError(this, "ResetNotSupported", "Prometheus counters cannot be reset on dump");
+
+        super.configure(config);
+	}
+
+	/**
+	 * Opens the component and starts HTTP server that serves
+	 * counters on configured path.
+	 * @throws MicroserviceError when the server fails to start.
+	 */
+	@SuppressWarnings("restriction")
+	@Override
+    public void open() throws MicroserviceError {
+		checkNewStateAllowed(State.Opened);
+
+		Endpoint endpoint = _config.getEndpoint();
+		String path = _config.getOptions().getString("path");
+
+		try {
+			_server = HttpServer.create(new InetSocketAddress(endpoint.getHost(), endpoint.getPort()), 0);
+			_server.createContext(path, (exchange) -> scrape(exchange));
+			_server.start();
+		} catch (Exception ex) {
+			_server = null;
+			throw new ConnectionError(this, "ConnectFailed", "Opening Prometheus counters endpoint failed")
+				.withCause(ex);
+		}
+
+		super.open();
+	}
+
+	/**
+	 * Stops HTTP server and closes the component.
+	 * @throws MicroserviceError with closure fails.
+	 */
+	@SuppressWarnings("restriction")
+	@Override
+    public void close() throws MicroserviceError {
+		checkNewStateAllowed(State.Closed);
+
+        if (_server != null) {
+            // Eat exceptions
+            try {
+                _server.stop(0);
+            } catch (Exception ex) {
+                warn(null, "Failed while closing Prometheus counters endpoint", ex);
+            }
+
+            _server = null;
+        }
+
+        super.close();
+    }
+
+	/**
+	 * Renders all counters in OpenMetrics text format into a reusable buffer.
+	 * Counters are sorted by name. The caller shall synchronize on the writer.
+	 * @return the writer with rendered counters.
+	 */
+    private OpenMetricsWriter render() {
+        List<Counter> counters = getAll();
+        Collections.sort(
+    		counters,
+    		(c1, c2) -> c1.getName().compareTo(c2.getName())
+		);
+
+        _writer.reset();
+        _writer.writeCounters(counters);
+        return _writer;
+    }
+
+	/**
+	 * Renders counters in OpenMetrics text format.
+	 * @return a text with all counters.
+	 */
+    public String renderMetrics() {
+        synchronized (_writer) {
+            ByteArrayOutputStream stream = new ByteArrayOutputStream(_writer.getSize());
+            try {
+                render().writeTo(stream);
+            } catch (IOException ex) {
+                // Writing to memory doesn't fail
+            }
+            return new String(stream.toByteArray(), Utf8);
+        }
+    }
+
+	/**
+	 * Handles scrape requests to the metrics endpoint.
+	 * @param exchange the HTTP request and response.
+	 * @throws IOException when the response cannot be sent.
+	 */
+	@SuppressWarnings("restriction")
+    private void scrape(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            exchange.getResponseHeaders().set("Content-Type", ContentType);
+            synchronized (_writer) {
+                OpenMetricsWriter writer = render();
+                exchange.sendResponseHeaders(200, writer.getSize());
+                try (OutputStream stream = exchange.getResponseBody()) {
+                    writer.writeTo(stream);
+                }
+            }
+        } catch (Exception ex) {
+            error(null, "Failed to render counters", ex);
+            throw ex;
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Counters are read by scrapes, so dumps only start new windows to calculate rates.
+     * @param counters a list of counters, not used.
+     */
+    @Override
+    protected void save(List<Counter> counters) {
+    }
+}
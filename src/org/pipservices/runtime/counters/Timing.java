@@ -6,14 +6,16 @@ import org.pipservices.runtime.*;
  * Implementation of ITiming interface that
  * provides callback to end measuring execution
  * time interface and update interval counter.
+ * Time is measured by monotonic System.nanoTime() clock,
+ * so it is not affected by changes of system time.
  * 
  * @author Sergey Seroukhov
- * @version 1.1
+ * @version 1.2
  * @since 2016-06-09
  */
 public class Timing implements ITiming {
 	private long _start;
-	private AbstractCounters _counters;
+	private ICounters _counters;
 	private String _name;
 	
 	/**
@@ -27,19 +29,17 @@ public class Timing implements ITiming {
 	 * @param counters a performance counters component to store calculated value.
 	 * @param name a name of the counter to record elapsed time interval.
 	 */
-	public Timing(AbstractCounters counters, String name) {
+	public Timing(ICounters counters, String name) {
 		_counters = counters;
 		_name = name;
-		_start = System.currentTimeMillis();
+		_start = System.nanoTime();
 	}
 	
 	/**
 	 * Completes measuring time interval and updates counter.
 	 */
 	public void endTiming() {
-		if (_counters != null) {
-			float elapsed = System.currentTimeMillis() - _start;
-			_counters.setTiming(_name, elapsed);
-		}
+		if (_counters != null)
+			_counters.recordTiming(_name, System.nanoTime() - _start);
 	}
 }
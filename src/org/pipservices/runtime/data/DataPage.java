@@ -6,6 +6,7 @@ import com.fasterxml.jackson.annotation.*;
 public class DataPage<T> {
 	private Integer _total;
 	private List<T> _data;
+	private String _next;
 	
 	public DataPage() {}
 	
@@ -13,6 +14,11 @@ public class DataPage<T> {
 		_total = total;
 		_data = data;
 	}
+
+	public DataPage(Integer total, List<T> data, String next) {
+		this(total, data);
+		_next = next;
+	}
 	
     @JsonProperty("total")
 	public Integer getTotal() { return _total; }
@@ -21,4 +27,12 @@ public class DataPage<T> {
     @JsonProperty("data")
 	public List<T> getData() { return _data; }
 	public void setData(List<T> value) { _data = value; }
+
+	/**
+	 * Gets cursor to retrieve the next page with PagingParams 'after'.
+	 * @return the cursor token or <b>null</b> if there are no more pages.
+	 */
+    @JsonProperty("next")
+	public String getNext() { return _next; }
+	public void setNext(String value) { _next = value; }
 }
@@ -2,10 +2,19 @@ package org.pipservices.runtime.data;
 
 import org.pipservices.runtime.portability.*;
 
+/**
+ * Paging parameters for retrieving data pages.
+ * Pages can be addressed either by offset with skip and take,
+ * or by cursor: 'after' is an opaque token returned in 'next' field
+ * of the previous DataPage, and an empty token starts from the first page.
+ * Cursor paging doesn't depend on the page depth, so it is preferable
+ * for walking through large collections.
+ */
 public class PagingParams {
 	private Integer _skip;
 	private Integer _take;
 	private boolean _total;
+	private String _after;
 	
     public PagingParams() { }
 
@@ -15,6 +24,11 @@ public class PagingParams {
         _total = Converter.toBooleanWithDefault(total, false);
     }
 
+    public PagingParams(Object skip, Object take, Object total, String after) {
+    	this(skip, take, total);
+    	_after = after;
+    }
+
     public Integer getSkip() { 
     	return _skip; 
 	}
@@ -40,6 +54,14 @@ public class PagingParams {
     	return _total; 
 	}
 
+    /**
+     * Gets cursor to start the page after.
+     * @return the cursor token or <b>null</b> when paging by offset.
+     */
+    public String getAfter() {
+    	return _after;
+    }
+
 	public static PagingParams fromValue(Object value) {
 		if (value instanceof PagingParams)
 			return (PagingParams)value;
@@ -59,6 +81,7 @@ public class PagingParams {
         Integer skip = map.getNullableInteger("skip");
         Integer take = map.getNullableInteger("take");
         boolean total = map.getBooleanWithDefault("total", true);
-		return new PagingParams(skip, take, total);
+        String after = map.getNullableString("after");
+		return new PagingParams(skip, take, total, after);
 	}
 }
@@ -1,7 +1,12 @@
 package org.pipservices.runtime.persistence;
 
 import java.io.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
 import java.util.function.*;
 import java.util.stream.*;
 
@@ -9,14 +14,57 @@ import org.pipservices.runtime.*;
 import org.pipservices.runtime.config.*;
 import org.pipservices.runtime.data.*;
 import org.pipservices.runtime.errors.*;
+import org.pipservices.runtime.errors.UnknownError;
 import org.pipservices.runtime.portability.*;
 
+import com.fasterxml.jackson.core.*;
 import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.node.*;
+import com.fasterxml.jackson.dataformat.cbor.*;
+import com.fasterxml.jackson.dataformat.smile.*;
 
+/**
+ * Persistence that keeps all items in memory and stores them in a JSON file.
+ * When 'options.journal' is set, changes are appended to a write-ahead log
+ * that is compacted into the data file in background.
+ * 'options.flush' sets whether changes are written immediately, by interval or in batches.
+ * The data file is streamed item by item and replaced atomically on save.
+ * 'options.format' sets the data file format: json, smile or cbor.
+ * Indexes declared with addIndex() and addSortedIndex() select items for filters.
+ * Pages can also be retrieved by opaque cursors set in PagingParams 'after'.
+ * Sorted cursor pages are cheap only in orders declared with addSortOrder().
+ * Queries over 'options.parallel_threshold' items or more run in parallel.
+ * Queries run over copy-on-write snapshots of items without locking.
+ */
 public abstract class FilePersistence<T extends IIdentifiable> extends AbstractPersistence {
 	private final static DynamicMap DefaultConfig = DynamicMap.fromTuples(
-		"options.max_page_size", 100
+		"options.max_page_size", 100,
+		"options.journal", false, // append changes to write-ahead log
+		"options.compact_interval", 60000, // journal compaction interval in milliseconds
+		"options.flush", "immediate", // flush mode: immediate, interval or batch
+		"options.flush_interval", 100, // background flush interval in milliseconds
+		"options.flush_batch", 100, // number of changes that trigger flush in batch mode
+		"options.format", "json", // data file format: json, smile or cbor
+		"options.parallel_threshold", 0 // minimum number of items to query in parallel, 0 to disable
 	); 
+	private final static Charset Utf8 = Charset.forName("UTF-8");
+	private final static int BufferSize = 64 * 1024;
+	private final static int MaxAnchors = 1024;
+
+	/**
+	 * Snapshot of items sorted by a comparator.
+	 */
+	private static class SortedView<T> {
+		public final List<T> items;
+		public final Comparator<T> sort;
+		public final List<T> sorted;
+
+		public SortedView(List<T> items, Comparator<T> sort, List<T> sorted) {
+			this.items = items;
+			this.sort = sort;
+			this.sorted = sorted;
+		}
+	}
 
 	private Random _random = new Random();
 	private Class<?> _itemType;
@@ -27,7 +75,49 @@ public abstract class FilePersistence<T extends IIdentifiable> extends AbstractP
     protected File _file;
     protected Collection<T> _initialData;
     protected int _maxPageSize;
-    protected List<T> _items;
+    protected int _parallelThreshold;
+    protected volatile List<T> _items;
+    // Positions of items in _items by their ids
+    protected Map<String, Integer> _index = new ConcurrentHashMap<String, Integer>();
+    // Sorted ids of all items for cursor paging
+    protected NavigableSet<String> _ids = new ConcurrentSkipListSet<String>();
+    // Secondary indexes on item fields
+    private List<ItemIndex<T>> _indexes = new ArrayList<ItemIndex<T>>();
+    // Guards positions and indexes, it is held only while they change and never during file IO
+    private final ReadWriteLock _lock = new ReentrantReadWriteLock();
+    // Items at positions of recently issued sorted cursors, kept in case they change or get deleted
+    private final Map<String, T> _anchors = Collections.synchronizedMap(new LinkedHashMap<String, T>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, T> eldest) {
+			return size() > MaxAnchors;
+		}
+    });
+    // Items sorted for cursor paging, reused while items and the sort don't change
+    private volatile SortedView<T> _sortedView;
+    // Items in sort orders declared by subclasses, kept up to date on every change
+    private volatile Map<Comparator<T>, NavigableSet<T>> _orders = Collections.emptyMap();
+
+    protected boolean _journal;
+    protected long _compactInterval;
+    protected File _journalFile;
+    private Writer _journalWriter;
+    private Timer _timer;
+
+    protected String _flush;
+    protected long _flushInterval;
+    protected int _flushBatch;
+    private int _dirty;
+    private boolean _flushScheduled;
+    private CompletableFuture<Void> _flushed = new CompletableFuture<Void>();
+
+    private JsonFactory[] _factories = new JsonFactory[] {
+		new JsonFactory(), new SmileFactory(), new CBORFactory()
+    };
+    protected JsonFactory _factory;
+    // Format of the loaded data file or null if nothing was loaded
+    protected String _fileFormat;
 
     // Pass the item type since Jackson cannot recognize type from generics
     // This is related to Java type erasure issue
@@ -58,12 +148,34 @@ public abstract class FilePersistence<T extends IIdentifiable> extends AbstractP
     	
         if (options == null || options.hasNot("path"))
             throw new ConfigError(this, "NoPath", "Data file path is not set");
+
+        String format = options.getString("format");
+        JsonFactory factory = null;
+        for (JsonFactory candidate : _factories) {
+        	if (candidate.getFormatName().equalsIgnoreCase(format))
+        		factory = candidate;
+        }
+        if (factory == null)
+        	throw new ConfigError(this, "UnsupportedFormat", "Data format " + format + " is not supported")
+        		.withDetails(format);
+
+        String flush = options.getString("flush").toLowerCase();
+        if (!"immediate".equals(flush) && !"interval".equals(flush) && !"batch".equals(flush))
+        	throw new ConfigError(this, "UnsupportedFlush", "Flush mode " + flush + " is not supported")
+        		.withDetails(flush);
         
         super.configure(config);
 
         _path = options.getString("path");
         _maxPageSize = options.getInteger("max_page_size");
+        _parallelThreshold = options.getInteger("parallel_threshold");
         _initialData = (Collection<T>)options.get("data");
+        _journal = options.getBoolean("journal");
+        _compactInterval = options.getLong("compact_interval");
+        _flush = flush;
+        _flushInterval = options.getLong("flush_interval");
+        _flushBatch = Math.max(1, options.getInteger("flush_batch"));
+        _factory = factory;
     }
     
 	/**
@@ -78,11 +190,38 @@ public abstract class FilePersistence<T extends IIdentifiable> extends AbstractP
     	checkNewStateAllowed(State.Opened);
     	
         _file = new File(_path);
+        _journalFile = _journal ? new File(_path + ".wal") : null;
 
         // Fill with predefined data (for testing)
-        if (_initialData != null)
+        if (_initialData != null) {
             _items = new ArrayList<T>(_initialData);
-        else load();
+            reindex();
+        } else load();
+
+        // Convert data file into configured format
+        // or fold replayed changes into the data file
+        boolean migrate = _fileFormat != null && !_fileFormat.equals(_factory.getFormatName());
+        if (migrate)
+        	info(null, "Converting data file at " + _path + " from " + _fileFormat + " to " + _factory.getFormatName());
+        if (migrate || _journal)
+        	save();
+
+        _timer = new Timer(true);
+        if (_journal && _compactInterval > 0) {
+        	_timer.schedule(new TimerTask() {
+        		@Override
+        		public void run() {
+        			try {
+        				compact();
+        			} catch (Exception ex) {
+        				error(null, "Failed to compact journal", ex);
+        			}
+        		}
+        	}, _compactInterval, _compactInterval);
+        }
+        if (!"immediate".equals(_flush) && _flushInterval > 0) {
+        	_timer.schedule(createFlushTask(), _flushInterval, _flushInterval);
+        }
 
         super.open();
     }
@@ -97,7 +236,14 @@ public abstract class FilePersistence<T extends IIdentifiable> extends AbstractP
     public void close() throws MicroserviceError {
     	checkNewStateAllowed(State.Closed);
 
+    	if (_timer != null) {
+    		_timer.cancel();
+    		_timer = null;
+    	}
+
+    	flush();
     	save();
+    	closeJournal();
         
     	super.close();
     }
@@ -105,65 +251,883 @@ public abstract class FilePersistence<T extends IIdentifiable> extends AbstractP
     public void load() throws MicroserviceError {
         trace(null, "Loading data from file at " + _path);
 
+        _fileFormat = null;
+
         // If doesn't exist then consider empty data
         if (!_file.exists()) {
             _items = new ArrayList<T>();
+            reindex();
+            replayJournal();
             return;
         }
 
         try {
-            _items = _mapper.readValue(_file, _typeRef);
+            _items = readItems(_file.toPath());
+        } catch (MicroserviceError ex) {
+        	throw ex;
         } catch (Exception ex) {
         	throw new FileError(this, "ReadFailed", "Failed to read data file: " + ex)
         		.withCause(ex);
         }
+        reindex();
+        replayJournal();
+    }
+
+    /**
+     * Reads items one by one from an array in the file,
+     * so no intermediate copy of the whole file is created in memory.
+     * The file format is detected by its content.
+     * @param path a path to the data file.
+     * @return a list with read items.
+     * @throws Exception when reading or parsing fails.
+     */
+    @SuppressWarnings("unchecked")
+    private List<T> readItems(Path path) throws Exception {
+    	List<T> items = new ArrayList<T>();
+    	ObjectReader reader = _mapper.readerFor(_itemType);
+
+    	// Empty file is treated as empty data
+    	if (Files.size(path) == 0) return items;
+
+    	try (InputStream input = new BufferedInputStream(
+			Channels.newInputStream(FileChannel.open(path, StandardOpenOption.READ)), BufferSize)) {
+
+    		JsonFactory factory = detectFormat(input);
+    		try (JsonParser parser = factory.createParser(input)) {
+    			JsonToken token = parser.nextToken();
+    			if (token == null) return items;
+    			if (token != JsonToken.START_ARRAY)
+    				throw new FileError(this, "WrongFormat", "Data file must contain an array of items");
+
+    			while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+    				if (token == null)
+    					throw new FileError(this, "WrongFormat", "Data file is truncated");
+    				items.add((T)reader.readValue(parser));
+    			}
+    		}
+
+    		_fileFormat = factory.getFormatName();
+    	}
+    	return items;
+    }
+
+    /**
+     * Detects data format by the first bytes of the file.
+     * Smile content starts with ':)\n' header, CBOR content starts
+     * with an array or self-describe tag, everything else is treated as JSON.
+     * @param input a buffered input stream positioned at the file start.
+     * @return the factory to parse detected format.
+     * @throws IOException when reading fails.
+     */
+    private JsonFactory detectFormat(InputStream input) throws IOException {
+    	byte[] header = new byte[3];
+    	input.mark(header.length);
+    	int length = input.read(header);
+    	input.reset();
+
+    	if (length == 3 && header[0] == ':' && header[1] == ')' && header[2] == '\n')
+    		return _factories[1];
+
+    	int first = header[0] & 0xFF;
+    	if (length > 0 && ((first & 0xE0) == 0x80 || first == 0xD9))
+    		return _factories[2];
+
+    	return _factories[0];
+    }
+
+    /**
+     * Writes items one by one as an array into the file
+     * in the configured format and forces the content to disk.
+     * @param path a path to the data file.
+     * @param items items to write.
+     * @throws Exception when writing fails.
+     */
+    private void writeItems(Path path, List<T> items) throws Exception {
+    	ObjectWriter writer = _mapper.writerFor(_itemType)
+			.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    	try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+			StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    		JsonGenerator generator = _factory.createGenerator(
+				new BufferedOutputStream(Channels.newOutputStream(channel), BufferSize))) {
+
+    		generator.writeStartArray();
+    		for (T item : items)
+    			writer.writeValue(generator, item);
+    		generator.writeEndArray();
+
+    		generator.flush();
+    		channel.force(false);
+    	}
+    }
+
+    /**
+     * Rebuilds index of item positions by their ids.
+     * It must be called after _items are changed directly.
+     * Items are moved into a copy-on-write list if they are not there yet.
+     */
+    protected void reindex() {
+    	_lock.writeLock().lock();
+    	try {
+    		compactItems();
+    		_ids = new ConcurrentSkipListSet<String>(_index.keySet());
+
+    		for (ItemIndex<T> index : _indexes) {
+    			index.clear();
+    			for (T item : _items)
+    				index.add(item);
+    		}
+
+    		Map<Comparator<T>, NavigableSet<T>> orders = new IdentityHashMap<Comparator<T>, NavigableSet<T>>();
+    		for (Comparator<T> sort : _orders.keySet())
+    			orders.put(sort, createOrder(sort, _items));
+    		_orders = orders;
+    	} finally {
+    		_lock.writeLock().unlock();
+    	}
+    }
+
+    /**
+     * Copies items into a new copy-on-write list without empty slots
+     * left by deleted items and rebuilds positions of items by their ids.
+     * It shall be called under the write lock.
+     */
+    private void compactItems() {
+    	_items = new VersionedList<T>(_items);
+
+    	Map<String, Integer> positions = new ConcurrentHashMap<String, Integer>(Math.max(16, _items.size() * 4 / 3 + 1));
+    	for (int index = 0; index < _items.size(); index++)
+    		positions.put(_items.get(index).getId(), index);
+    	_index = positions;
+    }
+
+    /**
+     * Gets items as a copy-on-write list. Items are moved into it by reindex()
+     * before any change.
+     * @return the list with items.
+     */
+    @SuppressWarnings("unchecked")
+    private VersionedList<T> getVersionedItems() {
+    	return (VersionedList<T>)_items;
+    }
+
+    /**
+     * Declares hash index for equality conditions on an item field.
+     * Values are compared as strings, so filter values received as strings
+     * match fields of any type. Indexes are usually declared in constructor.
+     * @param field the name of the filter parameter served by the index.
+     * @param key a function that extracts the field value from an item.
+     */
+    protected synchronized void addIndex(String field, Function<T, ?> key) {
+    	addIndex(ItemIndex.hash(field, key));
+    }
+
+    /**
+     * Declares sorted index for equality and range conditions on an item field.
+     * Indexes are usually declared in constructor.
+     * @param field the name of the filter parameter served by the index.
+     * @param key a function that extracts the field value from an item.
+     * @param parse a function that converts filter values into field values,
+     * for instance Converter::toNullableLong.
+     */
+    protected synchronized <K extends Comparable<? super K>> void addSortedIndex(
+		String field, Function<T, K> key, Function<Object, K> parse) {
+    	addIndex(ItemIndex.sorted(field, key, parse));
+    }
+
+    private void addIndex(ItemIndex<T> index) {
+    	_lock.writeLock().lock();
+    	try {
+    		_indexes.add(index);
+    		if (_items != null) {
+    			for (T item : _items)
+    				index.add(item);
+    		}
+    	} finally {
+    		_lock.writeLock().unlock();
+    	}
+    }
+
+    /**
+     * Declares sort order for cursor paging. Items in the order are kept up to date
+     * on every change, so sorted cursor pages requested with the same comparator
+     * instance cost O(log n + take) regardless of their depth and concurrent writes.
+     * Orders are usually declared in constructor with comparators kept in constants.
+     * @param sort a comparator to sort items.
+     */
+    protected synchronized void addSortOrder(Comparator<T> sort) {
+    	_lock.writeLock().lock();
+    	try {
+    		Map<Comparator<T>, NavigableSet<T>> orders = new IdentityHashMap<Comparator<T>, NavigableSet<T>>(_orders);
+    		orders.put(sort, createOrder(sort, _items));
+    		_orders = orders;
+    	} finally {
+    		_lock.writeLock().unlock();
+    	}
+    }
+
+    private NavigableSet<T> createOrder(Comparator<T> sort, List<T> items) {
+    	NavigableSet<T> order = new ConcurrentSkipListSet<T>(totalOrder(sort));
+    	if (items != null)
+    		order.addAll(items);
+    	return order;
+    }
+
+    /**
+     * Makes the order total with ids, so the cursor position is always unambiguous.
+     * @param sort a comparator to sort items.
+     * @return a comparator that orders items with equal sort values by ids.
+     */
+    private static <T extends IIdentifiable> Comparator<T> totalOrder(Comparator<T> sort) {
+    	return sort.thenComparing((T v) -> v.getId());
+    }
+
+    private void indexItem(T item) {
+    	for (ItemIndex<T> index : _indexes)
+    		index.add(item);
+    	for (NavigableSet<T> order : _orders.values())
+    		order.add(item);
+    }
+
+    private void unindexItem(T item) {
+    	for (ItemIndex<T> index : _indexes)
+    		index.remove(item);
+    	for (NavigableSet<T> order : _orders.values())
+    		order.remove(item);
+    }
+
+    /**
+     * Selects items that match the filter.
+     * The planner looks up candidates in every index that can serve a condition
+     * in the filter parameters and takes the smallest set. Without such conditions
+     * all items are scanned. Candidates keep the same order as in a full scan.
+     * When the number of candidates reaches the parallel threshold the returned
+     * stream is parallel.
+     * @param filter the filter parameters or <b>null</b>.
+     * @param predicate a predicate that checks all filter conditions, including those
+     * served by indexes, or <b>null</b> to check only the indexed conditions.
+     * @return a stream of matching items.
+     */
+    protected Stream<T> select(FilterParams filter, Predicate<T> predicate) {
+    	Stream<T> items = null;
+
+    	if (filter != null && !_indexes.isEmpty()) {
+    		// Writers hold the lock only while they change memory, so reads don't wait for saves
+    		_lock.readLock().lock();
+    		try {
+    			Collection<String> candidates = findCandidates(filter);
+    			if (candidates != null) {
+    				int[] positions = new int[candidates.size()];
+    				int count = 0;
+    				for (String id : candidates) {
+    					Integer position = _index.get(id);
+    					if (position != null) positions[count++] = position;
+    				}
+    				Arrays.sort(positions, 0, count);
+
+    				List<T> selected = new ArrayList<T>(count);
+    				for (int index = 0; index < count; index++)
+    					selected.add(VersionedList.getSlot(_items, positions[index]));
+    				items = isParallel(count) ? selected.parallelStream() : selected.stream();
+    			}
+    		} finally {
+    			_lock.readLock().unlock();
+    		}
+    	}
+
+    	if (items == null) {
+    		List<T> snapshot = snapshot();
+    		items = isParallel(snapshot.size()) ? snapshot.parallelStream() : snapshot.stream();
+    	}
+    	if (predicate != null)
+    		items = items.filter(predicate);
+    	return items;
+    }
+
+    /**
+     * Gets immutable snapshot of all items.
+     * @return a list with current items that is not affected by following changes.
+     */
+    @SuppressWarnings("unchecked")
+    protected List<T> snapshot() {
+    	List<T> items = _items;
+    	return items instanceof VersionedList ? ((VersionedList<T>)items).snapshot() : items;
+    }
+
+    /**
+     * Finds item by id in the snapshot without locking.
+     * When a concurrent change moved the item, the lookup is repeated under the read lock.
+     * @param items a snapshot of items.
+     * @param id the id of the item.
+     * @return a found item or <b>null</b> if it doesn't exist.
+     */
+    private T findItem(List<T> items, String id) {
+    	Integer index = _index.get(id);
+    	if (index == null) return null;
+
+    	T item = VersionedList.getSlot(items, index);
+    	if (item != null && id.equals(item.getId())) return item;
+
+    	_lock.readLock().lock();
+    	try {
+    		index = _index.get(id);
+    		return index != null ? VersionedList.getSlot(_items, index) : null;
+    	} finally {
+    		_lock.readLock().unlock();
+    	}
+    }
+
+    private boolean isParallel(int size) {
+    	return _parallelThreshold > 0 && size >= _parallelThreshold;
+    }
+
+    /**
+     * Finds ids of candidate items in the most selective index
+     * that can serve conditions in the filter. It shall be called under the read lock.
+     * @param filter the filter parameters or <b>null</b>.
+     * @return a collection of item ids or <b>null</b> if no index can be used.
+     */
+    private Collection<String> findCandidates(FilterParams filter) {
+    	if (filter == null) return null;
+
+    	Collection<String> candidates = null;
+    	for (ItemIndex<T> index : _indexes) {
+    		Collection<String> ids = index.find(filter);
+    		if (ids != null && (candidates == null || ids.size() < candidates.size()))
+    			candidates = ids;
+    	}
+    	return candidates;
     }
 
-    public void save() throws MicroserviceError {
+    public synchronized void save() throws MicroserviceError {
         trace(null, "Saving data to file at " + _path);
 
+        File tempFile = new File(_path + ".tmp");
         try {
-            _mapper.writeValue(_file, _items);
+            writeItems(tempFile.toPath(), snapshot());
+            try {
+            	Files.move(tempFile.toPath(), _file.toPath(),
+        			StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException ex) {
+            	Files.move(tempFile.toPath(), _file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
         } catch (Exception ex) {
         	throw new FileError(this, "WriteFailed", "Failed to write data file: " + ex)
         		.withCause(ex);
         }
+
+        // All journaled changes are in the data file now
+        if (_journalFile != null)
+        	resetJournal();
+    }
+
+    private TimerTask createFlushTask() {
+    	return new TimerTask() {
+    		@Override
+    		public void run() {
+    			try {
+    				flush();
+    			} catch (Exception ex) {
+    				error(null, "Failed to flush changes", ex);
+    			}
+    		}
+    	};
+    }
+
+    /**
+     * Writes all pending changes collected in interval or batch flush modes
+     * and completes the future returned by flushAsync().
+     * It is called in background and on close.
+     * @throws MicroserviceError when writing fails.
+     */
+    public void flush() throws MicroserviceError {
+    	CompletableFuture<Void> flushed;
+    	synchronized (this) {
+    		_flushScheduled = false;
+    		if (_dirty == 0) return;
+
+    		int dirty = _dirty;
+    		_dirty = 0;
+    		flushed = _flushed;
+    		_flushed = new CompletableFuture<Void>();
+
+    		try {
+    			if (_journalFile != null) flushJournal();
+    			else save();
+    		} catch (MicroserviceError ex) {
+    			_dirty += dirty;
+    			flushed.completeExceptionally(ex);
+    			throw ex;
+    		}
+    	}
+    	flushed.complete(null);
+    }
+
+    /**
+     * Gets a future that completes when all changes made so far are written.
+     * In immediate flush mode changes are written synchronously,
+     * so the returned future is already completed.
+     * @return a future to wait for durability of changes.
+     */
+    public synchronized CompletableFuture<Void> flushAsync() {
+    	if (_dirty == 0)
+    		return CompletableFuture.completedFuture(null);
+    	return _flushed;
+    }
+
+    /**
+     * Registers changes that shall be written by the next flush.
+     * In batch mode it schedules flush when enough changes are collected.
+     * @param count the number of changes.
+     */
+    private synchronized void markDirty(int count) {
+    	_dirty += count;
+    	if ("batch".equals(_flush) && _dirty >= _flushBatch && !_flushScheduled && _timer != null) {
+    		_flushScheduled = true;
+    		_timer.schedule(createFlushTask(), 0);
+    	}
+    }
+
+    /**
+     * Writes all items into the data file and truncates the journal.
+     * In journaled mode it is called periodically in background and on close.
+     * @throws MicroserviceError when writing fails.
+     */
+    public void compact() throws MicroserviceError {
+    	save();
+    }
+
+    /**
+     * Saves changes of a single created or updated item.
+     * In journaled mode the item is appended to the journal,
+     * otherwise the entire data file is rewritten.
+     * @param item the changed item.
+     * @throws MicroserviceError when writing fails.
+     */
+    protected void saveItem(T item) throws MicroserviceError {
+    	saveItems(Collections.singletonList(item));
+    }
+
+    /**
+     * Saves changes of multiple created or updated items at once.
+     * In journaled mode all items are appended to the journal,
+     * otherwise the entire data file is rewritten only once.
+     * @param items the changed items.
+     * @throws MicroserviceError when writing fails.
+     */
+    protected void saveItems(Collection<T> items) throws MicroserviceError {
+    	if (items.isEmpty()) return;
+
+    	if (_journalFile != null) {
+    		for (T item : items) {
+    			ObjectNode record = _mapper.createObjectNode();
+    			record.put("op", "set");
+    			record.set("item", _mapper.valueToTree(item));
+    			appendJournal(record);
+    		}
+    	}
+    	saveChange(items.size());
+    }
+
+    /**
+     * Saves deletion of a single item.
+     * In journaled mode the deletion is appended to the journal,
+     * otherwise the entire data file is rewritten.
+     * @param id the id of deleted item.
+     * @throws MicroserviceError when writing fails.
+     */
+    protected void saveDeletion(String id) throws MicroserviceError {
+    	saveDeletions(Collections.singletonList(id));
+    }
+
+    /**
+     * Saves deletion of multiple items at once.
+     * In journaled mode all deletions are appended to the journal,
+     * otherwise the entire data file is rewritten only once.
+     * @param ids the ids of deleted items.
+     * @throws MicroserviceError when writing fails.
+     */
+    protected void saveDeletions(Collection<String> ids) throws MicroserviceError {
+    	if (ids.isEmpty()) return;
+
+    	if (_journalFile != null) {
+    		for (String id : ids) {
+    			ObjectNode record = _mapper.createObjectNode();
+    			record.put("op", "del");
+    			record.put("id", id);
+    			appendJournal(record);
+    		}
+    	}
+    	saveChange(ids.size());
+    }
+
+    /**
+     * Writes the changes or postpones them according to the flush mode.
+     * @param count the number of changes.
+     * @throws MicroserviceError when writing fails.
+     */
+    private void saveChange(int count) throws MicroserviceError {
+    	if (!"immediate".equals(_flush)) markDirty(count);
+    	else if (_journalFile != null) flushJournal();
+    	else save();
+    }
+
+    private synchronized void appendJournal(ObjectNode record) throws MicroserviceError {
+    	try {
+    		if (_journalWriter == null) {
+    			_journalWriter = new BufferedWriter(
+					new OutputStreamWriter(new FileOutputStream(_journalFile, true), Utf8)
+				);
+    		}
+
+    		_journalWriter.write(_mapper.writeValueAsString(record));
+    		_journalWriter.write('\n');
+    	} catch (IOException ex) {
+        	throw new FileError(this, "WriteFailed", "Failed to write journal: " + ex)
+        		.withCause(ex);
+    	}
+    }
+
+    private synchronized void flushJournal() throws MicroserviceError {
+    	if (_journalWriter == null) return;
+
+    	try {
+    		_journalWriter.flush();
+    	} catch (IOException ex) {
+        	throw new FileError(this, "WriteFailed", "Failed to write journal: " + ex)
+        		.withCause(ex);
+    	}
+    }
+
+    private synchronized void resetJournal() throws MicroserviceError {
+    	closeJournal();
+    	if (_journalFile.exists() && !_journalFile.delete())
+        	throw new FileError(this, "WriteFailed", "Failed to truncate journal " + _journalFile);
+    }
+
+    private synchronized void closeJournal() {
+    	if (_journalWriter == null) return;
+
+    	try {
+    		_journalWriter.close();
+    	} catch (IOException ex) {
+    		warn(null, "Failed to close journal", ex);
+    	}
+    	_journalWriter = null;
+    }
+
+    /**
+     * Applies changes recorded in the journal to loaded items.
+     * An incomplete record at the end of the journal, left by a crash, is skipped.
+     * @throws MicroserviceError when reading fails.
+     */
+    private void replayJournal() throws MicroserviceError {
+    	if (_journalFile == null || !_journalFile.exists()) return;
+
+        trace(null, "Replaying journal at " + _journalFile);
+
+        try (BufferedReader reader = new BufferedReader(
+    		new InputStreamReader(new FileInputStream(_journalFile), Utf8))) {
+        	
+        	int count = 0;
+        	String line;
+        	while ((line = reader.readLine()) != null) {
+        		if (line.isEmpty()) continue;
+
+        		JsonNode record;
+        		try {
+        			record = _mapper.readTree(line);
+        		} catch (IOException ex) {
+        			warn(null, "Skipped corrupted journal record " + (count + 1), ex);
+        			continue;
+        		}
+        		count++;
+
+        		if ("del".equals(record.path("op").asText())) {
+        			removeItem(record.path("id").asText());
+        		} else {
+        			@SuppressWarnings("unchecked")
+        			T item = (T)_mapper.treeToValue(record.get("item"), _itemType);
+        			putItem(item);
+        		}
+        	}
+        } catch (IOException ex) {
+        	throw new FileError(this, "ReadFailed", "Failed to read journal: " + ex)
+        		.withCause(ex);
+        }
+    }
+
+    /**
+     * Adds or replaces item in memory and updates the index.
+     * @param item the item to put.
+     */
+    private void putItem(T item) {
+    	_lock.writeLock().lock();
+    	try {
+    		VersionedList<T> items = getVersionedItems();
+    		Integer index = _index.get(item.getId());
+    		if (index != null) {
+    			unindexItem(items.setSlot(index, item));
+    		} else {
+    			_index.put(item.getId(), items.getSlotCount());
+    			_ids.add(item.getId());
+    			items.add(item);
+    		}
+    		indexItem(item);
+    	} finally {
+    		_lock.writeLock().unlock();
+    	}
+    }
+
+    /**
+     * Removes item from memory and updates the index.
+     * The item leaves an empty slot, so following items keep their positions
+     * and the order. Empty slots are dropped once they outnumber items,
+     * so deletes cost constant time on average.
+     * @param id the id of the item to remove.
+     * @return <b>true</b> if the item was removed.
+     */
+    private boolean removeItem(String id) {
+    	_lock.writeLock().lock();
+    	try {
+    	    Integer index = id != null ? _index.remove(id) : null;
+    	    if (index == null) return false;
+
+    	    _ids.remove(id);
+    	    VersionedList<T> items = getVersionedItems();
+    	    unindexItem(items.removeSlot(index));
+    	    if (items.getEmptySlotCount() > items.size())
+    	    	compactItems();
+    	    return true;
+    	} finally {
+    		_lock.writeLock().unlock();
+    	}
     }
 
     @Override
-    public void clearTestData() throws MicroserviceError {
-        _items = new ArrayList<T>();
+    public synchronized void clearTestData() throws MicroserviceError {
+    	_lock.writeLock().lock();
+    	try {
+    	    _items = new ArrayList<T>();
+    	    reindex();
+    	} finally {
+    		_lock.writeLock().unlock();
+    	}
         save();
     }
 
     public DataPage<T> getPage(String correlationId, Predicate<T> filter, PagingParams paging, Comparator<T> sort) {
-        Stream<T> items = this._items.stream();
+        return getPageByFilter(correlationId, null, filter, paging, sort);
+    }
+
+    /**
+     * Gets a page of items that match the filter.
+     * Conditions in filter parameters are served by secondary indexes when possible.
+     * @param correlationId a unique id to trace calls across components.
+     * @param filter the filter parameters or <b>null</b>.
+     * @param predicate a predicate that checks all filter conditions or <b>null</b>.
+     * @param paging the paging parameters.
+     * @param sort a comparator to sort items in the page or <b>null</b>.
+     * @return a page with matching items.
+     */
+    public DataPage<T> getPageByFilter(String correlationId, FilterParams filter, Predicate<T> predicate,
+		PagingParams paging, Comparator<T> sort) {
+        paging = paging != null ? paging : new PagingParams();
+        if (paging.getAfter() != null)
+        	return extractCursorPage(correlationId, filter, predicate, paging, sort);
 
-        // Apply filter
-        if (filter != null)
-            items = items.filter(filter);
+        Stream<T> items = select(filter, predicate);
 
         // Extract a page
-        paging = paging != null ? paging : new PagingParams();
-        int skip = paging.getSkip(-1);
+        int skip = Math.max(0, paging.getSkip(-1));
         int take = paging.getTake(_maxPageSize);
 
-        Integer total = null;
-        if (paging.isTotal()) {
-        	List<T> selectedItems = items.collect(Collectors.toList());
-        	total = selectedItems.size();
-        	items  = selectedItems.stream();
-        }
-        
-        if (skip > 0)
-            items = items.skip(skip);
-        items = items.limit(take);
+        return PageExtractor.extractPage(items, skip, take, paging.isTotal(), sort);
+    }
 
-        // Apply sorting
-        if (sort != null)
-            items = items.sorted(sort);
+    /**
+     * Extracts a page that starts after the cursor.
+     * One extra item is selected to find out if there is a next page.
+     * @param correlationId a unique id to trace calls across components.
+     * @param filter the filter parameters or <b>null</b>.
+     * @param predicate a predicate that checks all filter conditions or <b>null</b>.
+     * @param paging the paging parameters with the cursor.
+     * @param sort a comparator that sets the items order or <b>null</b> to order by ids.
+     * @return a page with items and the cursor to the next page.
+     */
+    private DataPage<T> extractCursorPage(String correlationId, FilterParams filter, Predicate<T> predicate,
+		PagingParams paging, Comparator<T> sort) {
+    	int take = paging.getTake(_maxPageSize);
+    	String after = paging.getAfter();
+    	Integer total = paging.isTotal() ? (int)select(filter, predicate).count() : null;
+
+    	List<T> data;
+    	if (sort == null) {
+    		String afterId = after.isEmpty() ? null : decodeCursor(after, 'i');
+    		if (!after.isEmpty() && afterId == null) {
+    			warn(correlationId, "Ignored invalid paging cursor " + after);
+    			return new DataPage<T>(total, new ArrayList<T>());
+    		}
+
+    		NavigableSet<String> ids = _ids;
+    		if (filter != null && !_indexes.isEmpty()) {
+    			_lock.readLock().lock();
+    			try {
+    				Collection<String> candidates = findCandidates(filter);
+    				if (candidates != null)
+    					ids = new TreeSet<String>(candidates);
+    			} finally {
+    				_lock.readLock().unlock();
+    			}
+    		}
+    		if (afterId != null)
+    			ids = ids.tailSet(afterId, false);
+
+    		// The walk doesn't hold the lock, items are taken from a snapshot
+    		List<T> items = snapshot();
+    		data = new ArrayList<T>(Math.min(take + 1, 1024));
+    		for (String id : ids) {
+    			T item = findItem(items, id);
+    			if (item != null && (predicate == null || predicate.test(item))) {
+    				data.add(item);
+    				if (data.size() > take) break;
+    			}
+    		}
+    	} else {
+    		Comparator<T> order = totalOrder(sort);
+
+    		T anchor = null;
+    		if (!after.isEmpty()) {
+    			String afterId = decodeCursor(after, 's');
+    			anchor = afterId != null ? findAnchor(afterId) : null;
+    			if (anchor == null) {
+    				warn(correlationId, "Ignored invalid paging cursor " + after);
+    				return new DataPage<T>(total, new ArrayList<T>());
+    			}
+    		}
 
-        return new DataPage<T>(total, items.collect(Collectors.toList()));
+    		NavigableSet<T> declared = _orders.get(sort);
+    		if (hasCandidates(filter)) {
+    			Stream<T> items = select(filter, predicate);
+    			if (anchor != null) {
+    				T last = anchor;
+    				items = items.filter((v) -> order.compare(v, last) > 0);
+    			}
+    			data = PageExtractor.extractSortedPage(items, 0, take + 1, false, order).getData();
+    		} else if (declared != null) {
+    			// Declared orders are walked from the cursor position without sorting
+    			NavigableSet<T> sorted = declared;
+    			if (anchor != null)
+    				sorted = sorted.tailSet(anchor, false);
+
+    			data = new ArrayList<T>(Math.min(take + 1, 1024));
+    			for (T item : sorted) {
+    				if (predicate == null || predicate.test(item)) {
+    					data.add(item);
+    					if (data.size() > take) break;
+    				}
+    			}
+    		} else {
+    			List<T> sorted = getSortedView(sort, order);
+    			int start = 0;
+    			if (anchor != null) {
+    				int position = Collections.binarySearch(sorted, anchor, order);
+    				start = position >= 0 ? position + 1 : -position - 1;
+    			}
+
+    			data = new ArrayList<T>(Math.min(take + 1, 1024));
+    			for (int index = start; index < sorted.size() && data.size() <= take; index++) {
+    				T item = sorted.get(index);
+    				if (predicate == null || predicate.test(item))
+    					data.add(item);
+    			}
+    		}
+    	}
+
+    	String next = null;
+    	if (take > 0 && data.size() > take) {
+    		data = new ArrayList<T>(data.subList(0, take));
+    		T last = data.get(take - 1);
+    		if (sort != null) _anchors.put(last.getId(), last);
+    		next = encodeCursor(last.getId(), sort != null ? 's' : 'i');
+    	}
+    	return new DataPage<T>(total, data, next);
+    }
+
+    /**
+     * Checks if an index can select candidates for the filter.
+     * @param filter the filter parameters or <b>null</b>.
+     * @return <b>true</b> if candidates are selected by an index.
+     */
+    private boolean hasCandidates(FilterParams filter) {
+    	if (filter == null || _indexes.isEmpty()) return false;
+
+    	_lock.readLock().lock();
+    	try {
+    		return findCandidates(filter) != null;
+    	} finally {
+    		_lock.readLock().unlock();
+    	}
+    }
+
+    /**
+     * Finds the item at the position of a sorted cursor.
+     * The item is taken as it was when the cursor was issued, so its changes
+     * and deletion don't move the position. Items of old cursors are looked up by id.
+     * @param id the id of the item.
+     * @return the found item or <b>null</b> if it doesn't exist.
+     */
+    private T findAnchor(String id) {
+    	T item = _anchors.get(id);
+    	return item != null ? item : findItem(snapshot(), id);
+    }
+
+    /**
+     * Gets all items sorted in the order. The sorted view is cached and reused
+     * while the items don't change and the same comparator is passed.
+     * Otherwise all items are sorted again in O(n log n), so under writes or with
+     * a new comparator per request every page costs a full sort. Orders declared
+     * with addSortOrder() avoid that.
+     * @param sort the comparator passed by the caller to identify the view.
+     * @param order the total order to sort items.
+     * @return a list with all sorted items.
+     */
+    private List<T> getSortedView(Comparator<T> sort, Comparator<T> order) {
+    	List<T> items = snapshot();
+    	SortedView<T> view = _sortedView;
+    	if (view != null && view.items == items && view.sort == sort)
+    		return view.sorted;
+
+    	Stream<T> stream = isParallel(items.size()) ? items.parallelStream() : items.stream();
+    	List<T> sorted = stream.sorted(order).collect(Collectors.toList());
+    	_sortedView = new SortedView<T>(items, sort, sorted);
+    	return sorted;
+    }
+
+    /**
+     * Encodes position after the item into an opaque cursor.
+     * @param id the id of the last item in the page.
+     * @param kind the kind of cursor: 'i' for order by ids or 's' for sorted pages.
+     * @return an encoded cursor.
+     */
+    private String encodeCursor(String id, char kind) {
+    	String value = kind + id;
+    	return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(Utf8));
+    }
+
+    /**
+     * Decodes value from an opaque cursor.
+     * @param cursor the encoded cursor.
+     * @param kind the expected kind of cursor: 'i' for order by ids or 's' for sorted pages.
+     * @return a decoded value or <b>null</b> if the cursor is invalid.
+     */
+    private String decodeCursor(String cursor, char kind) {
+    	try {
+    		String value = new String(Base64.getUrlDecoder().decode(cursor), Utf8);
+    		return value.length() > 0 && value.charAt(0) == kind ? value.substring(1) : null;
+    	} catch (IllegalArgumentException ex) {
+    		return null;
+    	}
     }
 
     public <S> DataPage<S> getPage(String correlationId, Predicate<T> filter, PagingParams paging,
@@ -175,15 +1139,25 @@ public abstract class FilePersistence<T extends IIdentifiable> extends AbstractP
     		.map(select)
     		.collect(Collectors.toList());
 
-        return new DataPage<S>(total, items);
+        return new DataPage<S>(total, items, page.getNext());
     }
 
     public List<T> getList(String correlationId, Predicate<T> filter, Comparator<T> sort) {
-        Stream<T> items = this._items.stream();
+        return getListByFilter(correlationId, null, filter, sort);
+    }
 
-        // Apply filter
-        if (filter != null)
-            items = items.filter(filter);
+    /**
+     * Gets a list of items that match the filter.
+     * Conditions in filter parameters are served by secondary indexes when possible.
+     * @param correlationId a unique id to trace calls across components.
+     * @param filter the filter parameters or <b>null</b>.
+     * @param predicate a predicate that checks all filter conditions or <b>null</b>.
+     * @param sort a comparator to sort items or <b>null</b>.
+     * @return a list with matching items.
+     */
+    public List<T> getListByFilter(String correlationId, FilterParams filter, Predicate<T> predicate,
+		Comparator<T> sort) {
+        Stream<T> items = select(filter, predicate);
 
         // Apply sorting
         if (sort != null)
@@ -200,49 +1174,95 @@ public abstract class FilePersistence<T extends IIdentifiable> extends AbstractP
     }
 
     protected T getById(String correlationId, String id) {
-        Optional<T> item = _items.stream()
-    		.filter((v) -> v.getId().equals(id))
-    		.findFirst();
-        return item.isPresent() ? item.get() : null;
+        return id != null ? findItem(snapshot(), id) : null;
     }
 
     protected T getRandom(String correlationId) {
-        if (_items.size() == 0)
+    	List<T> items = snapshot();
+        if (items.size() == 0)
             return null;
 
-        T item = _items.get(_random.nextInt(_items.size()));
+        T item = items.get(_random.nextInt(items.size()));
         return item;
     }
 
-    protected T create(String correlationId, T item) throws MicroserviceError {
+    /**
+     * Creates a deep copy of the item to change it
+     * without affecting readers that hold the original.
+     * @param item the item to copy.
+     * @return a copy of the item.
+     * @throws MicroserviceError when the item cannot be copied.
+     */
+    @SuppressWarnings("unchecked")
+    protected T copyItem(T item) throws MicroserviceError {
+    	try {
+    		return (T)_mapper.treeToValue(_mapper.valueToTree(item), _itemType);
+    	} catch (IOException ex) {
+    		throw new UnknownError(this, "CopyFailed", "Failed to copy item " + item.getId() + ": " + ex)
+    			.withDetails(item.getId())
+    			.withCause(ex);
+    	}
+    }
+
+    protected synchronized T create(String correlationId, T item) throws MicroserviceError {
         item.setId(item.getId() != null ? item.getId() : createUuid());
-        _items.add(item);
+        if (_index.containsKey(item.getId()))
+        	throw new ConflictError(this, "DuplicateId", "Item with id " + item.getId() + " already exists")
+        		.withDetails(item.getId());
 
-        save();
+        _lock.writeLock().lock();
+        try {
+    	    VersionedList<T> items = getVersionedItems();
+    	    _index.put(item.getId(), items.getSlotCount());
+    	    _ids.add(item.getId());
+    	    items.add(item);
+    	    indexItem(item);
+        } finally {
+        	_lock.writeLock().unlock();
+        }
+
+        saveItem(item);
         return item;
     }
 
-    protected T replace(String correlationId, String id, T newItem) throws MicroserviceError {
-    	T item = getById(correlationId, id);
-    	if (item == null) return null;
-    	
-        int index = _items.indexOf(item);
-        if (index < 0) return null;
+    protected synchronized T replace(String correlationId, String id, T newItem) throws MicroserviceError {
+        Integer index = id != null ? _index.get(id) : null;
+        if (index == null) return null;
 
         newItem.setId(id);
-        _items.set(index, newItem);
+        _lock.writeLock().lock();
+        try {
+    	    unindexItem(getVersionedItems().setSlot(index, newItem));
+    	    indexItem(newItem);
+        } finally {
+        	_lock.writeLock().unlock();
+        }
 
-        save();
+        saveItem(newItem);
         return newItem;
     }
 
-    protected T update(String correlationId, String id, DynamicMap newValues) throws MicroserviceError {
-        T item = getById(correlationId, id);
-        if (item == null) return null;
+    protected synchronized T update(String correlationId, String id, DynamicMap newValues) throws MicroserviceError {
+        Integer index = id != null ? _index.get(id) : null;
+        if (index == null) return null;
 
+        // Readers may hold the current item, so changes are made in a copy
+        T current = VersionedList.getSlot(_items, index);
+        T item = copyItem(current);
         newValues.assignTo(item);
+        // Keep id unchanged to keep the index consistent
+        item.setId(id);
 
-        save();
+        _lock.writeLock().lock();
+        try {
+    	    unindexItem(current);
+    	    getVersionedItems().setSlot(index, item);
+    	    indexItem(item);
+        } finally {
+        	_lock.writeLock().unlock();
+        }
+
+        saveItem(item);
         return item;
     }
 
@@ -250,16 +1270,143 @@ public abstract class FilePersistence<T extends IIdentifiable> extends AbstractP
         return update(correlationId, id, Converter.toNullableMap(newValues));
     }
 
-    protected void delete(String correlationId, String id) throws MicroserviceError {
-    	T item = getById(correlationId, id);
-    	if (item == null) return;
-    	
-        int index = _items.indexOf(item);
-        if (index < 0) return;
+    /**
+     * Deletes item by id. Remaining items keep their order.
+     * @param correlationId a unique id to trace calls across components.
+     * @param id the id of the item to delete.
+     * @throws MicroserviceError when writing fails.
+     */
+    protected synchronized void delete(String correlationId, String id) throws MicroserviceError {
+        if (!removeItem(id)) return;
+
+        saveDeletion(id);
+    }
 
-        _items.remove(index);
+    /**
+     * Creates multiple items at once. All items are added in memory
+     * and persisted with a single write, so bulk imports don't rewrite
+     * the data file for every item. When any id is already taken
+     * no items are created.
+     * @param correlationId a unique id to trace calls across components.
+     * @param items the items to create.
+     * @return a list with created items.
+     * @throws MicroserviceError when ids conflict or writing fails.
+     */
+    protected synchronized List<T> createMany(String correlationId, Collection<T> items) throws MicroserviceError {
+    	List<T> created = new ArrayList<T>(items);
+    	Set<String> ids = new HashSet<String>(created.size() * 4 / 3 + 1);
+    	for (T item : created) {
+    		if (item.getId() == null) continue;
+    		if (_index.containsKey(item.getId()) || !ids.add(item.getId()))
+    			throw new ConflictError(this, "DuplicateId", "Item with id " + item.getId() + " already exists")
+    				.withDetails(item.getId());
+    	}
 
-        save();
+    	// Ids are generated only after validation, so rejected items stay unchanged
+    	for (T item : created) {
+    		if (item.getId() == null)
+    			item.setId(createUuid());
+    	}
+
+    	// Add all items as a single new version of the list
+    	_lock.writeLock().lock();
+    	try {
+    		VersionedList<T> all = getVersionedItems();
+    		int position = all.getSlotCount();
+    		all.addAll(created);
+    		for (T item : created) {
+    			_index.put(item.getId(), position++);
+    			_ids.add(item.getId());
+    			indexItem(item);
+    		}
+    	} finally {
+    		_lock.writeLock().unlock();
+    	}
+
+    	saveItems(created);
+    	return created;
+    }
+
+    /**
+     * Updates all items that match the filter with the same values
+     * and persists them with a single write.
+     * @param correlationId a unique id to trace calls across components.
+     * @param filter the filter parameters or <b>null</b>.
+     * @param predicate a predicate that checks all filter conditions or <b>null</b>.
+     * @param newValues the values to set.
+     * @return the number of updated items.
+     * @throws MicroserviceError when writing fails.
+     */
+    protected synchronized int updateMany(String correlationId, FilterParams filter, Predicate<T> predicate,
+		DynamicMap newValues) throws MicroserviceError {
+    	List<T> matches = select(filter, predicate).collect(Collectors.toList());
+    	if (matches.isEmpty()) return 0;
+
+    	List<T> updated = new ArrayList<T>(matches.size());
+    	for (T current : matches) {
+    		// Readers may hold the current item, so changes are made in a copy
+    		T item = copyItem(current);
+    		newValues.assignTo(item);
+    		item.setId(current.getId());
+    		updated.add(item);
+    	}
+
+    	_lock.writeLock().lock();
+    	try {
+    		// Replace all items as a single new version of the list
+    		int[] positions = new int[updated.size()];
+    		for (int index = 0; index < updated.size(); index++) {
+    			T item = updated.get(index);
+    			unindexItem(matches.get(index));
+    			positions[index] = _index.get(item.getId());
+    			indexItem(item);
+    		}
+    		getVersionedItems().setSlots(positions, updated);
+    	} finally {
+    		_lock.writeLock().unlock();
+    	}
+
+    	saveItems(updated);
+    	return updated.size();
+    }
+
+    protected int updateMany(String correlationId, FilterParams filter, Predicate<T> predicate,
+		Object newValues) throws MicroserviceError {
+    	return updateMany(correlationId, filter, predicate, Converter.toNullableMap(newValues));
+    }
+
+    /**
+     * Deletes all items that match the filter and persists deletions with a single write.
+     * Like delete() it keeps the order of remaining items.
+     * @param correlationId a unique id to trace calls across components.
+     * @param filter the filter parameters or <b>null</b>.
+     * @param predicate a predicate that checks all filter conditions or <b>null</b>.
+     * @return the number of deleted items.
+     * @throws MicroserviceError when writing fails.
+     */
+    protected synchronized int deleteByFilter(String correlationId, FilterParams filter, Predicate<T> predicate)
+		throws MicroserviceError {
+    	Set<String> ids = select(filter, predicate)
+			.map((v) -> v.getId())
+			.collect(Collectors.toCollection(LinkedHashSet::new));
+    	if (ids.isEmpty()) return 0;
+
+    	// Remaining items keep their order, so all indexes are rebuilt
+    	List<T> remaining = new ArrayList<T>(Math.max(0, _items.size() - ids.size()));
+    	for (T item : _items) {
+    		if (!ids.contains(item.getId()))
+    			remaining.add(item);
+    	}
+    	_lock.writeLock().lock();
+    	try {
+    		_items = new VersionedList<T>(remaining);
+    		reindex();
+    	} finally {
+    		_lock.writeLock().unlock();
+    	}
+
+    	saveDeletions(ids);
+    	return ids.size();
     }
 
 }
\ No newline at end of file
@@ -0,0 +1,151 @@
+package org.pipservices.runtime.persistence;
+
+import java.util.*;
+import java.util.function.*;
+
+import org.pipservices.runtime.data.*;
+import org.pipservices.runtime.portability.*;
+
+/**
+ * Secondary index that maps values of an item field to ids of items.
+ * Hash index supports only equality conditions, while sorted index
+ * also supports ranges set by '&lt;field&gt;_from' and '&lt;field&gt;_to'
+ * filter parameters (both inclusive).
+ * Items with <b>null</b> field values are not indexed.
+ * The index is not thread-safe and shall be guarded by the owning persistence.
+ */
+class ItemIndex<T extends IIdentifiable> {
+	private String _field;
+	private Function<T, Object> _key;
+	private Function<Object, Object> _parse;
+	private boolean _sorted;
+	private Map<Object, Set<String>> _entries;
+
+	/**
+	 * Creates a new index.
+	 * @param field the name of the filter parameter served by this index.
+	 * @param key a function that extracts indexed value from an item.
+	 * @param parse a function that converts filter values into indexed values.
+	 * @param sorted <b>true</b> to create sorted index that supports ranges.
+	 */
+	public ItemIndex(String field, Function<T, Object> key, Function<Object, Object> parse, boolean sorted) {
+		_field = field;
+		_key = key;
+		_parse = parse;
+		_sorted = sorted;
+		clear();
+	}
+
+	public String getField() { return _field; }
+
+	public boolean isSorted() { return _sorted; }
+
+	/**
+	 * Removes all entries from the index.
+	 */
+	public void clear() {
+		_entries = _sorted
+			? new TreeMap<Object, Set<String>>()
+			: new HashMap<Object, Set<String>>();
+	}
+
+	/**
+	 * Adds item to the index.
+	 * @param item the item to add.
+	 */
+	public void add(T item) {
+		Object key = _key.apply(item);
+		if (key == null) return;
+
+		Set<String> ids = _entries.get(key);
+		if (ids == null) {
+			ids = new HashSet<String>(2);
+			_entries.put(key, ids);
+		}
+		ids.add(item.getId());
+	}
+
+	/**
+	 * Removes item from the index.
+	 * It shall be called before the indexed field of the item is changed.
+	 * @param item the item to remove.
+	 */
+	public void remove(T item) {
+		Object key = _key.apply(item);
+		if (key == null) return;
+
+		Set<String> ids = _entries.get(key);
+		if (ids == null) return;
+
+		ids.remove(item.getId());
+		if (ids.isEmpty())
+			_entries.remove(key);
+	}
+
+	/**
+	 * Finds ids of items that match conditions on the indexed field.
+	 * @param filter the filter parameters.
+	 * @return a collection of item ids or <b>null</b> if the filter
+	 * has no conditions that can be served by this index.
+	 */
+	@SuppressWarnings("unchecked")
+	public Collection<String> find(FilterParams filter) {
+		Object value = _parse.apply(filter.get(_field));
+		if (value != null) {
+			Set<String> ids = _entries.get(value);
+			return ids != null ? ids : Collections.<String>emptySet();
+		}
+
+		if (!_sorted) return null;
+
+		Object from = _parse.apply(filter.get(_field + "_from"));
+		Object to = _parse.apply(filter.get(_field + "_to"));
+		if (from == null && to == null) return null;
+
+		NavigableMap<Object, Set<String>> entries = (NavigableMap<Object, Set<String>>)_entries;
+		if (from != null && to != null) {
+			if (((Comparable<Object>)from).compareTo(to) > 0)
+				return Collections.<String>emptySet();
+			entries = entries.subMap(from, true, to, true);
+		} else if (from != null) {
+			entries = entries.tailMap(from, true);
+		} else {
+			entries = entries.headMap(to, true);
+		}
+
+		List<String> result = new ArrayList<String>();
+		for (Set<String> ids : entries.values())
+			result.addAll(ids);
+		return result;
+	}
+
+	/**
+	 * Creates hash index on field values converted to strings,
+	 * so filter values received as strings match values of any type.
+	 * @param field the name of the filter parameter served by this index.
+	 * @param key a function that extracts indexed value from an item.
+	 * @return a created index.
+	 */
+	public static <T extends IIdentifiable> ItemIndex<T> hash(String field, Function<T, ?> key) {
+		return new ItemIndex<T>(
+			field, (item) -> Converter.toNullableString(key.apply(item)),
+			Converter::toNullableString, false
+		);
+	}
+
+	/**
+	 * Creates sorted index.
+	 * @param field the name of the filter parameter served by this index.
+	 * @param key a function that extracts indexed value from an item.
+	 * @param parse a function that converts filter values into indexed values.
+	 * @return a created index.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T extends IIdentifiable, K extends Comparable<? super K>> ItemIndex<T> sorted(
+		String field, Function<T, K> key, Function<Object, K> parse) {
+		return new ItemIndex<T>(
+			field, (Function<T, Object>)(Function<T, ?>)key,
+			(Function<Object, Object>)(Function<Object, ?>)parse, true
+		);
+	}
+}
@@ -0,0 +1,1060 @@
+package org.pipservices.runtime.persistence;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.concurrent.locks.*;
+import java.util.function.*;
+import java.util.stream.*;
+
+import org.pipservices.runtime.*;
+import org.pipservices.runtime.config.*;
+import org.pipservices.runtime.data.*;
+import org.pipservices.runtime.errors.*;
+import org.pipservices.runtime.errors.UnknownError;
+import org.pipservices.runtime.portability.*;
+
+import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.dataformat.smile.*;
+
+/**
+ * Persistence that keeps items serialized in a memory-mapped data file
+ * instead of Java heap, so it can hold many millions of small items.
+ *
+ * The file is split into pages of 'options.page_size' bytes with slotted layout:
+ * a page header and a directory of slots grow from the start of the page,
+ * and records grow from its end. Every record holds item id and the item
+ * encoded in Smile format. Records are addressed by page and slot numbers,
+ * so compaction of a page doesn't change their addresses. The file is mapped
+ * by regions of 'options.chunk_size' bytes and grows by whole regions.
+ *
+ * Items are located by a compact open-addressing index that holds only
+ * hash codes of ids and record addresses on the heap. The index is rebuilt
+ * on open by reading record ids without decoding items.
+ * Items are decoded only when they are accessed, and queries decode them
+ * one by one while scanning the pages.
+ *
+ * Unsorted pages can be retrieved by cursor set in PagingParams 'after'.
+ * The cursor keeps the address of the last item, and the next page continues
+ * the scan right after it, so pages don't skip previous items. Items created
+ * in freed space behind the cursor or moved by updates between pages can be missed
+ * or returned again. Cursors with sort are rejected with BadRequestError.
+ *
+ * Changes are written into the mapped memory and reach the disk
+ * when the operating system flushes it, on close or on flush().
+ * When 'options.sync' is set every change is forced to disk before the call returns.
+ * Reads run in parallel, while writes are serialized by a read-write lock.
+ */
+public abstract class MappedPersistence<T extends IIdentifiable> extends AbstractPersistence {
+	private final static DynamicMap DefaultConfig = DynamicMap.fromTuples(
+		"options.max_page_size", 100,
+		"options.page_size", 4096, // size of a data page in bytes, from 512 to 32768
+		"options.chunk_size", 64 * 1024 * 1024, // size of a file region mapped at once in bytes
+		"options.sync", false // force every change to disk
+	);
+
+	private final static int Magic = 0x5049504D;
+	private final static int FormatVersion = 1;
+	// File header: magic, format version, page size, page count
+	private final static int FileHeaderSize = 4 + 4 + 4 + 4;
+	// Page header: slot count, start of records area
+	private final static int PageHeaderSize = 2 + 2;
+	// Slot: record offset, record length
+	private final static int SlotSize = 2 + 2;
+	private final static int MinPageSize = 512;
+	private final static int MaxPageSize = 32768;
+	private final static int MinIndexCapacity = 1024;
+	private final static Charset Utf8 = Charset.forName("UTF-8");
+
+	private Class<?> _itemType;
+	private ObjectMapper _mapper = new ObjectMapper(new SmileFactory());
+	private Random _random = new Random();
+	private ReadWriteLock _lock = new ReentrantReadWriteLock();
+
+	protected String _path;
+	protected int _maxPageSize;
+	protected int _pageSize;
+	protected int _chunkSize;
+	protected boolean _sync;
+
+	private RandomAccessFile _file;
+	private List<MappedByteBuffer> _chunks = new ArrayList<MappedByteBuffer>();
+	private int _chunkPages;
+	// Number of pages in use including the file header page
+	private int _pageCount;
+	// Free bytes in every page
+	private int[] _free = new int[0];
+	// Page that receives new records and pages with enough space freed by deletes
+	private int _insertPage;
+	private Deque<Integer> _sparsePages = new ArrayDeque<Integer>();
+	private BitSet _sparse = new BitSet();
+
+	private int[] _hashes = new int[MinIndexCapacity];
+	private long[] _addresses = new long[MinIndexCapacity];
+	private int _count;
+
+	// Pass the item type since Jackson cannot recognize type from generics
+	protected MappedPersistence(ComponentDescriptor descriptor, Class<?> itemType) {
+		super(descriptor);
+
+		_itemType = itemType;
+	}
+
+	/**
+	 * Sets component configuration parameters and switches from component
+	 * to 'Configured' state. The configuration is only allowed once
+	 * right after creation. Attempts to perform reconfiguration will
+	 * cause an exception.
+	 * @param config the component configuration parameters.
+	 * @throws MicroserviceError when component is in illegal state
+	 * or configuration validation fails.
+	 */
+	@Override
+	public void configure(ComponentConfig config) throws MicroserviceError {
+		checkNewStateAllowed(State.Configured);
+
+		config = config.withDefaults(DefaultConfig);
+		DynamicMap options = config.getOptions();
+
+		if (options.hasNot("path"))
+			throw new ConfigError(this, "NoPath", "Data file path is not set");
+
+		int pageSize = options.getInteger("page_size");
+		if (pageSize < MinPageSize || pageSize > MaxPageSize)
+			throw new ConfigError(this, "WrongPageSize", "Page size shall be from " + MinPageSize + " to " + MaxPageSize)
+				.withDetails(pageSize);
+
+		super.configure(config);
+
+		_path = options.getString("path");
+		_maxPageSize = options.getInteger("max_page_size");
+		_pageSize = pageSize;
+		_chunkSize = options.getInteger("chunk_size");
+		_sync = options.getBoolean("sync");
+	}
+
+	/**
+	 * Opens the component, performs initialization, opens connections
+	 * to external services and makes the component ready for operations.
+	 * Opening can be done multiple times: right after linking
+	 * or reopening after closure.
+	 * @throws MicroserviceError when initialization or connections fail.
+	 */
+	@Override
+	public void open() throws MicroserviceError {
+		checkNewStateAllowed(State.Opened);
+
+		_lock.writeLock().lock();
+		try {
+			trace(null, "Mapping data file at " + _path);
+
+			_file = new RandomAccessFile(_path, "rw");
+			int pageCount = 1;
+
+			if (_file.length() > 0) {
+				ByteBuffer header = ByteBuffer.allocate(FileHeaderSize);
+				_file.getChannel().read(header, 0);
+				if (header.getInt(0) != Magic || header.getInt(4) != FormatVersion)
+					throw new FileError(this, "WrongFormat", "Data file at " + _path + " has unsupported format");
+
+				// Page size of existing file cannot be changed
+				int pageSize = header.getInt(8);
+				if (pageSize < MinPageSize || pageSize > MaxPageSize)
+					throw new FileError(this, "WrongFormat", "Data file at " + _path + " has wrong page size " + pageSize);
+				if (pageSize != _pageSize)
+					warn(null, "Using page size " + pageSize + " of existing data file at " + _path);
+				_pageSize = pageSize;
+
+				// Pages beyond the end of the file could be counted before a crash
+				pageCount = header.getInt(12);
+				long filePages = _file.length() / _pageSize;
+				if (pageCount < 1 || pageCount > filePages) {
+					warn(null, "Data file at " + _path + " has wrong page count " + pageCount);
+					pageCount = (int)Math.max(1, Math.min(filePages, Integer.MAX_VALUE));
+				}
+			}
+
+			_chunkPages = Math.max(1, _chunkSize / _pageSize);
+			while ((long)_chunks.size() * _chunkPages < pageCount)
+				mapChunk();
+
+			_pageCount = pageCount;
+			_free = new int[Math.max(16, pageCount)];
+			writeFileHeader();
+			loadIndex();
+		} catch (MicroserviceError ex) {
+			releaseFile();
+			throw ex;
+		} catch (Exception ex) {
+			releaseFile();
+			throw new FileError(this, "OpenFailed", "Failed to open data file: " + ex)
+				.withCause(ex);
+		} finally {
+			_lock.writeLock().unlock();
+		}
+
+		super.open();
+	}
+
+	/**
+	 * Closes the component and all open connections, performs deinitialization
+	 * steps. Closure can only be done from opened state. Attempts to close
+	 * already closed component or in wrong order will cause exception.
+	 * @throws MicroserviceError with closure fails.
+	 */
+	@Override
+	public void close() throws MicroserviceError {
+		checkNewStateAllowed(State.Closed);
+
+		_lock.writeLock().lock();
+		try {
+			flush();
+			releaseFile();
+		} finally {
+			_lock.writeLock().unlock();
+		}
+
+		super.close();
+	}
+
+	/**
+	 * Forces all changes in the mapped data file to disk.
+	 */
+	public void flush() {
+		_lock.readLock().lock();
+		try {
+			for (MappedByteBuffer chunk : _chunks)
+				chunk.force();
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Drops references to mapped regions and closes the data file.
+	 * The memory is unmapped when the regions are garbage collected.
+	 */
+	private void releaseFile() {
+		_chunks.clear();
+		_pageCount = 0;
+		_insertPage = 0;
+		_sparsePages.clear();
+		_sparse.clear();
+		clearIndex();
+
+		if (_file != null) {
+			try {
+				_file.close();
+			} catch (IOException ex) {
+				warn(null, "Failed to close data file", ex);
+			}
+			_file = null;
+		}
+	}
+
+	/**
+	 * Gets number of stored items.
+	 * @return the number of items.
+	 */
+	public int getCount() {
+		_lock.readLock().lock();
+		try {
+			return _count;
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	/* Pages */
+
+	private static long address(int page, int slot) {
+		return ((long)page << 16) | slot;
+	}
+
+	private static int pageOf(long address) {
+		return (int)(address >>> 16);
+	}
+
+	private static int slotOf(long address) {
+		return (int)(address & 0xFFFF);
+	}
+
+	private ByteBuffer chunkOf(int page) {
+		return _chunks.get(page / _chunkPages);
+	}
+
+	private int baseOf(int page) {
+		return (page % _chunkPages) * _pageSize;
+	}
+
+	private int slotPosition(int page, int slot) {
+		return baseOf(page) + PageHeaderSize + slot * SlotSize;
+	}
+
+	private void mapChunk() throws IOException {
+		_chunks.add(_file.getChannel().map(
+			FileChannel.MapMode.READ_WRITE, (long)_chunks.size() * _chunkPages * _pageSize, (long)_chunkPages * _pageSize
+		));
+	}
+
+	private void writeFileHeader() {
+		ByteBuffer chunk = _chunks.get(0);
+		chunk.putInt(0, Magic);
+		chunk.putInt(4, FormatVersion);
+		chunk.putInt(8, _pageSize);
+		chunk.putInt(12, _pageCount);
+	}
+
+	/**
+	 * Adds an empty page at the end of the file.
+	 * @return the number of the new page.
+	 * @throws MicroserviceError when the file cannot be extended.
+	 */
+	private int allocatePage() throws MicroserviceError {
+		if ((long)_chunks.size() * _chunkPages <= _pageCount) {
+			try {
+				mapChunk();
+			} catch (IOException ex) {
+				throw new FileError(this, "WriteFailed", "Failed to extend data file: " + ex)
+					.withCause(ex);
+			}
+		}
+
+		int page = _pageCount++;
+		ByteBuffer chunk = chunkOf(page);
+		int base = baseOf(page);
+		chunk.putChar(base, (char)0);
+		chunk.putChar(base + 2, (char)_pageSize);
+
+		if (page >= _free.length)
+			_free = Arrays.copyOf(_free, _free.length * 2);
+		_free[page] = _pageSize - PageHeaderSize;
+
+		writeFileHeader();
+		return page;
+	}
+
+	/**
+	 * Finds a page with enough free space for a record.
+	 * @param length the length of the record including its slot.
+	 * @return the page number.
+	 * @throws MicroserviceError when a new page cannot be allocated.
+	 */
+	private int findPage(int length) throws MicroserviceError {
+		if (_insertPage > 0 && _free[_insertPage] >= length)
+			return _insertPage;
+
+		while (!_sparsePages.isEmpty()) {
+			int page = _sparsePages.peek();
+			if (_free[page] >= length) return page;
+			_sparsePages.poll();
+			_sparse.clear(page);
+		}
+
+		_insertPage = allocatePage();
+		return _insertPage;
+	}
+
+	/**
+	 * Writes a record into the page. The page must have enough free space.
+	 * Records in the page are compacted when free space is fragmented.
+	 * @param page the page number.
+	 * @param slot the slot to use or -1 to take any free slot.
+	 * @param record the record content.
+	 * @return the slot number of the record.
+	 */
+	private int placeRecord(int page, int slot, byte[] record) {
+		ByteBuffer chunk = chunkOf(page);
+		int base = baseOf(page);
+		int count = chunk.getChar(base);
+
+		if (slot < 0) {
+			slot = count;
+			for (int index = 0; index < count; index++) {
+				if (chunk.getChar(slotPosition(page, index) + 2) == 0) {
+					slot = index;
+					break;
+				}
+			}
+		}
+
+		int slots = Math.max(count, slot + 1);
+		int start = chunk.getChar(base + 2);
+		if (start - record.length < PageHeaderSize + slots * SlotSize) {
+			compactPage(page);
+			start = chunk.getChar(base + 2);
+		}
+		start -= record.length;
+
+		ByteBuffer buffer = chunk.duplicate();
+		buffer.position(base + start);
+		buffer.put(record);
+
+		chunk.putChar(slotPosition(page, slot), (char)start);
+		chunk.putChar(slotPosition(page, slot) + 2, (char)record.length);
+		chunk.putChar(base, (char)slots);
+		chunk.putChar(base + 2, (char)start);
+
+		_free[page] -= record.length + (slots - count) * SlotSize;
+		return slot;
+	}
+
+	/**
+	 * Frees space of a record. The slot stays in the page to be reused.
+	 * @param page the page number.
+	 * @param slot the slot number.
+	 */
+	private void releaseRecord(int page, int slot) {
+		ByteBuffer chunk = chunkOf(page);
+		int position = slotPosition(page, slot);
+		_free[page] += chunk.getChar(position + 2);
+		chunk.putChar(position, (char)0);
+		chunk.putChar(position + 2, (char)0);
+
+		if (page != _insertPage && _free[page] >= _pageSize / 4 && !_sparse.get(page)) {
+			_sparse.set(page);
+			_sparsePages.add(page);
+		}
+	}
+
+	/**
+	 * Moves all records in the page to its end to join free space.
+	 * Records keep their slots, so their addresses don't change.
+	 * @param page the page number.
+	 */
+	private void compactPage(int page) {
+		ByteBuffer chunk = chunkOf(page);
+		int base = baseOf(page);
+		int count = chunk.getChar(base);
+
+		byte[] content = new byte[_pageSize];
+		ByteBuffer buffer = chunk.duplicate();
+		buffer.position(base);
+		buffer.get(content);
+		ByteBuffer copy = ByteBuffer.wrap(content);
+
+		int end = _pageSize;
+		for (int slot = 0; slot < count; slot++) {
+			int position = PageHeaderSize + slot * SlotSize;
+			int length = copy.getChar(position + 2);
+			if (length == 0) continue;
+
+			end -= length;
+			buffer.position(base + end);
+			buffer.put(content, copy.getChar(position), length);
+			chunk.putChar(base + position, (char)end);
+		}
+		chunk.putChar(base + 2, (char)end);
+	}
+
+	/**
+	 * Encodes id and item into a record.
+	 * @param id the item id.
+	 * @param item the item.
+	 * @return the record content.
+	 * @throws MicroserviceError when the item cannot be encoded or doesn't fit into a page.
+	 */
+	private byte[] encodeRecord(String id, T item) throws MicroserviceError {
+		byte[] value;
+		try {
+			value = _mapper.writeValueAsBytes(item);
+		} catch (IOException ex) {
+			throw new UnknownError(this, "EncodeFailed", "Failed to encode item " + id + ": " + ex)
+				.withDetails(id)
+				.withCause(ex);
+		}
+
+		byte[] key = id.getBytes(Utf8);
+		int length = 2 + key.length + value.length;
+		if (length > _pageSize - PageHeaderSize - SlotSize)
+			throw new BadRequestError(this, "ItemTooLarge", "Item " + id + " takes " + length + " bytes and doesn't fit into a page")
+				.withDetails(id, length);
+
+		ByteBuffer record = ByteBuffer.allocate(length);
+		record.putChar((char)key.length);
+		record.put(key);
+		record.put(value);
+		return record.array();
+	}
+
+	/**
+	 * Reads id of the record without decoding the item.
+	 * @param address the record address.
+	 * @return the item id.
+	 */
+	private String readId(long address) {
+		int page = pageOf(address);
+		ByteBuffer chunk = chunkOf(page);
+		int offset = baseOf(page) + chunk.getChar(slotPosition(page, slotOf(address)));
+
+		byte[] key = new byte[chunk.getChar(offset)];
+		ByteBuffer buffer = chunk.duplicate();
+		buffer.position(offset + 2);
+		buffer.get(key);
+		return new String(key, Utf8);
+	}
+
+	/**
+	 * Reads and decodes item from the record.
+	 * @param address the record address.
+	 * @return the decoded item.
+	 * @throws IOException when decoding fails.
+	 */
+	@SuppressWarnings("unchecked")
+	private T readItem(long address) throws IOException {
+		int page = pageOf(address);
+		ByteBuffer chunk = chunkOf(page);
+		int position = slotPosition(page, slotOf(address));
+		int offset = baseOf(page) + chunk.getChar(position);
+		int length = chunk.getChar(position + 2);
+		int keyLength = chunk.getChar(offset);
+
+		byte[] value = new byte[length - 2 - keyLength];
+		ByteBuffer buffer = chunk.duplicate();
+		buffer.position(offset + 2 + keyLength);
+		buffer.get(value);
+		return (T)_mapper.readValue(value, _itemType);
+	}
+
+	/**
+	 * Compares id stored in the record with the given one.
+	 * @param address a record address.
+	 * @param key an id encoded in UTF-8.
+	 * @return <b>true</b> if ids are equal.
+	 */
+	private boolean keyEquals(long address, byte[] key) {
+		int page = pageOf(address);
+		ByteBuffer chunk = chunkOf(page);
+		int offset = baseOf(page) + chunk.getChar(slotPosition(page, slotOf(address)));
+
+		if (chunk.getChar(offset) != key.length)
+			return false;
+
+		offset += 2;
+		for (int index = 0; index < key.length; index++) {
+			if (chunk.get(offset + index) != key[index])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Forces changes to disk when it is required by configuration.
+	 */
+	private void syncChanges() {
+		if (!_sync) return;
+
+		for (MappedByteBuffer chunk : _chunks)
+			chunk.force();
+	}
+
+	/* Index */
+
+	/**
+	 * Calculates non-zero hash code of the id.
+	 * @param id an id to hash.
+	 * @return a well distributed hash code.
+	 */
+	private static int hash(String id) {
+		int hash = id.hashCode() * 0x9e3779b9;
+		hash ^= hash >>> 16;
+		return hash != 0 ? hash : 1;
+	}
+
+	private void clearIndex() {
+		_hashes = new int[MinIndexCapacity];
+		_addresses = new long[MinIndexCapacity];
+		_count = 0;
+	}
+
+	/**
+	 * Rebuilds the index and free space of pages by reading ids of all records.
+	 * Pages and records left inconsistent by a crash are checked against page bounds.
+	 * Corrupted records and second copies of items left by interrupted updates
+	 * are released with a warning, so the rest of the file stays usable.
+	 */
+	private void loadIndex() {
+		clearIndex();
+
+		for (int page = 1; page < _pageCount; page++) {
+			ByteBuffer chunk = chunkOf(page);
+			int base = baseOf(page);
+			int count = chunk.getChar(base);
+			int start = chunk.getChar(base + 2);
+			int directory = PageHeaderSize + count * SlotSize;
+
+			if (directory > _pageSize || start < directory || start > _pageSize) {
+				warn(null, "Skipped corrupted page " + page + " in data file at " + _path);
+				chunk.putChar(base, (char)0);
+				chunk.putChar(base + 2, (char)_pageSize);
+				count = 0;
+				directory = PageHeaderSize;
+			}
+
+			int free = _pageSize - directory;
+			int lowest = _pageSize;
+			for (int slot = 0; slot < count; slot++) {
+				int position = slotPosition(page, slot);
+				int offset = chunk.getChar(position);
+				int length = chunk.getChar(position + 2);
+				if (length == 0) continue;
+
+				String id = null;
+				if (offset >= directory && offset + length <= _pageSize && length >= 2
+					&& chunk.getChar(base + offset) <= length - 2)
+					id = readId(address(page, slot));
+
+				if (id == null || findSlot(id) >= 0) {
+					warn(null, "Skipped " + (id == null ? "corrupted" : "duplicate") + " record "
+						+ slot + " in page " + page + " of data file at " + _path);
+					chunk.putChar(position, (char)0);
+					chunk.putChar(position + 2, (char)0);
+					continue;
+				}
+
+				insertSlot(hash(id), address(page, slot));
+				free -= length;
+				lowest = Math.min(lowest, offset);
+			}
+
+			// Records area shall not overlap records that were kept
+			if (chunk.getChar(base + 2) > lowest)
+				chunk.putChar(base + 2, (char)lowest);
+
+			_free[page] = free;
+			if (free >= _pageSize / 4) {
+				_sparse.set(page);
+				_sparsePages.add(page);
+			}
+		}
+
+		_insertPage = _pageCount > 1 ? _pageCount - 1 : 0;
+	}
+
+	/**
+	 * Finds index slot for the id.
+	 * @param id the item id.
+	 * @return the slot number or -1 if the id was not found.
+	 */
+	private int findSlot(String id) {
+		int hash = hash(id);
+		byte[] key = id.getBytes(Utf8);
+		int mask = _hashes.length - 1;
+		for (int slot = hash & mask; _hashes[slot] != 0; slot = (slot + 1) & mask) {
+			if (_hashes[slot] == hash && keyEquals(_addresses[slot], key))
+				return slot;
+		}
+		return -1;
+	}
+
+	/**
+	 * Adds a new id to the index. The id must not be present in the index.
+	 * @param hash a hash of the id.
+	 * @param address a record address.
+	 */
+	private void insertSlot(int hash, long address) {
+		if (_count + 1 > (_hashes.length >> 1) + (_hashes.length >> 2))
+			resizeIndex(_hashes.length << 1);
+
+		int mask = _hashes.length - 1;
+		int slot = hash & mask;
+		while (_hashes[slot] != 0)
+			slot = (slot + 1) & mask;
+
+		_hashes[slot] = hash;
+		_addresses[slot] = address;
+		_count++;
+	}
+
+	/**
+	 * Removes id from the index shifting following ids
+	 * back to keep probe sequences without tombstones.
+	 * @param slot a slot to be cleared.
+	 */
+	private void removeSlot(int slot) {
+		int mask = _hashes.length - 1;
+		int hole = slot;
+		int next = (hole + 1) & mask;
+
+		while (_hashes[next] != 0) {
+			int ideal = _hashes[next] & mask;
+			if (((next - ideal) & mask) >= ((next - hole) & mask)) {
+				_hashes[hole] = _hashes[next];
+				_addresses[hole] = _addresses[next];
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+
+		_hashes[hole] = 0;
+		_addresses[hole] = 0;
+		_count--;
+	}
+
+	/**
+	 * Rebuilds the index with a new capacity.
+	 * @param capacity a new capacity, must be a power of two.
+	 */
+	private void resizeIndex(int capacity) {
+		int[] hashes = _hashes;
+		long[] addresses = _addresses;
+
+		_hashes = new int[capacity];
+		_addresses = new long[capacity];
+		int mask = capacity - 1;
+
+		for (int index = 0; index < hashes.length; index++) {
+			if (hashes[index] == 0) continue;
+
+			int slot = hashes[index] & mask;
+			while (_hashes[slot] != 0)
+				slot = (slot + 1) & mask;
+			_hashes[slot] = hashes[index];
+			_addresses[slot] = addresses[index];
+		}
+	}
+
+	/* Queries */
+
+	/**
+	 * Creates a stream that decodes items one by one while scanning the pages.
+	 * It shall be consumed while the read lock is held.
+	 * Decoding errors are thrown as UncheckedIOException.
+	 * @return a stream of all items.
+	 */
+	private Stream<T> scan() {
+		Iterator<T> iterator = new Iterator<T>() {
+			private long _next = nextAddress(address(1, 0));
+
+			@Override
+			public boolean hasNext() {
+				return _next >= 0;
+			}
+
+			@Override
+			public T next() {
+				if (!hasNext()) throw new NoSuchElementException();
+
+				long address = _next;
+				_next = nextAddress(address + 1);
+				try {
+					return readItem(address);
+				} catch (IOException ex) {
+					throw new UncheckedIOException(ex);
+				}
+			}
+		};
+
+		return StreamSupport.stream(Spliterators.spliterator(iterator, _count, Spliterator.ORDERED), false);
+	}
+
+	/**
+	 * Finds the first record at or after the address in order of pages and slots.
+	 * @param from the address to start from.
+	 * @return the address of the found record or -1 if there are no more records.
+	 */
+	private long nextAddress(long from) {
+		int page = Math.max(1, pageOf(from));
+		int slot = page == pageOf(from) ? slotOf(from) : 0;
+
+		for (; page < _pageCount; page++, slot = 0) {
+			ByteBuffer chunk = chunkOf(page);
+			int count = chunk.getChar(baseOf(page));
+			for (; slot < count; slot++) {
+				if (chunk.getChar(slotPosition(page, slot) + 2) != 0)
+					return address(page, slot);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Encodes record address into an opaque cursor.
+	 * @param address the address of the last item in the page.
+	 * @return an encoded cursor.
+	 */
+	private static String encodeCursor(long address) {
+		String value = "a" + Long.toHexString(address);
+		return Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(Utf8));
+	}
+
+	/**
+	 * Decodes record address from an opaque cursor.
+	 * @param cursor the encoded cursor.
+	 * @return the decoded address or -1 if the cursor is invalid.
+	 */
+	private static long decodeCursor(String cursor) {
+		try {
+			String value = new String(Base64.getUrlDecoder().decode(cursor), Utf8);
+			if (value.length() < 2 || value.charAt(0) != 'a') return -1;
+			long address = Long.parseLong(value.substring(1), 16);
+			return pageOf(address) >= 1 ? address : -1;
+		} catch (IllegalArgumentException ex) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Extracts a page that starts after the cursor by scanning records in address order.
+	 * It shall be called while the read lock is held.
+	 * @param correlationId a unique id to trace calls across components.
+	 * @param filter a predicate to filter items or <b>null</b>.
+	 * @param paging the paging parameters with the cursor.
+	 * @return a page with items and the cursor to the next page.
+	 * @throws IOException when decoding fails.
+	 */
+	private DataPage<T> extractCursorPage(String correlationId, Predicate<T> filter, PagingParams paging)
+		throws IOException {
+		int take = paging.getTake(_maxPageSize);
+		String after = paging.getAfter();
+		Integer total = null;
+		if (paging.isTotal()) {
+			Stream<T> items = scan();
+			total = (int)(filter != null ? items.filter(filter) : items).count();
+		}
+
+		long from = address(1, 0);
+		if (!after.isEmpty()) {
+			long last = decodeCursor(after);
+			if (last < 0) {
+				warn(correlationId, "Ignored invalid paging cursor " + after);
+				return new DataPage<T>(total, new ArrayList<T>());
+			}
+			from = last + 1;
+		}
+
+		List<T> data = new ArrayList<T>(Math.min(take, 1024));
+		String next = null;
+		long last = -1;
+		for (long address = nextAddress(from); take > 0 && address >= 0; address = nextAddress(address + 1)) {
+			T item = readItem(address);
+			if (filter != null && !filter.test(item)) continue;
+
+			if (data.size() == take) {
+				next = encodeCursor(last);
+				break;
+			}
+			data.add(item);
+			last = address;
+		}
+		return new DataPage<T>(total, data, next);
+	}
+
+	private FileError readError(UncheckedIOException ex) {
+		return (FileError)new FileError(this, "ReadFailed", "Failed to decode item: " + ex.getCause())
+			.withCause(ex.getCause());
+	}
+
+	public DataPage<T> getPage(String correlationId, Predicate<T> filter, PagingParams paging, Comparator<T> sort)
+		throws MicroserviceError {
+		paging = paging != null ? paging : new PagingParams();
+		int skip = Math.max(0, paging.getSkip(-1));
+		int take = paging.getTake(_maxPageSize);
+		if (paging.getAfter() != null && sort != null)
+			throw new BadRequestError(this, "CursorNotSupported", "Cursor paging of sorted items is not supported")
+				.withDetails(paging.getAfter());
+
+		_lock.readLock().lock();
+		try {
+			if (paging.getAfter() != null)
+				return extractCursorPage(correlationId, filter, paging);
+
+			Stream<T> items = scan();
+			if (filter != null)
+				items = items.filter(filter);
+
+			return PageExtractor.extractPage(items, skip, take, paging.isTotal(), sort);
+		} catch (UncheckedIOException ex) {
+			throw readError(ex);
+		} catch (IOException ex) {
+			throw (FileError)new FileError(this, "ReadFailed", "Failed to decode item: " + ex)
+				.withCause(ex);
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	public List<T> getList(String correlationId, Predicate<T> filter, Comparator<T> sort) throws MicroserviceError {
+		_lock.readLock().lock();
+		try {
+			Stream<T> items = scan();
+			if (filter != null)
+				items = items.filter(filter);
+			if (sort != null)
+				items = items.sorted(sort);
+
+			return items.collect(Collectors.toList());
+		} catch (UncheckedIOException ex) {
+			throw readError(ex);
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	protected T getById(String correlationId, String id) throws MicroserviceError {
+		if (id == null) return null;
+
+		_lock.readLock().lock();
+		try {
+			int slot = _file != null ? findSlot(id) : -1;
+			return slot >= 0 ? readItem(_addresses[slot]) : null;
+		} catch (IOException ex) {
+			throw new FileError(this, "ReadFailed", "Failed to decode item " + id + ": " + ex)
+				.withDetails(id)
+				.withCause(ex);
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	protected T getRandom(String correlationId) throws MicroserviceError {
+		_lock.readLock().lock();
+		try {
+			if (_count == 0) return null;
+
+			int slot = _random.nextInt(_hashes.length);
+			while (_hashes[slot] == 0)
+				slot = (slot + 1) & (_hashes.length - 1);
+			return readItem(_addresses[slot]);
+		} catch (IOException ex) {
+			throw new FileError(this, "ReadFailed", "Failed to decode item: " + ex)
+				.withCause(ex);
+		} finally {
+			_lock.readLock().unlock();
+		}
+	}
+
+	/* Changes */
+
+	protected T create(String correlationId, T item) throws MicroserviceError {
+		_lock.writeLock().lock();
+		try {
+			checkCurrentState(State.Opened);
+
+			item.setId(item.getId() != null ? item.getId() : createUuid());
+			if (findSlot(item.getId()) >= 0)
+				throw new ConflictError(this, "DuplicateId", "Item with id " + item.getId() + " already exists")
+					.withDetails(item.getId());
+
+			byte[] record = encodeRecord(item.getId(), item);
+			int page = findPage(record.length + SlotSize);
+			int slot = placeRecord(page, -1, record);
+			insertSlot(hash(item.getId()), address(page, slot));
+
+			syncChanges();
+			return item;
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Writes a new version of the item. The record stays in the same page
+	 * when it fits there, otherwise it is moved to another page.
+	 * The new record is written into a new slot before the old one is released,
+	 * so a crash in between leaves a complete version of the item.
+	 * @param slot the index slot of the item.
+	 * @param item the new version of the item.
+	 * @throws MicroserviceError when writing fails.
+	 */
+	private void rewrite(int slot, T item) throws MicroserviceError {
+		byte[] record = encodeRecord(item.getId(), item);
+		long address = _addresses[slot];
+		int page = pageOf(address);
+
+		int newPage = _free[page] >= record.length + SlotSize ? page : findPage(record.length + SlotSize);
+		_addresses[slot] = address(newPage, placeRecord(newPage, -1, record));
+		releaseRecord(page, slotOf(address));
+
+		syncChanges();
+	}
+
+	protected T replace(String correlationId, String id, T newItem) throws MicroserviceError {
+		if (id == null) return null;
+
+		_lock.writeLock().lock();
+		try {
+			checkCurrentState(State.Opened);
+
+			int slot = findSlot(id);
+			if (slot < 0) return null;
+
+			newItem.setId(id);
+			rewrite(slot, newItem);
+			return newItem;
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	protected T update(String correlationId, String id, DynamicMap newValues) throws MicroserviceError {
+		if (id == null) return null;
+
+		_lock.writeLock().lock();
+		try {
+			checkCurrentState(State.Opened);
+
+			int slot = findSlot(id);
+			if (slot < 0) return null;
+
+			T item = readItem(_addresses[slot]);
+			newValues.assignTo(item);
+			item.setId(id);
+
+			rewrite(slot, item);
+			return item;
+		} catch (IOException ex) {
+			throw new FileError(this, "ReadFailed", "Failed to decode item " + id + ": " + ex)
+				.withDetails(id)
+				.withCause(ex);
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	protected T update(String correlationId, String id, Object newValues) throws MicroserviceError {
+		return update(correlationId, id, Converter.toNullableMap(newValues));
+	}
+
+	protected void delete(String correlationId, String id) throws MicroserviceError {
+		if (id == null) return;
+
+		_lock.writeLock().lock();
+		try {
+			checkCurrentState(State.Opened);
+
+			int slot = findSlot(id);
+			if (slot < 0) return;
+
+			long address = _addresses[slot];
+			releaseRecord(pageOf(address), slotOf(address));
+			removeSlot(slot);
+
+			syncChanges();
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public void clearTestData() throws MicroserviceError {
+		_lock.writeLock().lock();
+		try {
+			if (_file == null) return;
+
+			// Pages are reinitialized when they are allocated again
+			_pageCount = 1;
+			_insertPage = 0;
+			_sparsePages.clear();
+			_sparse.clear();
+			clearIndex();
+			writeFileHeader();
+			syncChanges();
+		} finally {
+			_lock.writeLock().unlock();
+		}
+	}
+
+}
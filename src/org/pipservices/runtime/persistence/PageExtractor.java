@@ -0,0 +1,103 @@
+package org.pipservices.runtime.persistence;
+
+import java.util.*;
+import java.util.stream.*;
+
+import org.pipservices.runtime.data.*;
+
+/**
+ * Extracts pages from streams of filtered items in persistence components.
+ * Pages are collected in a single pass that also counts the total,
+ * and sorted pages keep only skip + take items in a bounded heap
+ * instead of sorting all of them.
+ */
+final class PageExtractor {
+	private PageExtractor() {}
+
+	/**
+	 * Extracts a page from filtered items.
+	 * Without total the stream stops right after the page.
+	 * @param items the filtered items.
+	 * @param skip the number of items to skip.
+	 * @param take the number of items in the page.
+	 * @param total <b>true</b> to return the total number of items.
+	 * @param sort a comparator that sets the items order or <b>null</b> to keep scan order.
+	 * @return a page with items.
+	 */
+	public static <T> DataPage<T> extractPage(Stream<T> items, int skip, int take, boolean total, Comparator<T> sort) {
+		if (sort != null)
+			return extractSortedPage(items, skip, take, total, sort);
+
+		if (!total)
+			return new DataPage<T>(null, items.sequential().skip(skip).limit(take).collect(Collectors.toList()));
+
+		// Count all items and collect the page in a single pass
+		items = collectParallel(items);
+		List<T> data = new ArrayList<T>(Math.min(take, 1024));
+		int count = 0;
+		for (Iterator<T> iterator = items.iterator(); iterator.hasNext(); count++) {
+			T item = iterator.next();
+			if (count >= skip && data.size() < take)
+				data.add(item);
+		}
+
+		return new DataPage<T>(count, data);
+	}
+
+	/**
+	 * Extracts a page from items in sort order without sorting all of them.
+	 * Only skip + take smallest items are kept in a bounded heap during a single pass,
+	 * which also counts the total. Equal items keep their scan order.
+	 * @param items the filtered items.
+	 * @param skip the number of items to skip.
+	 * @param take the number of items in the page.
+	 * @param total <b>true</b> to return the total number of items.
+	 * @param sort a comparator that sets the items order.
+	 * @return a page with sorted items.
+	 */
+	public static <T> DataPage<T> extractSortedPage(Stream<T> items, int skip, int take, boolean total, Comparator<T> sort) {
+		int limit = (int)Math.min((long)skip + take, Integer.MAX_VALUE);
+		items = collectParallel(items);
+
+		// Items are numbered to keep scan order for equal items
+		Comparator<Map.Entry<Integer, T>> order = Comparator
+			.<Map.Entry<Integer, T>, T>comparing(Map.Entry::getValue, sort)
+			.thenComparing(Map.Entry::getKey);
+		// The top of the heap is the largest kept item to be replaced by a smaller one
+		PriorityQueue<Map.Entry<Integer, T>> heap =
+			new PriorityQueue<Map.Entry<Integer, T>>(Math.max(1, Math.min(limit, 1024)), order.reversed());
+
+		int count = 0;
+		for (Iterator<T> iterator = items.iterator(); iterator.hasNext(); count++) {
+			Map.Entry<Integer, T> entry = new AbstractMap.SimpleImmutableEntry<Integer, T>(count, iterator.next());
+			if (heap.size() < limit) {
+				heap.add(entry);
+			} else if (limit > 0 && order.compare(entry, heap.peek()) < 0) {
+				heap.poll();
+				heap.add(entry);
+			}
+		}
+
+		// The heap is drained from the largest item, so the page is filled from the end
+		int size = Math.max(0, heap.size() - skip);
+		List<T> data = new ArrayList<T>(Collections.<T>nCopies(size, null));
+		for (int index = heap.size() - 1; index >= 0; index--) {
+			T item = heap.poll().getValue();
+			if (index >= skip)
+				data.set(index - skip, item);
+		}
+
+		return new DataPage<T>(total ? count : null, data);
+	}
+
+	/**
+	 * Runs filtering of parallel stream to completion, so the page can be extracted
+	 * from the matching items in a sequential pass. Matches keep their encounter order.
+	 * @param items the filtered items.
+	 * @return a sequential stream of matching items.
+	 */
+	private static <T> Stream<T> collectParallel(Stream<T> items) {
+		if (!items.isParallel()) return items;
+		return items.collect(Collectors.toList()).stream();
+	}
+}
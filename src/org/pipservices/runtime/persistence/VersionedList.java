@@ -0,0 +1,392 @@
+package org.pipservices.runtime.persistence;
+
+import java.util.*;
+import java.util.function.*;
+
+/**
+ * Copy-on-write list that stores items in fixed-size segments.
+ * Every change publishes a new immutable version that shares unchanged segments
+ * with the previous one, so a change only copies the segment table and the changed
+ * segment instead of the whole list. Readers take the current version without locking
+ * and see it unchanged while writers continue. Writers are serialized by the list.
+ * Iteration and streams of the list itself run over the version current at their start.
+ *
+ * Besides list positions items are addressed by slots. Removed items leave empty slots,
+ * so slots of following items don't change and the order of items is kept.
+ * Empty slots are skipped by list methods, iteration and streams, and are dropped
+ * when the list is copied. Until then get() and set() by list positions
+ * have to count items in segments, so positional access shall use slots.
+ */
+class VersionedList<T> extends AbstractList<T> implements RandomAccess {
+	private final static int SegmentShift = 10;
+	private final static int SegmentSize = 1 << SegmentShift;
+	private final static int SegmentMask = SegmentSize - 1;
+
+	private volatile Version<T> _current;
+
+	/**
+	 * Creates an empty list.
+	 */
+	public VersionedList() {
+		_current = new Version<T>(new Object[0][], new int[0], 0, 0);
+	}
+
+	/**
+	 * Creates a list with items from a collection.
+	 * Empty slots of versioned lists are not copied.
+	 * @param items the initial items.
+	 */
+	public VersionedList(Collection<? extends T> items) {
+		Object[] values = items.toArray();
+		Object[][] segments = new Object[(values.length + SegmentMask) >>> SegmentShift][];
+		int[] counts = new int[segments.length];
+		for (int index = 0; index < segments.length; index++) {
+			int offset = index << SegmentShift;
+			segments[index] = Arrays.copyOfRange(values, offset, offset + SegmentSize);
+			counts[index] = Math.min(SegmentSize, values.length - offset);
+		}
+		_current = new Version<T>(segments, counts, values.length, values.length);
+	}
+
+	/**
+	 * Gets current version of the list.
+	 * @return an immutable list with current items.
+	 */
+	public List<T> snapshot() {
+		return _current;
+	}
+
+	@Override
+	public T get(int index) {
+		return _current.get(index);
+	}
+
+	@Override
+	public int size() {
+		return _current.size();
+	}
+
+	/**
+	 * Gets the number of slots including empty ones.
+	 * The next added item takes the slot with this number.
+	 * @return the number of slots.
+	 */
+	public int getSlotCount() {
+		return _current._slots;
+	}
+
+	/**
+	 * Gets the number of empty slots left by removed items.
+	 * @return the number of empty slots.
+	 */
+	public int getEmptySlotCount() {
+		Version<T> current = _current;
+		return current._slots - current._size;
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		return _current.iterator();
+	}
+
+	@Override
+	public Spliterator<T> spliterator() {
+		return _current.spliterator();
+	}
+
+	@Override
+	public synchronized T set(int index, T item) {
+		return setSlot(_current.slotOf(index), item);
+	}
+
+	/**
+	 * Replaces an item in a slot.
+	 * @param slot the slot of the item to replace.
+	 * @param item the new item.
+	 * @return the replaced item.
+	 */
+	public synchronized T setSlot(int slot, T item) {
+		Version<T> current = _current;
+		T previous = current.getSlot(slot);
+		if (previous == null)
+			throw new IndexOutOfBoundsException("Slot " + slot + " is empty");
+
+		Object[][] segments = current._segments.clone();
+		setItem(segments, current._segments, slot, item);
+
+		_current = new Version<T>(segments, current._counts, current._slots, current._size);
+		return previous;
+	}
+
+	/**
+	 * Replaces items in multiple slots and publishes them as a single version.
+	 * @param slots the slots of items to replace.
+	 * @param items the new items in the same order as slots.
+	 */
+	public synchronized void setSlots(int[] slots, List<T> items) {
+		Version<T> current = _current;
+		Object[][] segments = current._segments.clone();
+		for (int index = 0; index < slots.length; index++) {
+			if (current.getSlot(slots[index]) == null)
+				throw new IndexOutOfBoundsException("Slot " + slots[index] + " is empty");
+			setItem(segments, current._segments, slots[index], items.get(index));
+		}
+
+		_current = new Version<T>(segments, current._counts, current._slots, current._size);
+	}
+
+	@Override
+	public synchronized boolean add(T item) {
+		add(_current._size, item);
+		return true;
+	}
+
+	@Override
+	public synchronized void add(int index, T item) {
+		Version<T> current = _current;
+		if (index != current._size) {
+			// Inserts in the middle shift all following items
+			List<T> items = new ArrayList<T>(current);
+			items.add(index, item);
+			_current = new VersionedList<T>(items)._current;
+			modCount++;
+			return;
+		}
+
+		addAll(Collections.singletonList(item));
+	}
+
+	/**
+	 * Adds items to the end of the list and publishes them as a single version.
+	 * @param items the items to add.
+	 * @return <b>true</b> if the list was changed.
+	 */
+	@Override
+	public synchronized boolean addAll(Collection<? extends T> items) {
+		if (items.isEmpty()) return false;
+
+		Version<T> current = _current;
+		int slots = current._slots + items.size();
+		int length = (slots + SegmentMask) >>> SegmentShift;
+		Object[][] segments = Arrays.copyOf(current._segments, length);
+		int[] counts = Arrays.copyOf(current._counts, length);
+
+		int slot = current._slots;
+		for (T item : items) {
+			int position = slot >>> SegmentShift;
+			if (segments[position] == null)
+				segments[position] = new Object[SegmentSize];
+			setItem(segments, current._segments, slot++, item);
+			counts[position]++;
+		}
+
+		_current = new Version<T>(segments, counts, slots, current._size + items.size());
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public synchronized T remove(int index) {
+		return removeSlot(_current.slotOf(index));
+	}
+
+	/**
+	 * Removes an item and leaves its slot empty, so following items keep
+	 * their slots and order. Empty slots at the end are dropped.
+	 * @param slot the slot of the item to remove.
+	 * @return the removed item.
+	 */
+	public synchronized T removeSlot(int slot) {
+		Version<T> current = _current;
+		T previous = current.getSlot(slot);
+		if (previous == null)
+			throw new IndexOutOfBoundsException("Slot " + slot + " is empty");
+
+		Object[][] segments = current._segments.clone();
+		int[] counts = current._counts.clone();
+		setItem(segments, current._segments, slot, null);
+		counts[slot >>> SegmentShift]--;
+
+		int slots = current._slots;
+		if (slot == slots - 1) {
+			while (slots > 0 && segments[(slots - 1) >>> SegmentShift][(slots - 1) & SegmentMask] == null)
+				slots--;
+			int length = (slots + SegmentMask) >>> SegmentShift;
+			segments = Arrays.copyOf(segments, length);
+			counts = Arrays.copyOf(counts, length);
+		}
+
+		_current = new Version<T>(segments, counts, slots, current._size - 1);
+		modCount++;
+		return previous;
+	}
+
+	/**
+	 * Sets an item in a new segment table and copies its segment
+	 * unless it was already copied from the current version.
+	 */
+	private static void setItem(Object[][] segments, Object[][] original, int index, Object item) {
+		int position = index >>> SegmentShift;
+		if (position < original.length && segments[position] == original[position])
+			segments[position] = segments[position].clone();
+		segments[position][index & SegmentMask] = item;
+	}
+
+	@Override
+	public synchronized void clear() {
+		_current = new Version<T>(new Object[0][], new int[0], 0, 0);
+		modCount++;
+	}
+
+	/**
+	 * Gets an item by slot from a versioned list or its snapshot.
+	 * In other lists slots are the same as positions.
+	 * @param items the list or its snapshot.
+	 * @param slot the slot of the item.
+	 * @return the item or <b>null</b> if the slot is empty or out of range.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> T getSlot(List<T> items, int slot) {
+		if (items instanceof VersionedList)
+			return ((VersionedList<T>)items)._current.getSlot(slot);
+		if (items instanceof Version)
+			return ((Version<T>)items).getSlot(slot);
+		return slot >= 0 && slot < items.size() ? items.get(slot) : null;
+	}
+
+	/**
+	 * Immutable version of the list.
+	 */
+	private static class Version<T> extends AbstractList<T> implements RandomAccess {
+		private final Object[][] _segments;
+		// Numbers of items in segments
+		private final int[] _counts;
+		private final int _slots;
+		private final int _size;
+
+		public Version(Object[][] segments, int[] counts, int slots, int size) {
+			_segments = segments;
+			_counts = counts;
+			_slots = slots;
+			_size = size;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public T get(int index) {
+			int slot = slotOf(index);
+			return (T)_segments[slot >>> SegmentShift][slot & SegmentMask];
+		}
+
+		@SuppressWarnings("unchecked")
+		public T getSlot(int slot) {
+			if (slot < 0 || slot >= _slots) return null;
+			return (T)_segments[slot >>> SegmentShift][slot & SegmentMask];
+		}
+
+		/**
+		 * Finds the slot of an item at a list position.
+		 * Without empty slots they are the same.
+		 */
+		public int slotOf(int index) {
+			if (index < 0 || index >= _size)
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _size);
+			if (_size == _slots) return index;
+
+			int position = 0;
+			while (index >= _counts[position])
+				index -= _counts[position++];
+
+			Object[] segment = _segments[position];
+			for (int offset = 0; ; offset++) {
+				if (segment[offset] != null && index-- == 0)
+					return (position << SegmentShift) + offset;
+			}
+		}
+
+		@Override
+		public int size() {
+			return _size;
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return Spliterators.iterator(spliterator());
+		}
+
+		@Override
+		public Spliterator<T> spliterator() {
+			return new SegmentSpliterator<T>(_segments, 0, _slots, _size == _slots);
+		}
+	}
+
+	/**
+	 * Spliterator over a range of slots in a version that skips empty slots.
+	 * It splits ranges at segment boundaries, so parallel tasks don't share segments.
+	 */
+	private static class SegmentSpliterator<T> implements Spliterator<T> {
+		private final Object[][] _segments;
+		private int _index;
+		private final int _fence;
+		private final boolean _full;
+
+		public SegmentSpliterator(Object[][] segments, int index, int fence, boolean full) {
+			_segments = segments;
+			_index = index;
+			_fence = fence;
+			_full = full;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public boolean tryAdvance(Consumer<? super T> action) {
+			while (_index < _fence) {
+				int index = _index++;
+				Object item = _segments[index >>> SegmentShift][index & SegmentMask];
+				if (item != null) {
+					action.accept((T)item);
+					return true;
+				}
+			}
+			return false;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public void forEachRemaining(Consumer<? super T> action) {
+			int index = _index;
+			_index = _fence;
+			while (index < _fence) {
+				Object[] segment = _segments[index >>> SegmentShift];
+				int end = Math.min(_fence, (index | SegmentMask) + 1);
+				for (; index < end; index++) {
+					Object item = segment[index & SegmentMask];
+					if (item != null) action.accept((T)item);
+				}
+			}
+		}
+
+		@Override
+		public Spliterator<T> trySplit() {
+			int middle = (_index + _fence) >>> 1;
+			if (middle - _index >= SegmentSize)
+				middle &= ~SegmentMask;
+			if (middle <= _index) return null;
+
+			Spliterator<T> prefix = new SegmentSpliterator<T>(_segments, _index, middle, _full);
+			_index = middle;
+			return prefix;
+		}
+
+		@Override
+		public long estimateSize() {
+			return _fence - _index;
+		}
+
+		@Override
+		public int characteristics() {
+			// Ranges with empty slots have fewer items than slots
+			return _full ? ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL : ORDERED | IMMUTABLE | NONNULL;
+		}
+	}
+}
@@ -2,7 +2,12 @@ package org.pipservices.runtime.cache;
 
 import static org.junit.Assert.*;
 
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
 import org.pipservices.runtime.*;
+import org.pipservices.runtime.errors.*;
 
 public class CacheFixture {
     private ICache _cache;
@@ -60,5 +65,85 @@ public class CacheFixture {
     	value = _cache.retrieve("test");
     	assertNull(value);
     }
+
+    public void testStoreWithTimeout(int timeout) {
+    	// Set values with individual and default timeouts
+    	_cache.store("short", 123, timeout);
+    	_cache.store("long", "ABC");
+    	
+    	assertEquals(123, _cache.retrieve("short"));
+    	assertEquals("ABC", _cache.retrieve("long"));
+
+    	// Wait
+    	try {
+    		Thread.sleep(2 * timeout);
+    	} catch (Exception ex) {
+    		// Ignore..
+    	}
+
+    	// Only the short-living value shall expire
+    	assertNull(_cache.retrieve("short"));
+    	assertEquals("ABC", _cache.retrieve("long"));
+    }
+    
+    public void testBatchOperations() {
+    	// Store values in a batch
+    	Map<String, Object> values = new HashMap<String, Object>();
+    	for (int index = 0; index < 20; index++)
+    		values.put("key" + index, index);
+    	_cache.storeAll(values);
+
+    	// Read values in a batch including a missing key
+    	List<String> keys = new ArrayList<String>(values.keySet());
+    	keys.add("missing");
+    	Map<String, Object> result = _cache.retrieveAll(keys);
+    	assertEquals(values, result);
+
+    	// Remove some values in a batch
+    	Map<String, Object> updates = new HashMap<String, Object>();
+    	updates.put("key0", null);
+    	updates.put("key1", "ABC");
+    	_cache.storeAll(updates);
+
+    	assertNull(_cache.retrieve("key0"));
+    	assertEquals("ABC", _cache.retrieve("key1"));
+    	assertEquals(19, _cache.retrieveAll(keys).size());
+    }
+    
+    public void testGetOrLoad() throws Exception {
+    	AtomicInteger loads = new AtomicInteger();
+    	ICacheLoader loader = (key) -> {
+    		loads.incrementAndGet();
+    		try {
+    			Thread.sleep(200);
+    		} catch (InterruptedException ex) {
+    			// Ignore..
+    		}
+    		return "loaded:" + key;
+    	};
+
+    	// Concurrent misses shall be coalesced into a single load
+    	ExecutorService executor = Executors.newFixedThreadPool(8);
+    	List<Future<Object>> results = new ArrayList<Future<Object>>();
+    	for (int index = 0; index < 8; index++)
+    		results.add(executor.submit(() -> _cache.getOrLoad("test", loader)));
+    	for (Future<Object> result : results)
+    		assertEquals("loaded:test", result.get());
+    	executor.shutdown();
+
+    	assertEquals(1, loads.get());
+    	assertEquals("loaded:test", _cache.retrieve("test"));
+
+    	// Loader errors shall be passed to the caller
+    	try {
+    		_cache.getOrLoad("error", (key) -> {
+    			throw new NotFoundError("NotFound", "Value not found");
+    		});
+    		fail("Expected loading error");
+    	} catch (NotFoundError ex) {
+    		// Ok..
+    	}
+    	assertNull(_cache.retrieve("error"));
+    }
     
-}
\ No newline at end of file
+}
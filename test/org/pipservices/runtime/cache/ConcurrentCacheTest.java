@@ -0,0 +1,157 @@
+package org.pipservices.runtime.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import org.junit.*;
+import org.pipservices.runtime.config.*;
+
+public class ConcurrentCacheTest {
+	private ConcurrentCache cache;
+	private CacheFixture fixture;
+	
+	@Before
+	public void setUp() throws Exception {
+		ComponentConfig config = ComponentConfig.fromTuples(
+			"options.timeout", 500,
+			"options.max_size", 1000,
+			"options.segments", 8
+		);
+		cache = new ConcurrentCache();
+		cache.configure(config);
+		fixture = new CacheFixture(cache);
+	}
+	
+	@Test
+	public void testBasicOperations() {
+		fixture.testBasicOperations();
+	}
+
+	@Test
+	public void testReadAfterTimeout() {
+		fixture.testReadAfterTimeout(1000);
+	}
+
+	@Test
+	public void testStoreWithTimeout() {
+		fixture.testStoreWithTimeout(100);
+	}
+
+	@Test
+	public void testBatchOperations() {
+		fixture.testBatchOperations();
+	}
+
+	@Test
+	public void testGetOrLoad() throws Exception {
+		fixture.testGetOrLoad();
+	}
+
+	@Test
+	public void testConcurrentAccess() throws Exception {
+		final int threads = 8;
+		final int operations = 50000;
+		final AtomicInteger errors = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		
+		List<Thread> workers = new ArrayList<Thread>();
+		for (int t = 0; t < threads; t++) {
+			final int seed = t;
+			Thread worker = new Thread() {
+				@Override
+				public void run() {
+					Random random = new Random(seed);
+					try {
+						start.await();
+						for (int i = 0; i < operations; i++) {
+							int number = random.nextInt(5000);
+							String key = "key" + number;
+							int operation = random.nextInt(10);
+							if (operation < 6) {
+								Object value = cache.retrieve(key);
+								// Values are always stored under the matching key
+								if (value != null && !value.equals(number))
+									errors.incrementAndGet();
+							} else if (operation < 9) {
+								cache.store(key, number);
+							} else {
+								cache.remove(key);
+							}
+						}
+					} catch (Exception ex) {
+						errors.incrementAndGet();
+					}
+				}
+			};
+			workers.add(worker);
+			worker.start();
+		}
+		
+		start.countDown();
+		for (Thread worker : workers)
+			worker.join();
+		
+		assertEquals(0, errors.get());
+		assertTrue(cache.getSize() <= 1000);
+		
+		// Size accounting must match the actual content
+		int count = 0;
+		for (int i = 0; i < 5000; i++) {
+			if (cache.retrieve("key" + i) != null) count++;
+		}
+		assertEquals(count, cache.getSize());
+	}
+
+	@Test
+	public void testMaxSizeIsSplitExactly() throws Exception {
+		ConcurrentCache cache = new ConcurrentCache();
+		cache.configure(ComponentConfig.fromTuples(
+			"options.max_size", 1000,
+			"options.segments", 128
+		));
+
+		// Enough keys to fill every segment
+		for (int i = 0; i < 100000; i++)
+			cache.store("key" + i, i);
+		assertEquals(1000, cache.getSize());
+
+		// Max size smaller than number of segments
+		cache = new ConcurrentCache();
+		cache.configure(ComponentConfig.fromTuples(
+			"options.max_size", 3,
+			"options.segments", 16
+		));
+		for (int i = 0; i < 1000; i++)
+			cache.store("key" + i, i);
+		assertEquals(3, cache.getSize());
+	}
+
+	@Test
+	public void testEvictionListenerOutsideLock() throws Exception {
+		ConcurrentCache cache = new ConcurrentCache();
+		cache.configure(ComponentConfig.fromTuples(
+			"options.max_size", 1,
+			"options.segments", 1
+		));
+
+		// Another thread can use the segment while the listener runs
+		AtomicInteger demoted = new AtomicInteger();
+		cache.setEvictionListener((entry) -> {
+			Future<?> other = ForkJoinPool.commonPool().submit(() -> cache.retrieve(entry.getKey()));
+			try {
+				other.get(5, TimeUnit.SECONDS);
+				demoted.incrementAndGet();
+			} catch (Exception ex) {
+				// Segment is still locked
+			}
+		});
+
+		cache.store("key1", 1);
+		cache.store("key2", 2);
+		cache.store("key3", 3);
+		assertEquals(2, demoted.get());
+	}
+}
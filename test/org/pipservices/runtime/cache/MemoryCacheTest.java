@@ -1,8 +1,14 @@
 package org.pipservices.runtime.cache;
 
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.*;
+
 import org.junit.*;
 import org.pipservices.runtime.*;
 import org.pipservices.runtime.config.*;
+import org.pipservices.runtime.counters.*;
+import org.pipservices.runtime.portability.*;
 
 public class MemoryCacheTest {
 	private ICache cache;
@@ -25,4 +31,239 @@ public class MemoryCacheTest {
 	public void testReadAfterTimeout() {
 		fixture.testReadAfterTimeout(1000);
 	}
+
+	@Test
+	public void testStoreWithTimeout() {
+		fixture.testStoreWithTimeout(100);
+	}
+
+	@Test
+	public void testBatchOperations() {
+		fixture.testBatchOperations();
+	}
+
+	@Test
+	public void testGetOrLoad() throws Exception {
+		fixture.testGetOrLoad();
+	}
+
+	private ICache createCache(String eviction, int maxSize) throws Exception {
+		ICache cache = new MemoryCache();
+		cache.configure(ComponentConfig.fromTuples(
+			"options.eviction", eviction,
+			"options.max_size", maxSize
+		));
+		return cache;
+	}
+
+	@Test
+	public void testLruEviction() throws Exception {
+		ICache cache = createCache("lru", 3);
+		cache.store("a", 1);
+		cache.store("b", 2);
+		cache.store("c", 3);
+
+		// Touch the oldest entry so it becomes most recently used
+		assertEquals(1, cache.retrieve("a"));
+
+		cache.store("d", 4);
+		assertNull(cache.retrieve("b"));
+		assertEquals(1, cache.retrieve("a"));
+		assertEquals(3, cache.retrieve("c"));
+		assertEquals(4, cache.retrieve("d"));
+	}
+
+	@Test
+	public void testLfuEviction() throws Exception {
+		ICache cache = createCache("lfu", 3);
+		cache.store("a", 1);
+		cache.store("b", 2);
+		cache.store("c", 3);
+
+		// Make everything except 'b' frequently used
+		for (int i = 0; i < 3; i++) {
+			cache.retrieve("a");
+			cache.retrieve("c");
+		}
+
+		cache.store("d", 4);
+		assertNull(cache.retrieve("b"));
+		assertEquals(1, cache.retrieve("a"));
+		assertEquals(3, cache.retrieve("c"));
+		assertEquals(4, cache.retrieve("d"));
+	}
+
+	@Test
+	public void testTinyLfuEviction() throws Exception {
+		ICache cache = createCache("tinylfu", 100);
+
+		// Populate the cache and make keys popular
+		for (int i = 0; i < 100; i++) {
+			cache.store("hot" + i, i);
+			cache.retrieve("hot" + i);
+			cache.retrieve("hot" + i);
+		}
+
+		// Scan through a lot of one-hit keys
+		for (int i = 0; i < 1000; i++)
+			cache.store("cold" + i, i);
+
+		// Popular keys must survive the scan
+		int hits = 0;
+		for (int i = 0; i < 100; i++) {
+			if (cache.retrieve("hot" + i) != null) hits++;
+		}
+		assertTrue(hits > 90);
+	}
+
+	@Test
+	public void testMaxSizeIsEnforced() throws Exception {
+		for (String eviction : new String[] { "lru", "lfu", "tinylfu" }) {
+			ICache cache = createCache(eviction, 1000);
+			for (int i = 0; i < 100000; i++)
+				cache.store("key" + i, i);
+
+			int count = 0;
+			for (int i = 0; i < 100000; i++) {
+				if (cache.retrieve("key" + i) != null) count++;
+			}
+			assertEquals(1000, count);
+		}
+	}
+
+	@Test
+	public void testBackgroundCleanup() throws Exception {
+		MemoryCache cache = new MemoryCache();
+		cache.configure(ComponentConfig.fromTuples(
+			"options.timeout", 100,
+			"options.cleanup_interval", 50
+		));
+		cache.link(new DynamicMap(), new ComponentSet());
+		cache.open();
+		try {
+			for (int i = 0; i < 100; i++)
+				cache.store("key" + i, i);
+			cache.store("forever", 1, 60000);
+			assertEquals(101, cache.getSize());
+
+			// Expired entries shall be removed without being accessed
+			Thread.sleep(500);
+			assertEquals(1, cache.getSize());
+			assertEquals(1, cache.retrieve("forever"));
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testRefreshAhead() throws Exception {
+		MemoryCache cache = new MemoryCache();
+		cache.configure(ComponentConfig.fromTuples(
+			"options.timeout", 400,
+			"options.refresh_ahead", 0.5
+		));
+		cache.link(new DynamicMap(), new ComponentSet());
+		cache.open();
+		try {
+			AtomicInteger version = new AtomicInteger();
+			ICacheLoader loader = (key) -> version.incrementAndGet();
+
+			assertEquals(1, cache.getOrLoad("key", loader));
+
+			// Value is returned immediately and reloaded in background
+			Thread.sleep(250);
+			assertEquals(1, cache.getOrLoad("key", loader));
+			Thread.sleep(100);
+			assertEquals(2, cache.retrieve("key"));
+
+			// Refreshed value shall not expire at the original time
+			Thread.sleep(200);
+			assertEquals(2, cache.retrieve("key"));
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testRefreshAheadWithEntryTimeout() throws Exception {
+		MemoryCache cache = new MemoryCache();
+		cache.configure(ComponentConfig.fromTuples(
+			"options.timeout", 60000,
+			"options.refresh_ahead", 0.5
+		));
+		cache.link(new DynamicMap(), new ComponentSet());
+		cache.open();
+		try {
+			AtomicInteger version = new AtomicInteger(1);
+			ICacheLoader loader = (key) -> version.get() < 3 ? version.incrementAndGet() : null;
+
+			// Refreshed value keeps the timeout of the entry
+			cache.store("key", 1, 400);
+			Thread.sleep(250);
+			assertEquals(1, cache.getOrLoad("key", loader));
+			Thread.sleep(100);
+			assertEquals(2, cache.retrieve("key"));
+			Thread.sleep(500);
+			assertNull(cache.retrieve("key"));
+
+			// Value that no longer exists is removed on refresh
+			cache.store("key", 2, 400);
+			Thread.sleep(250);
+			assertEquals(2, cache.getOrLoad("key", loader));
+			Thread.sleep(100);
+			assertEquals(3, cache.retrieve("key"));
+			Thread.sleep(250);
+			assertEquals(3, cache.getOrLoad("key", loader));
+			Thread.sleep(100);
+			assertNull(cache.retrieve("key"));
+		} finally {
+			cache.close();
+		}
+	}
+
+	@Test
+	public void testStatistics() throws Exception {
+		LogCounters counters = new LogCounters();
+		counters.configure(new ComponentConfig());
+		counters.link(new DynamicMap(), new ComponentSet());
+
+		MemoryCache cache = new MemoryCache();
+		cache.configure(ComponentConfig.fromTuples(
+			"options.max_size", 10,
+			"options.timeout", 60000
+		));
+		cache.link(new DynamicMap(), ComponentSet.fromComponents(counters));
+
+		for (int i = 0; i < 20; i++)
+			cache.store("key" + i, i);
+		for (int i = 0; i < 20; i++)
+			cache.retrieve("key" + i);
+
+		CacheStats stats = cache.getStats();
+		assertEquals(10, stats.getHits());
+		assertEquals(10, stats.getMisses());
+		assertEquals(10, stats.getEvictions());
+		assertEquals(0.5, stats.getHitRatio(), 0.001);
+
+		cache.publishStats();
+		assertEquals(10, (int)counters.get("cache.memory.hits", CounterType.Increment).getCount());
+		assertEquals(10, (int)counters.get("cache.memory.evictions", CounterType.Increment).getCount());
+		assertEquals(10, counters.get("cache.memory.size", CounterType.LastValue).getLast(), 0.001);
+		assertTrue(counters.get("cache.memory.bytes", CounterType.LastValue).getLast() > 0);
+	}
+
+	@Test
+	public void testLoadStatistics() throws Exception {
+		MemoryCache cache = new MemoryCache();
+		cache.configure(new ComponentConfig());
+
+		// Cold load is counted as a single miss
+		assertEquals(1, cache.getOrLoad("key", (key) -> 1));
+		assertEquals(1, cache.getOrLoad("key", (key) -> 2));
+
+		CacheStats stats = cache.getStats();
+		assertEquals(1, stats.getHits());
+		assertEquals(1, stats.getMisses());
+		assertEquals(1, stats.getLoads());
+	}
 }
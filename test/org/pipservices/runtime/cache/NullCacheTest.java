@@ -0,0 +1,38 @@
+package org.pipservices.runtime.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+import org.pipservices.runtime.*;
+import org.pipservices.runtime.config.*;
+import org.pipservices.runtime.portability.*;
+
+public class NullCacheTest {
+	private NullCache cache;
+
+	@Before
+	public void setUp() throws Exception {
+		cache = new NullCache();
+		cache.configure(new ComponentConfig());
+		cache.link(new DynamicMap(), new ComponentSet());
+		cache.open();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		cache.close();
+	}
+
+	@Test
+	public void testStatistics() {
+		cache.store("key1", "value1");
+		assertNull(cache.retrieve("key1"));
+		assertEquals(0, cache.retrieveAll(Arrays.asList("key1", "key2", "key3")).size());
+
+		CacheStats stats = cache.getStats();
+		assertEquals(0, stats.getHits());
+		assertEquals(4, stats.getMisses());
+	}
+}
@@ -0,0 +1,107 @@
+package org.pipservices.runtime.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+import org.pipservices.runtime.*;
+import org.pipservices.runtime.config.*;
+import org.pipservices.runtime.portability.*;
+
+public class OffHeapCacheTest {
+	private OffHeapCache cache;
+	private CacheFixture fixture;
+
+	@Before
+	public void setUp() throws Exception {
+		ComponentConfig config = ComponentConfig.fromTuples(
+			"options.timeout", 500,
+			"options.slab_size", 4096,
+			"options.slabs", 4
+		);
+		cache = new OffHeapCache();
+		cache.configure(config);
+		cache.link(new DynamicMap(), new ComponentSet());
+		cache.open();
+		fixture = new CacheFixture(cache);
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		cache.close();
+	}
+
+	@Test
+	public void testBasicOperations() {
+		fixture.testBasicOperations();
+	}
+
+	@Test
+	public void testReadAfterTimeout() {
+		fixture.testReadAfterTimeout(1000);
+	}
+
+	@Test
+	public void testStoreWithTimeout() {
+		fixture.testStoreWithTimeout(100);
+	}
+
+	@Test
+	public void testBatchOperations() {
+		fixture.testBatchOperations();
+	}
+
+	@Test
+	public void testGetOrLoad() throws Exception {
+		fixture.testGetOrLoad();
+	}
+
+	@Test
+	public void testStoreObjects() {
+		Map<String, Object> map = new HashMap<String, Object>();
+		map.put("name", "ABC");
+		map.put("count", 5);
+
+		cache.store("map", map);
+		cache.store("list", new ArrayList<Object>(Arrays.asList(1, 2, 3)));
+
+		assertEquals(map, cache.retrieve("map"));
+		assertEquals(Arrays.asList(1, 2, 3), cache.retrieve("list"));
+	}
+
+	@Test
+	public void testOldestSlabIsEvicted() {
+		// Each record takes about 50 bytes, so 1000 records overflow 4 slabs of 4K
+		for (int index = 0; index < 1000; index++)
+			cache.store("key" + index, index);
+
+		assertTrue(cache.getSize() < 1000);
+		assertNull(cache.retrieve("key0"));
+		assertEquals(999, cache.retrieve("key999"));
+
+		// Every indexed key still resolves to its own value
+		for (int index = 0; index < 1000; index++) {
+			Object value = cache.retrieve("key" + index);
+			if (value != null)
+				assertEquals(index, value);
+		}
+	}
+
+	@Test
+	public void testOverwriteAndRemove() {
+		for (int index = 0; index < 100; index++)
+			cache.store("key", index);
+		assertEquals(1, cache.getSize());
+		assertEquals(99, cache.retrieve("key"));
+
+		for (int index = 0; index < 50; index++)
+			cache.store("key" + index, index);
+		for (int index = 0; index < 50; index += 2)
+			cache.remove("key" + index);
+
+		assertEquals(26, cache.getSize());
+		for (int index = 1; index < 50; index += 2)
+			assertEquals(index, cache.retrieve("key" + index));
+	}
+}
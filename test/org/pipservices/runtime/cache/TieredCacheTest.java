@@ -0,0 +1,174 @@
+package org.pipservices.runtime.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.*;
+import org.pipservices.runtime.*;
+import org.pipservices.runtime.config.*;
+import org.pipservices.runtime.portability.*;
+
+public class TieredCacheTest {
+	private MemoryCache l1;
+	private OffHeapCache l2;
+	private TieredCache cache;
+
+	private void createCache(Object... options) throws Exception {
+		createCache(new OffHeapCache(), options);
+	}
+
+	private void createCache(OffHeapCache far, Object... options) throws Exception {
+		l1 = new MemoryCache();
+		l1.configure(ComponentConfig.fromTuples("options.max_size", 10));
+		l2 = far;
+		l2.configure(ComponentConfig.fromTuples("options.slab_size", 65536, "options.slabs", 2));
+		cache = new TieredCache();
+		cache.configure(ComponentConfig.fromTuples(options));
+
+		ComponentSet components = ComponentSet.fromComponents(l1, l2, cache);
+		for (IComponent component : components.getAllOrdered())
+			component.link(new DynamicMap(), components);
+		for (IComponent component : components.getAllOrdered())
+			component.open();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		if (cache != null) cache.close();
+		if (l2 != null) l2.close();
+		if (l1 != null) l1.close();
+	}
+
+	@Test
+	public void testBasicOperations() throws Exception {
+		createCache();
+		new CacheFixture(cache).testBasicOperations();
+	}
+
+	@Test
+	public void testBatchOperations() throws Exception {
+		createCache();
+		new CacheFixture(cache).testBatchOperations();
+	}
+
+	@Test
+	public void testPromotion() throws Exception {
+		createCache("options.promote", true);
+
+		l2.store("key", "value");
+		assertNull(l1.retrieve("key"));
+
+		assertEquals("value", cache.retrieve("key"));
+		assertEquals("value", l1.retrieve("key"));
+
+		assertEquals("value", cache.retrieve("key"));
+		assertEquals(0.5, cache.getL1HitRatio(), 0.001);
+		assertEquals(1.0, cache.getL2HitRatio(), 0.001);
+	}
+
+	@Test
+	public void testDemotion() throws Exception {
+		createCache("options.write_mode", "none", "options.demote", true);
+
+		for (int index = 0; index < 20; index++)
+			cache.store("key" + index, index);
+
+		assertTrue(l1.getSize() <= 10);
+		assertEquals(10, l2.getSize());
+		for (int index = 0; index < 20; index++)
+			assertEquals(index, cache.retrieve("key" + index));
+	}
+
+	@Test
+	public void testDemotionKeepsTimeout() throws Exception {
+		createCache("options.write_mode", "none", "options.demote", true);
+
+		cache.store("key0", 0, 200);
+		for (int index = 1; index <= 10; index++)
+			cache.store("key" + index, index);
+		assertNull(l1.retrieve("key0"));
+		assertEquals(0, l2.retrieve("key0"));
+
+		Thread.sleep(300);
+		assertNull(l2.retrieve("key0"));
+	}
+
+	@Test
+	public void testDemotionBeforeRemoval() throws Exception {
+		CountDownLatch demoting = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		createCache(new OffHeapCache() {
+			@Override
+			public Object store(String key, Object value, long timeout) {
+				if ("key0".equals(key)) {
+					demoting.countDown();
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return super.store(key, value, timeout);
+			}
+		}, "options.write_mode", "none", "options.demote", true);
+
+		cache.store("key0", 0);
+		Thread evicting = new Thread(() -> {
+			for (int index = 1; index <= 10; index++)
+				cache.store("key" + index, index);
+		});
+		evicting.start();
+		assertTrue(demoting.await(5, TimeUnit.SECONDS));
+
+		// Removal waits until the running demotion completes
+		Thread removing = new Thread(() -> cache.remove("key0"));
+		removing.start();
+		for (int attempt = 0; attempt < 500 && removing.getState() != Thread.State.BLOCKED; attempt++)
+			Thread.sleep(10);
+		assertEquals(Thread.State.BLOCKED, removing.getState());
+
+		release.countDown();
+		evicting.join();
+		removing.join();
+
+		// Removed value is not resurrected by the demotion
+		assertNull(l2.retrieve("key0"));
+		assertNull(cache.retrieve("key0"));
+	}
+
+	@Test
+	public void testWriteBehind() throws Exception {
+		createCache("options.write_mode", "behind", "options.flush_interval", 0);
+
+		cache.store("key1", "value1");
+		cache.store("key2", "value2");
+		cache.remove("key2");
+		assertNull(l2.retrieve("key1"));
+
+		l1.remove("key1");
+		assertEquals("value1", cache.retrieve("key1"));
+
+		cache.flush();
+		assertEquals("value1", l2.retrieve("key1"));
+		assertNull(l2.retrieve("key2"));
+	}
+
+	@Test
+	public void testPendingRemovalIsMiss() throws Exception {
+		createCache("options.write_mode", "behind", "options.flush_interval", 0);
+
+		l2.store("key1", "value1");
+		l2.store("key2", "value2");
+		cache.remove("key1");
+		cache.remove("key2");
+
+		// Values queued for removal are still in L2 but shall not be found
+		assertNull(cache.retrieve("key1"));
+		assertEquals(0, cache.retrieveAll(Arrays.asList("key1", "key2")).size());
+		assertEquals(0, cache.getL2HitRatio(), 0.001);
+		assertEquals(0, cache.getStats().getHits());
+		assertEquals(3, cache.getStats().getMisses());
+	}
+}
@@ -0,0 +1,91 @@
+package org.pipservices.runtime.clients;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import javax.ws.rs.core.*;
+
+import org.junit.*;
+
+import org.pipservices.runtime.*;
+import org.pipservices.runtime.config.*;
+import org.pipservices.runtime.data.*;
+import org.pipservices.runtime.errors.*;
+import org.pipservices.runtime.logic.*;
+import org.pipservices.runtime.persistence.*;
+import org.pipservices.runtime.portability.DynamicMap;
+import org.pipservices.runtime.services.*;
+
+public class DummyRestBindingTest {
+    private DummyMemoryPersistence db;
+    private DummyController ctrl;
+    private DummyRestService api;
+    private DummyRestClient client;
+
+	@Before
+	public void setUp() throws Exception {
+        db = new DummyMemoryPersistence();
+        db.configure(new ComponentConfig());
+        ctrl = new DummyController();
+        ctrl.configure(new ComponentConfig());
+        api = new DummyRestService();
+        api.configure(new ComponentConfig());
+        client = new DummyRestClient();
+
+        ComponentSet components = ComponentSet.fromComponents(db, ctrl, api);
+        for (IComponent component : components.getAllOrdered())
+        	component.link(new DynamicMap(), components);
+        db.open();
+        ctrl.open();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		ctrl.close();
+		db.close();
+	}
+
+	// Binds query parameters written by the client to the service method without HTTP server
+	private DataPage<Dummy> getDummies(FilterParams filter, PagingParams paging) throws MicroserviceError {
+		MultivaluedMap<String, String> params = client.createQueryParams();
+		client.addCorrelationId(params, "123");
+		client.addFilterParams(params, filter);
+		client.addPagingParams(params, paging);
+
+		return api.getDummies(
+			params.getFirst("correlation_id"), params.getFirst("key"),
+			params.getFirst("skip"), params.getFirst("take"),
+			params.getFirst("total"), params.getFirst("after")
+		);
+	}
+
+	@Test
+	public void testCursorPaging() throws MicroserviceError {
+		for (int index = 0; index < 5; index++)
+			db.createDummy(null, new Dummy("id" + index, "Key " + (index % 2), "Content " + index));
+
+		// Cursor is passed in 'after' parameter and walks all pages
+		List<String> ids = new ArrayList<String>();
+		DataPage<Dummy> page = getDummies(null, new PagingParams(null, 2, true, ""));
+		assertEquals(5, (int)page.getTotal());
+		while (true) {
+			for (Dummy dummy : page.getData())
+				ids.add(dummy.getId());
+			if (page.getNext() == null) break;
+			page = getDummies(null, new PagingParams(null, 2, false, page.getNext()));
+		}
+		assertEquals(Arrays.asList("id0", "id1", "id2", "id3", "id4"), ids);
+
+		// Filter is passed together with the cursor
+		page = getDummies(FilterParams.fromTuples("key", "Key 1"), new PagingParams(null, 1, false, ""));
+		assertEquals("id1", page.getData().get(0).getId());
+		page = getDummies(FilterParams.fromTuples("key", "Key 1"), new PagingParams(null, 1, false, page.getNext()));
+		assertEquals("id3", page.getData().get(0).getId());
+
+		// Without cursor pages are addressed by skip and take
+		page = getDummies(null, new PagingParams(3, 5, false));
+		assertEquals(2, page.getData().size());
+		assertNull(page.getNext());
+	}
+}
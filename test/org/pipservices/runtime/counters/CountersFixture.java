@@ -62,4 +62,73 @@ public class CountersFixture {
 
         _counters.dump();
     }
+
+    public void testConcurrentCounters() throws MicroserviceError {
+        int threadCount = 4;
+        int callCount = 10000;
+
+        Thread[] threads = new Thread[threadCount];
+        for (int index = 0; index < threadCount; index++) {
+            final int offset = index;
+            threads[index] = new Thread(() -> {
+                for (int call = 0; call < callCount; call++) {
+                    _counters.incrementOne("Test.Concurrent.Increment");
+                    _counters.stats("Test.Concurrent.Statistics", offset);
+                }
+            });
+            threads[index].start();
+        }
+
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                fail("Interrupted");
+            }
+        }
+
+        Counter counter = _counters.get("Test.Concurrent.Increment", CounterType.Increment);
+        assertEquals(threadCount * callCount, (int)counter.getCount());
+
+        counter = _counters.get("Test.Concurrent.Statistics", CounterType.Statistics);
+        assertEquals(threadCount * callCount, (int)counter.getCount());
+        assertEquals(0, counter.getMin(), 0.001);
+        assertEquals(threadCount - 1, counter.getMax(), 0.001);
+        assertEquals((threadCount - 1) / 2.0, counter.getAvg(), 0.001);
+
+        // Counters returned by get() are snapshots
+        counter.setCount(0);
+        counter = _counters.get("Test.Concurrent.Statistics", CounterType.Statistics);
+        assertEquals(threadCount * callCount, (int)counter.getCount());
+
+        _counters.dump();
+    }
+
+    public void testHistograms() throws MicroserviceError {
+        for (int value = 1; value <= 1000; value++)
+            _counters.histogram("Test.Histogram", value);
+
+        Counter counter = _counters.get("Test.Histogram", CounterType.Histogram);
+        assertEquals(1000, (int)counter.getCount());
+        assertEquals(500.5, counter.getAvg(), 0.001);
+        assertEquals(500, counter.getP50(), 5);
+        assertEquals(900, counter.getP90(), 9);
+        assertEquals(990, counter.getP99(), 10);
+        assertEquals(999, counter.getP999(), 10);
+        assertTrue(counter.getP999() <= counter.getMax());
+
+        // Sub-millisecond timings keep their resolution
+        for (int index = 0; index < 100; index++)
+            _counters.recordTiming("Test.Histogram.Elapsed", 250000);
+
+        counter = _counters.get("Test.Histogram.Elapsed", CounterType.Interval);
+        assertEquals(0.25, counter.getP50(), 0.01);
+        assertEquals(0.25, counter.getP99(), 0.01);
+
+        // Statistics counters don't keep histograms
+        _counters.stats("Test.Histogram.Statistics", 1);
+        assertNull(_counters.get("Test.Histogram.Statistics", CounterType.Statistics).getP50());
+
+        _counters.dump();
+    }
 }
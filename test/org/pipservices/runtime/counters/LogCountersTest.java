@@ -1,5 +1,9 @@
 package org.pipservices.runtime.counters;
 
+import static org.junit.Assert.*;
+
+import java.util.*;
+
 import org.junit.*;
 
 import org.pipservices.runtime.*;
@@ -38,4 +42,90 @@ public class LogCountersTest {
     public void TestMeasureElapsedTime() throws MicroserviceError {
         fixture.testMeasureElapsedTime();
     }
+
+    @Test
+    public void testConcurrentCounters() throws MicroserviceError {
+        fixture.testConcurrentCounters();
+    }
+
+    @Test
+    public void testHistograms() throws MicroserviceError {
+        fixture.testHistograms();
+    }
+
+    @Test
+    public void testTimingUnits() throws MicroserviceError {
+        LogCounters counters = new LogCounters();
+        counters.configure(ComponentConfig.fromTuples("options.timing_units", "us"));
+
+        counters.recordTiming("Test.Units", 1500);
+        Counter counter = counters.get("Test.Units", CounterType.Interval);
+        assertEquals(1.5, counter.getLast(), 0.001);
+        assertEquals(1.5, counter.getP50(), 0.01);
+
+        // Timings are never negative
+        ITiming timing = counters.beginTiming("Test.Units.Elapsed");
+        timing.endTiming();
+        assertTrue(counters.get("Test.Units.Elapsed", CounterType.Interval).getLast() >= 0);
+
+        try {
+            new LogCounters().configure(ComponentConfig.fromTuples("options.timing_units", "min"));
+            fail("Expected configuration error");
+        } catch (ConfigError ex) {
+            // Ok..
+        }
+    }
+
+    @Test
+    public void testResetOnDump() throws MicroserviceError {
+        List<Counter> saved = new ArrayList<Counter>();
+        LogCounters counters = new LogCounters() {
+            @Override
+            protected void save(List<Counter> counters) {
+                saved.clear();
+                saved.addAll(counters);
+            }
+        };
+        counters.configure(ComponentConfig.fromTuples("options.reset_on_dump", true));
+
+        counters.increment("Test.Reset.Increment", 10);
+        counters.stats("Test.Reset.Statistics", 1);
+        counters.stats("Test.Reset.Statistics", 3);
+        counters.last("Test.Reset.LastValue", 7);
+        counters.dump();
+
+        Map<String, Counter> dumped = toMap(saved);
+        assertEquals(10, (int)dumped.get("Test.Reset.Increment").getCount());
+        assertTrue(dumped.get("Test.Reset.Increment").getRate() > 0);
+        assertEquals(2, dumped.get("Test.Reset.Statistics").getAvg(), 0.001);
+
+        // Only values recorded after the last dump are reported
+        counters.increment("Test.Reset.Increment", 5);
+        counters.dump();
+
+        dumped = toMap(saved);
+        assertEquals(5, (int)dumped.get("Test.Reset.Increment").getCount());
+        assertNull(dumped.get("Test.Reset.Statistics").getCount());
+        assertEquals(0, dumped.get("Test.Reset.Statistics").getRate(), 0.001);
+        assertEquals(7, dumped.get("Test.Reset.LastValue").getLast(), 0.001);
+    }
+
+    @Test
+    public void testRates() throws MicroserviceError {
+        counters.increment("Test.Rate", 10);
+        counters.dump();
+
+        // Without reset totals are kept while the rate is calculated over the last window
+        counters.dump();
+        Counter counter = counters.get("Test.Rate", CounterType.Increment);
+        assertEquals(10, (int)counter.getCount());
+        assertEquals(0, counter.getRate(), 0.001);
+    }
+
+    private static Map<String, Counter> toMap(List<Counter> counters) {
+        Map<String, Counter> result = new HashMap<String, Counter>();
+        for (Counter counter : counters)
+            result.put(counter.getName(), counter);
+        return result;
+    }
 }
@@ -0,0 +1,123 @@
+package org.pipservices.runtime.counters;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+import org.junit.*;
+
+import org.pipservices.runtime.*;
+import org.pipservices.runtime.config.*;
+import org.pipservices.runtime.errors.*;
+import org.pipservices.runtime.logs.*;
+import org.pipservices.runtime.portability.DynamicMap;
+
+public class PrometheusCountersTest {
+    private PrometheusCounters counters;
+    private CountersFixture fixture;
+    private int port;
+
+	@Before
+	public void setUp() throws Exception {
+        ConsoleLogger log = new ConsoleLogger();
+
+        // Take a free ephemeral port, so tests don't clash with running services
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        counters = new PrometheusCounters();
+        counters.configure(ComponentConfig.fromTuples(
+    		"endpoint.host", "localhost",
+    		"endpoint.port", port
+		));
+        counters.link(new DynamicMap(), ComponentSet.fromComponents(log));
+        counters.open();
+
+        fixture = new CountersFixture(counters);
+    }
+
+	@After
+	public void tearDown() throws MicroserviceError {
+        counters.close();
+    }
+
+    @Test
+    public void testSimpleCounters() throws MicroserviceError {
+        fixture.testSimpleCounters();
+    }
+
+    @Test
+    public void testRenderMetrics() throws MicroserviceError {
+        counters.increment("test.calls", 3);
+        counters.last("test.size", 1.5f);
+        for (int value = 1; value <= 100; value++)
+            counters.histogram("test.latency", value);
+
+        String metrics = counters.renderMetrics();
+        assertTrue(metrics.contains("# TYPE test_calls counter\ntest_calls_total 3\n"));
+        assertTrue(metrics.contains("# TYPE test_size gauge\ntest_size 1.5\n"));
+        assertTrue(metrics.contains("# TYPE test_latency summary\n"));
+        assertTrue(metrics.contains("test_latency{quantile=\"0.5\"} 50."));
+        assertTrue(metrics.contains("test_latency_sum 5050\ntest_latency_count 100\n"));
+        assertTrue(metrics.endsWith("# EOF\n"));
+    }
+
+    @Test
+    public void testNameCollisions() throws MicroserviceError {
+        counters.increment("test.hits", 1);
+        counters.increment("test_hits", 2);
+        counters.last("test-hits", 3);
+
+        String metrics = counters.renderMetrics();
+        // Counters are written in order of names: 'test-hits', 'test.hits', 'test_hits'
+        assertTrue(metrics.contains("# TYPE test_hits gauge\ntest_hits 3\n"));
+        assertTrue(metrics.contains("# TYPE test_hits_2 counter\ntest_hits_2_total 1\n"));
+        assertTrue(metrics.contains("# TYPE test_hits_3 counter\ntest_hits_3_total 2\n"));
+
+        // Suffixes are assigned again on every scrape
+        assertEquals(metrics, counters.renderMetrics());
+    }
+
+    @Test
+    public void testScrapeEndpoint() throws Exception {
+        counters.increment("test.scrapes", 1);
+
+        HttpURLConnection connection = (HttpURLConnection)new URL("http://localhost:" + port + "/metrics").openConnection();
+        assertEquals(200, connection.getResponseCode());
+        assertTrue(connection.getContentType().startsWith("application/openmetrics-text"));
+
+        List<String> lines = new ArrayList<String>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), "UTF-8"))) {
+            for (String line = reader.readLine(); line != null; line = reader.readLine())
+                lines.add(line);
+        }
+        assertTrue(lines.contains("test_scrapes_total 1"));
+        assertEquals("# EOF", lines.get(lines.size() - 1));
+    }
+
+    @Test
+    public void testNoPort() throws MicroserviceError {
+        try {
+            new PrometheusCounters().configure(new ComponentConfig());
+            fail("Expected configuration error");
+        } catch (ConfigError ex) {
+            // Ok..
+        }
+    }
+
+    @Test
+    public void testResetOnDump() throws MicroserviceError {
+        try {
+            new PrometheusCounters().configure(ComponentConfig.fromTuples(
+        		"endpoint.port", 3010,
+        		"options.reset_on_dump", true
+    		));
+            fail("Expected configuration error");
+        } catch (ConfigError ex) {
+            // Ok..
+        }
+    }
+}
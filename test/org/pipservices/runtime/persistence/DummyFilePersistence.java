@@ -1,5 +1,7 @@
 package org.pipservices.runtime.persistence;
 
+import java.util.*;
+
 import org.pipservices.runtime.config.*;
 import org.pipservices.runtime.data.*;
 import org.pipservices.runtime.errors.*;
@@ -12,12 +14,19 @@ public class DummyFilePersistence extends FilePersistence<Dummy> implements IDum
 		Category.Persistence, "pip-services-dummies", "file", "*"
 	);
 
+	/**
+	 * Sort order by content that is kept up to date for cursor paging
+	 */
+	public final static Comparator<Dummy> ContentOrder = Comparator.comparing(Dummy::getContent);
+
 	public DummyFilePersistence() {
-        super(Descriptor, Dummy.class);
+        this(Descriptor);
     }
 
 	protected DummyFilePersistence(ComponentDescriptor descriptor) {
 		super(descriptor, Dummy.class);
+		addIndex("key", Dummy::getKey);
+		addSortOrder(ContentOrder);
 	}
 
 	@Override
@@ -27,10 +36,10 @@ public class DummyFilePersistence extends FilePersistence<Dummy> implements IDum
         filter = filter != null ? filter : new FilterParams();
         String key = filter.getNullableString("key");
 
-        return getPage(
-        	correlationId, 
+        return getPageByFilter(
+        	correlationId, filter,
     		(v) -> {
-                if (key != null && v.getKey() != key)
+                if (key != null && !key.equals(v.getKey()))
                     return false;
                 return true;
             },
@@ -1,13 +1,21 @@
 package org.pipservices.runtime.persistence;
 
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.charset.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.stream.*;
 import org.junit.*;
 
 import org.pipservices.runtime.*;
 import org.pipservices.runtime.config.*;
 import org.pipservices.runtime.data.*;
 import org.pipservices.runtime.errors.*;
-import org.pipservices.runtime.portability.DynamicMap;
+import org.pipservices.runtime.portability.*;
 
 public class DummyFilePersistenceTest {
     private static final ComponentConfig config = ComponentConfig.fromTuples(
@@ -43,10 +51,592 @@ public class DummyFilePersistenceTest {
     public void testCrudOperations() throws MicroserviceError {
         fixture.testCrudOperations();
     }
+
+	@Test
+    public void testLookupsAfterDeletes() throws MicroserviceError {
+        fixture.testLookupsAfterDeletes();
+    }
+
+	@Test
+    public void testFilterByKey() throws MicroserviceError {
+        fixture.testFilterByKey();
+    }
 	
 	@Test
 	public void testLoadData() throws MicroserviceError {
 		db.load();
 	}
 
+	@Test
+	public void testJournalReplay() throws Exception {
+		ComponentConfig journalConfig = ComponentConfig.fromTuples(
+	    	"options.path", "data/dummies_journal.json",
+	    	"options.journal", true,
+	    	"options.compact_interval", 0
+		);
+		File dataFile = new File("data/dummies_journal.json");
+		File journalFile = new File("data/dummies_journal.json.wal");
+		dataFile.delete();
+		journalFile.delete();
+
+		try {
+			DummyFilePersistence db1 = new DummyFilePersistence();
+			db1.configure(journalConfig);
+			db1.link(new DynamicMap(), new ComponentSet());
+			db1.open();
+
+			Dummy dummy1 = db1.createDummy(null, new Dummy(null, "Key 1", "Content 1"));
+			Dummy dummy2 = db1.createDummy(null, new Dummy(null, "Key 2", "Content 2"));
+			db1.updateDummy(null, dummy1.getId(), "{ \"content\": \"Updated Content 1\" }");
+			db1.deleteDummy(null, dummy2.getId());
+
+			// Changes go to the journal while data file stays empty
+			assertTrue(journalFile.length() > 0);
+			assertEquals("[]", new String(Files.readAllBytes(dataFile.toPath()), "UTF-8"));
+
+			// Simulate a crash in the middle of writing a record
+			try (FileWriter writer = new FileWriter(journalFile, true)) {
+				writer.write("{\"op\":\"set\",\"item\":{\"id\":");
+			}
+
+			// Reopen without closing the first instance
+			DummyFilePersistence db2 = new DummyFilePersistence();
+			db2.configure(journalConfig);
+			db2.link(new DynamicMap(), new ComponentSet());
+			db2.open();
+
+			assertEquals(1, db2.getDummies(null, null, null).getData().size());
+			assertEquals("Updated Content 1", db2.getDummyById(null, dummy1.getId()).getContent());
+			assertNull(db2.getDummyById(null, dummy2.getId()));
+
+			// Journal is compacted into the data file on open
+			assertFalse(journalFile.exists());
+			db2.close();
+		} finally {
+			dataFile.delete();
+			journalFile.delete();
+		}
+	}
+
+	@Test
+	public void testGroupCommit() throws Exception {
+		File dataFile = new File("data/dummies_batch.json");
+		dataFile.delete();
+
+		try {
+			DummyFilePersistence db = new DummyFilePersistence();
+			db.configure(ComponentConfig.fromTuples(
+		    	"options.path", "data/dummies_batch.json",
+		    	"options.flush", "batch",
+		    	"options.flush_batch", 3,
+		    	"options.flush_interval", 0
+			));
+			db.link(new DynamicMap(), new ComponentSet());
+			db.open();
+
+			// Changes are collected until the batch is full
+			db.createDummy(null, new Dummy(null, "Key 1", "Content 1"));
+			db.createDummy(null, new Dummy(null, "Key 2", "Content 2"));
+			CompletableFuture<Void> flushed = db.flushAsync();
+			assertFalse(flushed.isDone());
+			assertFalse(dataFile.exists());
+
+			// The last change in the batch triggers a single write
+			db.createDummy(null, new Dummy(null, "Key 3", "Content 3"));
+			flushed.get(5, TimeUnit.SECONDS);
+			assertTrue(db.flushAsync().isDone());
+
+			// Pending changes are written on close
+			db.createDummy(null, new Dummy(null, "Key 4", "Content 4"));
+			db.close();
+
+			DummyFilePersistence db2 = new DummyFilePersistence();
+			db2.configure(ComponentConfig.fromTuples("options.path", "data/dummies_batch.json"));
+			db2.link(new DynamicMap(), new ComponentSet());
+			db2.open();
+			assertEquals(4, db2.getDummies(null, null, null).getData().size());
+			db2.close();
+		} finally {
+			dataFile.delete();
+		}
+	}
+
+	@Test
+	public void testLoadTruncatedFile() throws Exception {
+		File dataFile = new File("data/dummies_truncated.json");
+		try (FileWriter writer = new FileWriter(dataFile)) {
+			writer.write("[{\"id\":\"1\",\"key\":\"Key 1\",\"content\":\"Content 1\"},");
+		}
+
+		try {
+			DummyFilePersistence db = new DummyFilePersistence();
+			db.configure(ComponentConfig.fromTuples("options.path", "data/dummies_truncated.json"));
+			db.link(new DynamicMap(), new ComponentSet());
+			try {
+				db.open();
+				fail("Expected error reading truncated file");
+			} catch (FileError ex) {
+				// Ok..
+			}
+		} finally {
+			dataFile.delete();
+		}
+	}
+
+	private DummyFilePersistence openPersistence(String path, String format) throws Exception {
+		DummyFilePersistence db = new DummyFilePersistence();
+		db.configure(ComponentConfig.fromTuples(
+			"options.path", path,
+			"options.format", format
+		));
+		db.link(new DynamicMap(), new ComponentSet());
+		db.open();
+		return db;
+	}
+
+	@Test
+	public void testBinaryFormats() throws Exception {
+		File dataFile = new File("data/dummies_format.json");
+		dataFile.delete();
+
+		try {
+			// Create data in JSON format
+			DummyFilePersistence db = openPersistence(dataFile.getPath(), "json");
+			Dummy dummy = db.createDummy(null, new Dummy(null, "Key 1", "Content 1"));
+			db.close();
+			assertEquals('[', Files.readAllBytes(dataFile.toPath())[0]);
+
+			// Existing JSON file is converted to Smile on open
+			db = openPersistence(dataFile.getPath(), "smile");
+			assertEquals("Content 1", db.getDummyById(null, dummy.getId()).getContent());
+			byte[] content = Files.readAllBytes(dataFile.toPath());
+			assertEquals(':', content[0]);
+			assertEquals(')', content[1]);
+			db.createDummy(null, new Dummy(null, "Key 2", "Content 2"));
+			db.close();
+
+			// Smile file is detected and converted to CBOR
+			db = openPersistence(dataFile.getPath(), "cbor");
+			assertEquals(2, db.getDummies(null, null, null).getData().size());
+			db.close();
+			assertEquals(0x80, Files.readAllBytes(dataFile.toPath())[0] & 0xE0);
+
+			// And back to JSON
+			db = openPersistence(dataFile.getPath(), "json");
+			assertEquals("Content 1", db.getDummyById(null, dummy.getId()).getContent());
+			db.close();
+			assertEquals('[', Files.readAllBytes(dataFile.toPath())[0]);
+		} finally {
+			dataFile.delete();
+		}
+	}
+
+	@Test
+	public void testSortedIndex() throws MicroserviceError {
+		db.addSortedIndex("content", Dummy::getContent, Converter::toNullableString);
+		for (int index = 0; index < 5; index++)
+			db.createDummy(null, new Dummy(null, "Key", "Content " + index));
+
+		List<Dummy> dummies = db.getListByFilter(
+			null, FilterParams.fromTuples("content_from", "Content 1", "content_to", "Content 3"), null, null);
+		assertEquals(3, dummies.size());
+		assertEquals("Content 1", dummies.get(0).getContent());
+		assertEquals("Content 3", dummies.get(2).getContent());
+
+		dummies = db.getListByFilter(null, FilterParams.fromTuples("content_from", "Content 3"), null, null);
+		assertEquals(2, dummies.size());
+
+		dummies = db.getListByFilter(null, FilterParams.fromTuples("content", "Content 2"), null, null);
+		assertEquals(1, dummies.size());
+
+		// The most selective index is used, and the predicate is still applied
+		dummies = db.getListByFilter(null, FilterParams.fromTuples("key", "Key", "content_to", "Content 1"),
+			(v) -> !"Content 0".equals(v.getContent()), null);
+		assertEquals(1, dummies.size());
+		assertEquals("Content 1", dummies.get(0).getContent());
+	}
+
+	@Test
+	public void testSortedPaging() throws MicroserviceError {
+		int[] order = new int[] { 3, 9, 0, 5, 1, 8, 2, 7, 4, 6 };
+		for (int index : order)
+			db.createDummy(null, new Dummy(null, "Key " + (index % 2), "Content " + index));
+
+		Comparator<Dummy> sort = Comparator.comparing(Dummy::getContent);
+		DataPage<Dummy> page = db.getPage(null, null, new PagingParams(2, 3, true), sort.reversed());
+		assertEquals(10, (int)page.getTotal());
+		assertEquals(3, page.getData().size());
+		assertEquals("Content 7", page.getData().get(0).getContent());
+		assertEquals("Content 6", page.getData().get(1).getContent());
+		assertEquals("Content 5", page.getData().get(2).getContent());
+
+		// Page at the end is shorter
+		page = db.getPage(null, (v) -> "Key 1".equals(v.getKey()), new PagingParams(3, 5, true), sort);
+		assertEquals(5, (int)page.getTotal());
+		assertEquals(2, page.getData().size());
+		assertEquals("Content 7", page.getData().get(0).getContent());
+		assertEquals("Content 9", page.getData().get(1).getContent());
+
+		// Equal items keep their order
+		page = db.getPage(null, null, new PagingParams(0, 4, false), Comparator.comparing(Dummy::getKey));
+		assertNull(page.getTotal());
+		assertEquals("Content 0", page.getData().get(0).getContent());
+		assertEquals("Content 8", page.getData().get(1).getContent());
+		assertEquals("Content 2", page.getData().get(2).getContent());
+		assertEquals("Content 4", page.getData().get(3).getContent());
+
+		// Without sort total is counted along with the page
+		page = db.getPage(null, null, new PagingParams(8, 5, true), null);
+		assertEquals(10, (int)page.getTotal());
+		assertEquals(2, page.getData().size());
+		assertEquals("Content 4", page.getData().get(0).getContent());
+	}
+
+	@Test
+	public void testCursorPaging() throws MicroserviceError {
+		for (int index = 0; index < 10; index++)
+			db.createDummy(null, new Dummy("id" + index, "Key " + (index % 2), "Content " + (9 - index)));
+
+		// Walk all items by ids
+		List<String> ids = new ArrayList<String>();
+		DataPage<Dummy> page = db.getPage(null, null, new PagingParams(null, 4, true, ""), null);
+		assertEquals(10, (int)page.getTotal());
+		while (true) {
+			for (Dummy dummy : page.getData())
+				ids.add(dummy.getId());
+			if (page.getNext() == null) break;
+
+			// Deleted cursor item doesn't break the walk
+			db.deleteDummy(null, page.getData().get(page.getData().size() - 1).getId());
+			page = db.getPage(null, null, new PagingParams(null, 4, false, page.getNext()), null);
+		}
+		assertEquals(Arrays.asList("id0", "id1", "id2", "id3", "id4", "id5", "id6", "id7", "id8", "id9"), ids);
+
+		// Walk filtered items in sort order
+		List<String> contents = new ArrayList<String>();
+		Comparator<Dummy> sort = Comparator.comparing(Dummy::getContent);
+		page = db.getPageByFilter(null, FilterParams.fromTuples("key", "Key 0"), null,
+			new PagingParams(null, 2, false, ""), sort);
+		while (true) {
+			for (Dummy dummy : page.getData())
+				contents.add(dummy.getContent());
+			if (page.getNext() == null) break;
+
+			page = db.getPageByFilter(null, FilterParams.fromTuples("key", "Key 0"), null,
+				new PagingParams(null, 2, false, page.getNext()), sort);
+		}
+		assertEquals(Arrays.asList("Content 1", "Content 3", "Content 5", "Content 7", "Content 9"), contents);
+
+		// Walk all items in sort order, sorted cursor only keeps the item id
+		contents.clear();
+		page = db.getPage(null, null, new PagingParams(null, 2, false, ""), sort);
+		while (true) {
+			for (Dummy dummy : page.getData())
+				contents.add(dummy.getContent());
+			if (page.getNext() == null) break;
+
+			String cursor = new String(Base64.getUrlDecoder().decode(page.getNext()), StandardCharsets.UTF_8);
+			assertFalse(cursor.contains("Content"));
+
+			// Changed or deleted cursor item doesn't break the walk
+			Dummy last = page.getData().get(page.getData().size() - 1);
+			if (contents.size() == 2) db.updateDummy(null, last.getId(), "{ \"content\": \"Content 9\" }");
+			if (contents.size() == 4) db.deleteDummy(null, last.getId());
+			page = db.getPage(null, null, new PagingParams(null, 2, false, page.getNext()), sort);
+		}
+		assertEquals(Arrays.asList("Content 0", "Content 1", "Content 3", "Content 4", "Content 5",
+			"Content 7", "Content 8", "Content 9", "Content 9"), contents);
+
+		// Walk projected items, cursor is kept in the projected page
+		List<String> expected = db.getList(null, null, null, Dummy::getId);
+		Collections.sort(expected);
+		ids.clear();
+		DataPage<String> projected = db.getPage(null, null, new PagingParams(null, 3, false, ""), null, Dummy::getId);
+		while (true) {
+			ids.addAll(projected.getData());
+			if (projected.getNext() == null) break;
+
+			projected = db.getPage(null, null, new PagingParams(null, 3, false, projected.getNext()), null, Dummy::getId);
+		}
+		assertEquals(expected, ids);
+
+		// Invalid cursor returns an empty page
+		page = db.getPage(null, null, new PagingParams(null, 2, false, "@@@"), null);
+		assertEquals(0, page.getData().size());
+		assertNull(page.getNext());
+	}
+
+	@Test
+	public void testDeclaredSortOrder() throws MicroserviceError {
+		for (int index = 0; index < 10; index++)
+			db.createDummy(null, new Dummy("id" + index, "Key " + (index % 2), "Content " + (9 - index)));
+
+		List<String> contents = new ArrayList<String>();
+		DataPage<Dummy> page = db.getPage(null, null, new PagingParams(null, 3, false, ""),
+			DummyFilePersistence.ContentOrder);
+		while (true) {
+			for (Dummy dummy : page.getData())
+				contents.add(dummy.getContent());
+			if (page.getNext() == null) break;
+
+			// Changes are reflected in the order, items before the cursor are not seen again
+			if (contents.size() == 3) {
+				db.updateDummy(null, "id0", "{ \"content\": \"Content 00\" }");
+				db.updateDummy(null, "id5", "{ \"content\": \"Content 45\" }");
+				db.deleteDummy(null, page.getData().get(2).getId());
+			}
+			page = db.getPage(null, null, new PagingParams(null, 3, false, page.getNext()),
+				DummyFilePersistence.ContentOrder);
+		}
+		assertEquals(Arrays.asList("Content 0", "Content 1", "Content 2", "Content 3", "Content 45",
+			"Content 5", "Content 6", "Content 7", "Content 8"), contents);
+
+		// Filtered pages are walked in the declared order as well
+		contents.clear();
+		page = db.getPage(null, (v) -> "Key 1".equals(v.getKey()), new PagingParams(null, 10, false, ""),
+			DummyFilePersistence.ContentOrder);
+		for (Dummy dummy : page.getData())
+			contents.add(dummy.getContent());
+		assertEquals(Arrays.asList("Content 0", "Content 45", "Content 6", "Content 8"), contents);
+	}
+
+	@Test
+	public void testParallelQueries() throws Exception {
+		List<Dummy> data = new ArrayList<Dummy>();
+		for (int index = 0; index < 1000; index++)
+			data.add(new Dummy("id" + index, "Key " + (index % 10), "Content " + (index % 7)));
+
+		DummyFilePersistence db = new DummyFilePersistence();
+		db.configure(ComponentConfig.fromTuples(
+			"options.path", "data/dummies_parallel.json",
+			"options.data", data,
+			"options.max_page_size", 1000,
+			"options.parallel_threshold", 100
+		));
+		db.link(new DynamicMap(), new ComponentSet());
+		db.open();
+
+		try {
+			// Sort is stable, so parallel results match sequential ones
+			Comparator<Dummy> sort = Comparator.comparing(Dummy::getContent);
+			List<Dummy> expected = data.stream()
+				.filter((v) -> !"Key 3".equals(v.getKey()))
+				.sorted(sort)
+				.collect(Collectors.toList());
+
+			List<Dummy> dummies = db.getList(null, (v) -> !"Key 3".equals(v.getKey()), sort);
+			assertEquals(expected, dummies);
+
+			DataPage<Dummy> page = db.getPage(
+				null, (v) -> !"Key 3".equals(v.getKey()), new PagingParams(100, 50, true), sort);
+			assertEquals(900, (int)page.getTotal());
+			assertEquals(expected.subList(100, 150), page.getData());
+
+			// Index candidates above the threshold are processed in parallel too
+			page = db.getDummies(null, FilterParams.fromTuples("key", "Key 5"), new PagingParams(10, 20, true));
+			assertEquals(100, (int)page.getTotal());
+			assertEquals("id105", page.getData().get(0).getId());
+			assertEquals("id295", page.getData().get(19).getId());
+		} finally {
+			db.close();
+			new File("data/dummies_parallel.json").delete();
+		}
+	}
+
+	@Test
+	public void testConcurrentReads() throws Exception {
+		for (int index = 0; index < 50; index++)
+			db.createDummy(null, new Dummy(null, "Key", "Content"));
+
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread writer = new Thread(() -> {
+			try {
+				while (running.get()) {
+					Dummy dummy = db.createDummy(null, new Dummy(null, "Key", "Content"));
+					db.updateDummy(null, dummy.getId(), "{ \"content\": \"Updated\" }");
+					db.deleteDummy(null, dummy.getId());
+				}
+			} catch (MicroserviceError ex) {
+				throw new RuntimeException(ex);
+			}
+		});
+		writer.start();
+
+		try {
+			for (int index = 0; index < 500; index++) {
+				// Every page is taken from a consistent snapshot
+				DataPage<Dummy> page = db.getPage(null, null, new PagingParams(null, 100, true), null);
+				assertEquals((int)page.getTotal(), page.getData().size());
+				assertTrue(page.getTotal() == 50 || page.getTotal() == 51);
+
+				for (Dummy dummy : page.getData()) {
+					Dummy found = db.getDummyById(null, dummy.getId());
+					if (found != null)
+						assertEquals(dummy.getId(), found.getId());
+				}
+			}
+		} finally {
+			running.set(false);
+			writer.join();
+		}
+	}
+
+	@Test
+	public void testDeleteOrder() throws MicroserviceError {
+		Dummy[] dummies = new Dummy[5];
+		for (int index = 0; index < dummies.length; index++)
+			dummies[index] = db.createDummy(null, new Dummy(null, "Key " + index, "Content " + index));
+
+		// Single delete keeps the order of remaining items
+		db.deleteDummy(null, dummies[1].getId());
+		List<String> keys = db.getList(null, null, null, Dummy::getKey);
+		assertEquals(Arrays.asList("Key 0", "Key 2", "Key 3", "Key 4"), keys);
+
+		// Delete by filter keeps the order as well
+		db.deleteByFilter(null, null, (v) -> "Key 3".equals(v.getKey()));
+		keys = db.getList(null, null, null, Dummy::getKey);
+		assertEquals(Arrays.asList("Key 0", "Key 2", "Key 4"), keys);
+
+		// Items are found and changed after deleted items are compacted
+		List<String> expected = new ArrayList<String>(keys);
+		for (int index = 5; index < 25; index++) {
+			Dummy dummy = db.createDummy(null, new Dummy(null, "Key " + index, "Content " + index));
+			if (index % 4 != 0) db.deleteDummy(null, dummy.getId());
+			else expected.add(dummy.getKey());
+		}
+		db.deleteDummy(null, dummies[0].getId());
+		expected.remove("Key 0");
+		assertEquals(expected, db.getList(null, null, null, Dummy::getKey));
+		for (Dummy dummy : db.getList(null, null, null)) {
+			assertEquals(dummy.getKey(), db.getDummyById(null, dummy.getId()).getKey());
+			db.updateDummy(null, dummy.getId(), "{ \"content\": \"Changed\" }");
+		}
+		assertEquals(expected, db.getList(null, null, null, Dummy::getKey));
+		assertEquals(0, db.getList(null, (v) -> !"Changed".equals(v.getContent()), null).size());
+	}
+
+	@Test
+	public void testReadsDuringSave() throws Exception {
+		CountDownLatch saving = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		AtomicBoolean block = new AtomicBoolean(false);
+		DummyFilePersistence db = new DummyFilePersistence() {
+			@Override
+			public void save() throws MicroserviceError {
+				if (block.get()) {
+					saving.countDown();
+					try {
+						release.await();
+					} catch (InterruptedException ex) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				super.save();
+			}
+		};
+		db.configure(ComponentConfig.fromTuples(
+			"options.path", "data/dummies_reads.json",
+			"options.data", new ArrayList<Dummy>()
+		));
+		db.link(new DynamicMap(), new ComponentSet());
+		db.open();
+
+		ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			Dummy dummy1 = db.createDummy(null, new Dummy(null, "Key 1", "Content 1"));
+
+			// Writer holds the persistence lock while the file is written
+			block.set(true);
+			Future<Dummy> writer = executor.submit(() -> db.createDummy(null, new Dummy(null, "Key 2", "Content 2")));
+			assertTrue(saving.await(5, TimeUnit.SECONDS));
+
+			// Indexed queries, cursor pages and lookups don't wait for the save
+			Future<Integer> reader = executor.submit(() -> {
+				DataPage<Dummy> page = db.getDummies(null, FilterParams.fromTuples("key", "Key 1"), null);
+				assertEquals(1, page.getData().size());
+				page = db.getDummies(null, FilterParams.fromTuples("key", "Key 1"), new PagingParams(null, 10, false, ""));
+				assertEquals(dummy1.getId(), db.getDummyById(null, dummy1.getId()).getId());
+				return page.getData().size();
+			});
+			assertEquals(1, (int)reader.get(5, TimeUnit.SECONDS));
+
+			block.set(false);
+			release.countDown();
+			assertNotNull(writer.get(5, TimeUnit.SECONDS));
+		} finally {
+			release.countDown();
+			executor.shutdown();
+			db.close();
+			new File("data/dummies_reads.json").delete();
+		}
+	}
+
+	@Test
+	public void testBatchOperations() throws Exception {
+		AtomicInteger saves = new AtomicInteger();
+		DummyFilePersistence db = new DummyFilePersistence() {
+			@Override
+			public void save() throws MicroserviceError {
+				saves.incrementAndGet();
+				super.save();
+			}
+		};
+		new File("data/dummies_batch.json").delete();
+		db.configure(ComponentConfig.fromTuples(
+			"options.path", "data/dummies_batch.json"
+		));
+		db.link(new DynamicMap(), new ComponentSet());
+		db.open();
+
+		try {
+			List<Dummy> dummies = new ArrayList<Dummy>();
+			for (int index = 0; index < 1000; index++)
+				dummies.add(new Dummy(null, "Key " + (index % 4), "Content " + index));
+
+			// All items are written at once
+			saves.set(0);
+			List<Dummy> created = db.createMany(null, dummies);
+			assertEquals(1000, created.size());
+			assertEquals(1, saves.get());
+			assertEquals("Content 500", db.getDummyById(null, created.get(500).getId()).getContent());
+
+			// Duplicate ids fail the entire batch
+			Dummy generated = new Dummy(null, "Key", "Content");
+			try {
+				db.createMany(null, Arrays.asList(
+					new Dummy("new", "Key", "Content"), generated, new Dummy(created.get(0).getId(), "Key", "Content")));
+				fail("Expected ConflictError");
+			} catch (ConflictError ex) {
+				// Expected
+			}
+			assertNull(db.getDummyById(null, "new"));
+			assertNull(generated.getId());
+
+			saves.set(0);
+			int count = db.updateMany(null, FilterParams.fromTuples("key", "Key 1"), null,
+				"{ \"content\": \"Updated\" }");
+			assertEquals(250, count);
+			assertEquals(1, saves.get());
+			assertEquals("Updated", db.getDummyById(null, created.get(1).getId()).getContent());
+			assertEquals("Content 2", db.getDummyById(null, created.get(2).getId()).getContent());
+
+			saves.set(0);
+			count = db.deleteByFilter(null, null, (v) -> !"Key 2".equals(v.getKey()));
+			assertEquals(750, count);
+			assertEquals(1, saves.get());
+			assertEquals(250, db.getDummies(null, null, new PagingParams(null, null, true)).getTotal().intValue());
+			assertNull(db.getDummyById(null, created.get(1).getId()));
+			assertNotNull(db.getDummyById(null, created.get(2).getId()));
+			assertEquals(0, db.getDummies(null, FilterParams.fromTuples("key", "Key 1"), null).getData().size());
+
+			// Batch changes are persisted
+			db.close();
+			db.open();
+			assertEquals(250, db.getDummies(null, null, new PagingParams(null, null, true)).getTotal().intValue());
+		} finally {
+			db.close();
+			new File("data/dummies_batch.json").delete();
+		}
+	}
+
 }
@@ -0,0 +1,199 @@
+package org.pipservices.runtime.persistence;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.util.*;
+
+import org.junit.*;
+
+import org.pipservices.runtime.*;
+import org.pipservices.runtime.config.*;
+import org.pipservices.runtime.data.*;
+import org.pipservices.runtime.errors.*;
+import org.pipservices.runtime.portability.*;
+
+public class DummyMappedPersistenceTest {
+    private static final ComponentConfig config = ComponentConfig.fromTuples(
+    	"type", "mapped",
+    	"options.path", "data/dummies.dat",
+    	"options.page_size", 512,
+    	"options.chunk_size", 8192
+	);
+
+    private DummyMappedPersistence db;
+    private DummyPersistenceFixture fixture;
+
+	@Before
+	public void setUp() throws Exception {
+		new File("data/dummies.dat").delete();
+
+        db = new DummyMappedPersistence();
+        fixture = new DummyPersistenceFixture(db);
+
+        db.configure(config);
+        db.link(new DynamicMap(), new ComponentSet());
+        db.open();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+        db.close();
+		new File("data/dummies.dat").delete();
+	}
+
+	@Test
+    public void testCrudOperations() throws MicroserviceError {
+        fixture.testCrudOperations();
+    }
+
+	@Test
+    public void testLookupsAfterDeletes() throws MicroserviceError {
+        fixture.testLookupsAfterDeletes();
+    }
+
+	@Test
+    public void testFilterByKey() throws MicroserviceError {
+        fixture.testFilterByKey();
+    }
+
+	@Test
+	public void testReopen() throws Exception {
+		// Items take many pages and chunks
+		List<String> ids = new ArrayList<String>();
+		for (int index = 0; index < 500; index++)
+			ids.add(db.createDummy(null, new Dummy(null, "Key " + (index % 5), "Content " + index)).getId());
+		for (int index = 0; index < 500; index += 2)
+			db.deleteDummy(null, ids.get(index));
+
+		db.close();
+		db.open();
+
+		assertEquals(250, db.getCount());
+		assertNull(db.getDummyById(null, ids.get(0)));
+		assertEquals("Content 1", db.getDummyById(null, ids.get(1)).getContent());
+		assertEquals("Content 499", db.getDummyById(null, ids.get(499)).getContent());
+
+		DataPage<Dummy> page = db.getDummies(null, FilterParams.fromTuples("key", "Key 1"), new PagingParams(0, 10, true));
+		assertEquals(50, (int)page.getTotal());
+		assertEquals(10, page.getData().size());
+	}
+
+	@Test
+	public void testSpaceReuse() throws Exception {
+		List<String> ids = new ArrayList<String>();
+		for (int index = 0; index < 200; index++)
+			ids.add(db.createDummy(null, new Dummy(null, "Key", "Content " + index)).getId());
+
+		// Growing items move to other pages and keep their ids
+		StringBuilder content = new StringBuilder();
+		for (int index = 0; index < 20; index++)
+			content.append("Long content ");
+		for (int index = 0; index < 200; index += 10)
+			db.updateDummy(null, ids.get(index), "{ \"content\": \"" + content + index + "\" }");
+		for (int index = 0; index < 200; index += 10)
+			assertEquals(content.toString() + index, db.getDummyById(null, ids.get(index)).getContent());
+
+		// Space of deleted items is reused
+		long length = new File("data/dummies.dat").length();
+		for (int round = 0; round < 5; round++) {
+			for (int index = 1; index < 200; index += 10)
+				db.deleteDummy(null, ids.get(index));
+			for (int index = 1; index < 200; index += 10)
+				ids.set(index, db.createDummy(null, new Dummy(null, "Key", "Content " + index)).getId());
+		}
+		assertEquals(length, new File("data/dummies.dat").length());
+		assertEquals(200, db.getCount());
+	}
+
+	@Test
+	public void testCursorPaging() throws Exception {
+		List<String> ids = new ArrayList<String>();
+		for (int index = 0; index < 100; index++)
+			ids.add(db.createDummy(null, new Dummy(null, "Key " + (index % 2), "Content " + index)).getId());
+
+		// Walk all items across many pages
+		Set<String> found = new HashSet<String>();
+		DataPage<Dummy> page = db.getPage(null, null, new PagingParams(null, 7, true, ""), null);
+		assertEquals(100, (int)page.getTotal());
+		while (true) {
+			for (Dummy dummy : page.getData())
+				assertTrue(found.add(dummy.getId()));
+			if (page.getNext() == null) break;
+
+			// Deleted cursor item doesn't break the walk
+			db.deleteDummy(null, page.getData().get(page.getData().size() - 1).getId());
+			page = db.getPage(null, null, new PagingParams(null, 7, false, page.getNext()), null);
+		}
+		assertEquals(100, found.size());
+
+		// Walk filtered items
+		int count = 0;
+		page = db.getDummies(null, FilterParams.fromTuples("key", "Key 1"), new PagingParams(null, 10, false, ""));
+		while (true) {
+			for (Dummy dummy : page.getData())
+				assertEquals("Key 1", dummy.getKey());
+			count += page.getData().size();
+			if (page.getNext() == null) break;
+			page = db.getDummies(null, FilterParams.fromTuples("key", "Key 1"), new PagingParams(null, 10, false, page.getNext()));
+		}
+		assertEquals(db.getList(null, (v) -> "Key 1".equals(v.getKey()), null).size(), count);
+
+		// Invalid cursor returns an empty page
+		page = db.getPage(null, null, new PagingParams(null, 2, false, "@@@"), null);
+		assertEquals(0, page.getData().size());
+		assertNull(page.getNext());
+
+		// Sorted cursor paging is not supported
+		try {
+			db.getPage(null, null, new PagingParams(null, 2, false, ""), Comparator.comparing(Dummy::getContent));
+			fail("Expected BadRequestError");
+		} catch (BadRequestError ex) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testCorruptedRecords() throws Exception {
+		List<String> ids = new ArrayList<String>();
+		for (int index = 0; index < 50; index++)
+			ids.add(db.createDummy(null, new Dummy(null, "Key", "Content " + index)).getId());
+		db.close();
+
+		// Break offset of the first record and length of the second one in the first data page
+		try (RandomAccessFile file = new RandomAccessFile("data/dummies.dat", "rw")) {
+			file.seek(512 + 4);
+			file.writeChar(0xFFFF);
+			file.seek(512 + 4 + 4 + 2);
+			file.writeChar(0x7FFF);
+		}
+
+		// Corrupted records are skipped and the rest of the file is usable
+		db.open();
+		assertEquals(48, db.getCount());
+		assertNull(db.getDummyById(null, ids.get(0)));
+		assertNull(db.getDummyById(null, ids.get(1)));
+		assertEquals("Content 2", db.getDummyById(null, ids.get(2)).getContent());
+		assertEquals(48, db.getList(null, null, null).size());
+
+		db.createDummy(null, new Dummy(ids.get(0), "Key", "Content 0"));
+		db.updateDummy(null, ids.get(2), "{ \"content\": \"Updated\" }");
+		assertEquals("Updated", db.getDummyById(null, ids.get(2)).getContent());
+		assertEquals(49, db.getList(null, null, null).size());
+	}
+
+	@Test
+	public void testItemTooLarge() throws Exception {
+		StringBuilder content = new StringBuilder();
+		for (int index = 0; index < 600; index++)
+			content.append('x');
+
+		try {
+			db.createDummy(null, new Dummy(null, "Key", content.toString()));
+			fail("Expected BadRequestError");
+		} catch (BadRequestError ex) {
+			// Expected
+		}
+	}
+
+}
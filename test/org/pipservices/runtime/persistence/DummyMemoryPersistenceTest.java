@@ -39,6 +39,16 @@ public class DummyMemoryPersistenceTest {
     public void testCrudOperations() throws MicroserviceError {
         fixture.testCrudOperations();
     }
+
+	@Test
+    public void testLookupsAfterDeletes() throws MicroserviceError {
+        fixture.testLookupsAfterDeletes();
+    }
+
+	@Test
+    public void testFilterByKey() throws MicroserviceError {
+        fixture.testFilterByKey();
+    }
 	
 	@Test
 	public void testLoadData() throws MicroserviceError {
@@ -4,6 +4,7 @@ import static org.junit.Assert.*;
 
 import org.pipservices.runtime.data.DataPage;
 import org.pipservices.runtime.data.Dummy;
+import org.pipservices.runtime.data.FilterParams;
 import org.pipservices.runtime.errors.*;
 
 public class DummyPersistenceFixture {
@@ -58,4 +59,54 @@ public class DummyPersistenceFixture {
         dummy = _db.getDummyById(null, dummy1.getId());
         assertNull(dummy);
     }
+
+    public void testLookupsAfterDeletes() throws MicroserviceError {
+        // Create several dummies
+        Dummy[] dummies = new Dummy[5];
+        for (int index = 0; index < dummies.length; index++)
+        	dummies[index] = _db.createDummy(null, new Dummy(null, "Key " + index, "Content " + index));
+
+        // Delete the first and the last ones
+        _db.deleteDummy(null, dummies[0].getId());
+        _db.deleteDummy(null, dummies[4].getId());
+
+        assertNull(_db.getDummyById(null, dummies[0].getId()));
+        assertNull(_db.getDummyById(null, dummies[4].getId()));
+
+        // Remaining dummies shall be found and updated by their ids
+        for (int index = 1; index < 4; index++) {
+        	Dummy dummy = _db.getDummyById(null, dummies[index].getId());
+        	assertNotNull(dummy);
+        	assertEquals("Key " + index, dummy.getKey());
+
+        	dummy = _db.updateDummy(null, dummies[index].getId(), "{ \"content\": \"Updated\" }");
+        	assertEquals("Updated", dummy.getContent());
+        }
+
+        assertEquals(3, _db.getDummies(null, null, null).getData().size());
+    }
+
+    public void testFilterByKey() throws MicroserviceError {
+        Dummy[] dummies = new Dummy[4];
+        for (int index = 0; index < dummies.length; index++)
+        	dummies[index] = _db.createDummy(null, new Dummy(null, "Key " + (index % 2), "Content " + index));
+
+        DataPage<Dummy> page = _db.getDummies(null, FilterParams.fromTuples("key", "Key 1"), null);
+        assertEquals(2, page.getData().size());
+        for (Dummy dummy : page.getData())
+        	assertEquals("Key 1", dummy.getKey());
+
+        // Filter shall follow changes of the key
+        _db.updateDummy(null, dummies[0].getId(), "{ \"key\": \"Key 1\" }");
+        _db.deleteDummy(null, dummies[1].getId());
+
+        page = _db.getDummies(null, FilterParams.fromTuples("key", "Key 1"), null);
+        assertEquals(2, page.getData().size());
+        page = _db.getDummies(null, FilterParams.fromTuples("key", "Key 0"), null);
+        assertEquals(1, page.getData().size());
+        assertEquals(dummies[2].getId(), page.getData().get(0).getId());
+
+        page = _db.getDummies(null, FilterParams.fromTuples("key", "Key 2"), null);
+        assertEquals(0, page.getData().size());
+    }
 }
@@ -0,0 +1,81 @@
+package org.pipservices.runtime.persistence;
+
+import static org.junit.Assert.*;
+
+import java.util.*;
+
+import org.junit.*;
+
+public class VersionedListTest {
+	private VersionedList<Integer> createList(int size) {
+		List<Integer> items = new ArrayList<Integer>();
+		for (int index = 0; index < size; index++)
+			items.add(index);
+		return new VersionedList<Integer>(items);
+	}
+
+	@Test
+	public void testSnapshots() {
+		VersionedList<Integer> list = createList(3000);
+		List<Integer> snapshot = list.snapshot();
+
+		list.set(5, -5);
+		list.add(3000);
+		list.remove(0);
+
+		// Snapshot is not affected by following changes
+		assertEquals(3000, snapshot.size());
+		assertEquals(5, (int)snapshot.get(5));
+		assertEquals(0, (int)snapshot.get(0));
+		assertEquals(3000, list.size());
+		assertEquals(-5, (int)list.get(4));
+		assertEquals(3000, (int)list.get(2999));
+	}
+
+	@Test
+	public void testRemoveSlot() {
+		VersionedList<Integer> list = createList(2049);
+		List<Integer> snapshot = list.snapshot();
+
+		// Removed items leave empty slots, following items keep their slots and order
+		assertEquals(10, (int)list.removeSlot(10));
+		List<Integer> removed = list.snapshot();
+		assertEquals(2048, removed.size());
+		assertEquals(2049, list.getSlotCount());
+		assertEquals(1, list.getEmptySlotCount());
+		assertNull(VersionedList.getSlot(removed, 10));
+		assertEquals(11, (int)VersionedList.getSlot(removed, 11));
+		assertEquals(11, (int)removed.get(10));
+		assertEquals(2048, (int)removed.get(2047));
+
+		// List positions skip empty slots
+		list.set(10, -11);
+		assertEquals(-11, (int)VersionedList.getSlot(list, 11));
+		assertEquals(1026, (int)list.remove(1025));
+		assertEquals(1027, (int)list.get(1025));
+
+		// Empty slots at the end are dropped
+		assertEquals(2048, (int)list.removeSlot(2048));
+		assertEquals(2048, list.getSlotCount());
+		list.add(3000);
+		assertEquals(3000, (int)VersionedList.getSlot(list, 2048));
+
+		// Items are added after the last slot as a single version
+		list.addAll(Arrays.asList(3001, 3002));
+		assertEquals(2051, list.getSlotCount());
+		assertEquals(3002, (int)list.get(list.size() - 1));
+
+		// Previous versions are not affected
+		assertEquals(2049, snapshot.size());
+		assertEquals(10, (int)snapshot.get(10));
+		assertEquals(2048, removed.size());
+		assertEquals(1025, (int)removed.get(1024));
+
+		// Copies drop empty slots
+		List<Integer> items = new ArrayList<Integer>(list);
+		VersionedList<Integer> copy = new VersionedList<Integer>(list);
+		assertEquals(0, copy.getEmptySlotCount());
+		assertEquals(items, copy);
+		assertEquals(items.stream().mapToInt((v) -> v).sum(), list.parallelStream().mapToInt((v) -> v).sum());
+	}
+}
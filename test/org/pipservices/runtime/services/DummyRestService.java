@@ -40,12 +40,13 @@ public class DummyRestService extends RestService {
     public DataPage<Dummy> getDummies(
     	@QueryParam("correlation_id") String correlationId,
 		@QueryParam("key") String key, @QueryParam("skip") String skip,
-		@QueryParam("take") String take, @QueryParam("total") String total
+		@QueryParam("take") String take, @QueryParam("total") String total,
+		@QueryParam("after") String after
 	) throws MicroserviceError {    	
     	FilterParams filter = FilterParams.fromTuples(
 			"key", key
 		);    	
-    	PagingParams paging = new PagingParams(skip, take, total);
+    	PagingParams paging = new PagingParams(skip, take, total, after);
     	
         return _logic.getDummies(correlationId, filter, paging);
     }